@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.github.jojoti.grpcstartersbram.Session;
+import io.github.jojoti.grpcstartersbram.SessionUser;
+
+/**
+ * 不读 redis 的 session，token 仍然按真实格式解析，只去掉了存储的开销
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class BenchmarkSession implements Session {
+
+    private static final SessionUser ANONYMOUS = new User(0, 0, true);
+
+    @Override
+    public SessionUser verify(ParseToken tokenVal, ImmutableList<String> attachInline) {
+        final var decodeToken = tokenVal.getDecodeToken();
+        if (decodeToken == null) {
+            return ANONYMOUS;
+        }
+        return new User(decodeToken.uid, decodeToken.scopeId, false);
+    }
+
+    @Override
+    public SessionUser verify(long uid, int scopeId, ImmutableList<String> attachInline) {
+        return new User(uid, scopeId, false);
+    }
+
+    @Override
+    public void logout(long uid, int scopeId) {
+    }
+
+    private static final class User implements SessionUser {
+
+        private final long uid;
+        private final long scopeId;
+        private final boolean anonymous;
+
+        private User(long uid, long scopeId, boolean anonymous) {
+            this.uid = uid;
+            this.scopeId = scopeId;
+            this.anonymous = anonymous;
+        }
+
+        @Override
+        public long getScopeId() {
+            return this.scopeId;
+        }
+
+        @Override
+        public long getUid() {
+            return this.uid;
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return this.anonymous;
+        }
+
+        @Override
+        public void logout() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public NewTokenBuilder newToken(long uid, long scopeId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getAttach(String key) {
+            return null;
+        }
+
+        @Override
+        public <T> T getAttachJson(String key, Class<T> t) {
+            return null;
+        }
+
+        @Override
+        public SessionUser setAttachString(ImmutableMap<String, String> stringValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> SessionUser setAttachJson(ImmutableMap<String, T> jsonValues) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.UInt32Value;
+import io.github.jojoti.grpcstartersb.GRpcPrimaryService;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+
+/**
+ * 模拟文件分片上传 请求是一个大的 bytes 字段 只返回收到的字节数
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcPrimaryService
+public class BulkService implements BindableService {
+
+    static final MethodDescriptor<BytesValue, UInt32Value> UPLOAD_METHOD = MethodDescriptor.<BytesValue, UInt32Value>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("benchmark.Bulk", "Upload"))
+            .setRequestMarshaller(ProtoUtils.marshaller(BytesValue.getDefaultInstance()))
+            .setResponseMarshaller(ProtoUtils.marshaller(UInt32Value.getDefaultInstance()))
+            .build();
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(UPLOAD_METHOD.getServiceName())
+                .addMethod(UPLOAD_METHOD, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    // 不把 bytes 拷贝出来 只返回大小
+                    responseObserver.onNext(UInt32Value.of(request.getValue().size()));
+                    responseObserver.onCompleted();
+                }))
+                .build();
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import com.google.common.io.ByteStreams;
+import io.github.jojoti.grpcstartersb.GRpcPrimaryService;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCalls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * 不依赖 protobuf 生成代码的 echo service，同一个类按 serviceName 注册多个 service
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcPrimaryService
+public class EchoService implements BindableService {
+
+    static final MethodDescriptor.Marshaller<byte[]> BYTES_MARSHALLER = new MethodDescriptor.Marshaller<>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return ByteStreams.toByteArray(stream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private final MethodDescriptor<byte[], byte[]> unaryMethod;
+
+    public EchoService(String serviceName) {
+        this.unaryMethod = unaryMethod(serviceName);
+    }
+
+    static MethodDescriptor<byte[], byte[]> unaryMethod(String serviceName) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(serviceName, "Unary"))
+                .setRequestMarshaller(BYTES_MARSHALLER)
+                .setResponseMarshaller(BYTES_MARSHALLER)
+                .build();
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(this.unaryMethod.getServiceName())
+                .addMethod(this.unaryMethod, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                }))
+                .build();
+    }
+
+}
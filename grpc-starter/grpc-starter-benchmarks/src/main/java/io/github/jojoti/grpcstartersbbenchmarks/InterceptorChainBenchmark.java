@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import io.github.jojoti.grpcstartersb.GRpcServers;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCalls;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个 scope 下 service 个数对每次调用拦截器开销的影响
+ * <p>
+ * 拦截器链按 service 预先计算之后，services=1 与 services=50 的吞吐量应该基本一致
+ * <p>
+ * java -jar target/grpc-starter-benchmarks-*.jar InterceptorChainBenchmark
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InterceptorChainBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int services;
+
+    @Param({"4"})
+    public int globalInterceptors;
+
+    private AnnotationConfigApplicationContext context;
+    private ManagedChannel channel;
+    private MethodDescriptor<byte[], byte[]> method;
+    private final byte[] payload = new byte[64];
+
+    @Setup
+    public void setup() throws IOException {
+        final int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final var item = new GRpcServerProperties.ServerItem();
+        item.setAddress("127.0.0.1:" + port);
+        final var properties = new GRpcServerProperties();
+        properties.setServers(Map.of("primary", item));
+
+        this.context = new AnnotationConfigApplicationContext();
+        this.context.registerBean(GRpcServers.class, () -> new GRpcServers(properties));
+        for (int i = 0; i < this.globalInterceptors; i++) {
+            this.context.registerBean("noopInterceptor" + i, NoopInterceptor.class, NoopInterceptor::new);
+        }
+        for (int i = 0; i < this.services; i++) {
+            final var serviceName = "benchmark.Echo" + i;
+            this.context.registerBean("echoService" + i, EchoService.class, () -> new EchoService(serviceName));
+        }
+        this.context.refresh();
+
+        this.channel = NettyChannelBuilder.forAddress("127.0.0.1", port).usePlaintext().build();
+        // 调用最后注册的 service
+        this.method = EchoService.unaryMethod("benchmark.Echo" + (this.services - 1));
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.context.close();
+    }
+
+    @Benchmark
+    public byte[] unary() {
+        return ClientCalls.blockingUnaryCall(this.channel, this.method, CallOptions.DEFAULT, this.payload);
+    }
+
+}
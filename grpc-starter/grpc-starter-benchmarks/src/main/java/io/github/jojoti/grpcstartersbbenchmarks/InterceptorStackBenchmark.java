@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import com.google.common.collect.Maps;
+import io.github.jojoti.grpcstartersb.GRpcScope;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcAutoConfiguration;
+import io.github.jojoti.grpcstartersbram.GRpcRAMAutoConfiguration;
+import io.github.jojoti.grpcstartersbram.GRpcSessionAutoConfiguration;
+import io.github.jojoti.grpcstartersbram.RAM;
+import io.github.jojoti.grpcstartersbram.RAMAccessInterceptor;
+import io.github.jojoti.grpcstartersbram.Session;
+import io.github.jojoti.utilhashidtoken.HashIdToken;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过真实的自动配置启动 GRpcServers，测量完整拦截器链每次调用的吞吐量 延迟分位数和分配
+ * <p>
+ * chain=builtin: transmitStatus + globalException，chain=session_ram: 再加上 SessionInterceptor + RAMInterceptor
+ * transport=in_process 去掉网络开销只剩拦截器和 grpc 本身，transport=netty 为 loopback tcp
+ * <p>
+ * SampleTime 输出 p99，分配需要加 gc profiler:
+ * java -jar target/grpc-starter-benchmarks-*.jar InterceptorStackBenchmark -prof gc
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InterceptorStackBenchmark {
+
+    private static final String SCOPE = "grpcs.servers.primary.";
+    private static final Metadata.Key<String> TOKEN_KEY = Metadata.Key.of("x-token", Metadata.ASCII_STRING_MARSHALLER);
+
+    @Param({"in_process", "netty"})
+    public String transport;
+
+    @Param({"builtin", "session_ram"})
+    public String chain;
+
+    @Param({"16"})
+    public int streamMessages;
+
+    private ConfigurableApplicationContext context;
+    private ManagedChannel managedChannel;
+    private Channel channel;
+    private final byte[] payload = new byte[64];
+
+    @Setup
+    public void setup() throws IOException {
+        final var properties = Maps.<String, Object>newHashMap();
+        final var inProcess = "in_process".equals(this.transport);
+        if (inProcess) {
+            properties.put(SCOPE + "inProcess", "only");
+        } else {
+            final int port;
+            try (var socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            properties.put(SCOPE + "address", "127.0.0.1:" + port);
+        }
+        final var sessionRam = "session_ram".equals(this.chain);
+        properties.put(SCOPE + "session.enabled", sessionRam);
+        properties.put(SCOPE + "ram.enabled", sessionRam);
+        properties.put(SCOPE + "ram.forceRAMAnnotation", false);
+        properties.put("benchmark.streamMessages", this.streamMessages);
+
+        this.context = new SpringApplicationBuilder(StackConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .properties(properties)
+                .run();
+
+        final var port = properties.get(SCOPE + "address");
+        this.managedChannel = inProcess
+                ? InProcessChannelBuilder.forName("primary").directExecutor().build()
+                : NettyChannelBuilder.forTarget(String.valueOf(port)).usePlaintext().build();
+        final var headers = new Metadata();
+        headers.put(TOKEN_KEY, HashIdToken.createToken(10001, 0).getTokenBase64());
+        this.channel = ClientInterceptors.intercept(this.managedChannel, MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        this.managedChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.context.close();
+    }
+
+    @Benchmark
+    public byte[] unary() {
+        return ClientCalls.blockingUnaryCall(this.channel, SecuredEchoService.UNARY, CallOptions.DEFAULT, this.payload);
+    }
+
+    /**
+     * 一次调用 streamMessages 个响应 拦截器只在 call 开始时执行一次
+     */
+    @Benchmark
+    public int serverStream() {
+        final var responses = ClientCalls.blockingServerStreamingCall(this.channel, SecuredEchoService.SERVER_STREAM, CallOptions.DEFAULT, this.payload);
+        var count = 0;
+        while (responses.hasNext()) {
+            count += responses.next().length;
+        }
+        return count;
+    }
+
+    /**
+     * 每个线程一个长连接的 bidi stream，只测量消息经过拦截器 listener 的开销
+     */
+    @Benchmark
+    public byte[] bidiPingPong(PingPong pingPong) throws InterruptedException {
+        return pingPong.exchange(this.payload);
+    }
+
+    @State(Scope.Thread)
+    public static class PingPong {
+
+        private final BlockingQueue<Object> responses = new ArrayBlockingQueue<>(1);
+        private ClientCall<byte[], byte[]> call;
+
+        @Setup
+        public void setup(InterceptorStackBenchmark benchmark) {
+            this.call = benchmark.channel.newCall(SecuredEchoService.BIDI_STREAM, CallOptions.DEFAULT);
+            this.call.start(new ClientCall.Listener<>() {
+                @Override
+                public void onMessage(byte[] message) {
+                    responses.add(message);
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (!status.isOk()) {
+                        responses.add(status);
+                    }
+                }
+            }, new Metadata());
+            this.call.request(Integer.MAX_VALUE);
+        }
+
+        byte[] exchange(byte[] payload) throws InterruptedException {
+            this.call.sendMessage(payload);
+            final var response = this.responses.take();
+            if (response instanceof Status) {
+                throw ((Status) response).asRuntimeException();
+            }
+            return (byte[]) response;
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.call.halfClose();
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration({GRpcAutoConfiguration.class, GRpcSessionAutoConfiguration.class, GRpcRAMAutoConfiguration.class})
+    static class StackConfiguration {
+
+        @Bean
+        public SecuredEchoService securedEchoService(Environment environment) {
+            return new SecuredEchoService(Integer.parseInt(environment.getProperty("benchmark.streamMessages", "16")));
+        }
+
+        @Bean
+        public Session benchmarkSession() {
+            return new BenchmarkSession();
+        }
+
+        /**
+         * 登录之后全部放行 只测量拦截器本身
+         */
+        @Bean
+        public RAMAccessInterceptor benchmarkRAMAccess() {
+            return new RAMAccessInterceptor() {
+                @Override
+                public <ReqT, RespT> ServerCall.Listener<ReqT> checkAccess(GRpcScope gRpcScope, RAM ram, ServerCall<ReqT, RespT> call,
+                                                                           Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                    return next.startCall(call, headers);
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import io.github.jojoti.grpcstartersb.GRpcPrimaryService;
+import io.github.jojoti.grpcstartersbram.RAM;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * 需要登录和 @RAM 校验的 echo service，覆盖 unary/server streaming/bidi streaming
+ * <p>
+ * ServiceDescriptorAnnotations 按 java 方法名与 pb 方法名完全相等查找注解，这里的 pb 方法名直接使用 java 方法名
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcPrimaryService
+public class SecuredEchoService implements BindableService {
+
+    static final String SERVICE_NAME = "benchmark.SecuredEcho";
+
+    static final MethodDescriptor<byte[], byte[]> UNARY = newMethod(MethodDescriptor.MethodType.UNARY, "unary");
+    static final MethodDescriptor<byte[], byte[]> SERVER_STREAM = newMethod(MethodDescriptor.MethodType.SERVER_STREAMING, "serverStream");
+    static final MethodDescriptor<byte[], byte[]> BIDI_STREAM = newMethod(MethodDescriptor.MethodType.BIDI_STREAMING, "bidiStream");
+
+    // server streaming 每个请求返回的消息数
+    private final int streamMessages;
+
+    public SecuredEchoService(int streamMessages) {
+        this.streamMessages = streamMessages;
+    }
+
+    private static MethodDescriptor<byte[], byte[]> newMethod(MethodDescriptor.MethodType type, String methodName) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, methodName))
+                .setRequestMarshaller(EchoService.BYTES_MARSHALLER)
+                .setResponseMarshaller(EchoService.BYTES_MARSHALLER)
+                .build();
+    }
+
+    @RAM(groupId = 1)
+    public void unary(byte[] request, StreamObserver<byte[]> responseObserver) {
+        responseObserver.onNext(request);
+        responseObserver.onCompleted();
+    }
+
+    @RAM(groupId = 1)
+    public void serverStream(byte[] request, StreamObserver<byte[]> responseObserver) {
+        for (int i = 0; i < this.streamMessages; i++) {
+            responseObserver.onNext(request);
+        }
+        responseObserver.onCompleted();
+    }
+
+    @RAM(groupId = 1)
+    public StreamObserver<byte[]> bidiStream(StreamObserver<byte[]> responseObserver) {
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(byte[] value) {
+                responseObserver.onNext(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(SERVICE_NAME)
+                .addMethod(UNARY, ServerCalls.asyncUnaryCall(this::unary))
+                .addMethod(SERVER_STREAM, ServerCalls.asyncServerStreamingCall(this::serverStream))
+                .addMethod(BIDI_STREAM, ServerCalls.asyncBidiStreamingCall(this::bidiStream))
+                .build();
+    }
+
+}
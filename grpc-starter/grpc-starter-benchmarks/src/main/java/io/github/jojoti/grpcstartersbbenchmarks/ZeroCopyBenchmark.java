@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbbenchmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.UInt32Value;
+import io.github.jojoti.grpcstartersb.GRpcServers;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCalls;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大 bytes 字段请求 默认 marshaller 与 zeroCopy 的对比
+ * <p>
+ * 需要关注分配速率和 gc 停顿，使用 gc profiler:
+ * java -jar target/grpc-starter-benchmarks-*.jar ZeroCopyBenchmark -prof gc
+ * <p>
+ * gc.alloc.rate.norm 是每次调用在堆上分配的字节数，zeroCopy=true 时应该不再随 payloadSize 线性增长
+ * gc.time 是测量期间 gc 停顿的总时间
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Xms1g"})
+public class ZeroCopyBenchmark {
+
+    @Param({"false", "true"})
+    public boolean zeroCopy;
+
+    // 默认 maxInboundSize 是 4m
+    @Param({"65536", "1048576", "3145728"})
+    public int payloadSize;
+
+    private AnnotationConfigApplicationContext context;
+    private ManagedChannel channel;
+    private BytesValue request;
+
+    @Setup
+    public void setup() throws IOException {
+        final int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final var item = new GRpcServerProperties.ServerItem();
+        item.setAddress("127.0.0.1:" + port);
+        item.getZeroCopy().setEnabled(this.zeroCopy);
+        final var properties = new GRpcServerProperties();
+        properties.setServers(Map.of("primary", item));
+
+        this.context = new AnnotationConfigApplicationContext();
+        this.context.registerBean(GRpcServers.class, () -> new GRpcServers(properties));
+        this.context.registerBean(BulkService.class, BulkService::new);
+        this.context.refresh();
+
+        this.channel = NettyChannelBuilder.forAddress("127.0.0.1", port).usePlaintext().build();
+        final var payload = new byte[this.payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        this.request = BytesValue.of(ByteString.copyFrom(payload));
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.context.close();
+    }
+
+    @Benchmark
+    public UInt32Value upload() {
+        return ClientCalls.blockingUnaryCall(this.channel, BulkService.UPLOAD_METHOD, CallOptions.DEFAULT, this.request);
+    }
+
+}
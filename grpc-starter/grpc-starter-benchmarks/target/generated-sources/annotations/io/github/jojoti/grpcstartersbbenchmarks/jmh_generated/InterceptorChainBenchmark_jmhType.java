@@ -0,0 +1,4 @@
+package io.github.jojoti.grpcstartersbbenchmarks.jmh_generated;
+public class InterceptorChainBenchmark_jmhType extends InterceptorChainBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.github.jojoti.grpcstartersbbenchmarks.jmh_generated;
+public class InterceptorStackBenchmark_PingPong_jmhType extends InterceptorStackBenchmark_PingPong_jmhType_B3 {
+}
+
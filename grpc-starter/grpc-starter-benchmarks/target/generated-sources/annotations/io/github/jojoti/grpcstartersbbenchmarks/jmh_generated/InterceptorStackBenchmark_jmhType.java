@@ -0,0 +1,4 @@
+package io.github.jojoti.grpcstartersbbenchmarks.jmh_generated;
+public class InterceptorStackBenchmark_jmhType extends InterceptorStackBenchmark_jmhType_B3 {
+}
+
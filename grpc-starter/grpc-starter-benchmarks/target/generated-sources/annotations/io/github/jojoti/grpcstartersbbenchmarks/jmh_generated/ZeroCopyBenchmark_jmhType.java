@@ -0,0 +1,4 @@
+package io.github.jojoti.grpcstartersbbenchmarks.jmh_generated;
+public class ZeroCopyBenchmark_jmhType extends ZeroCopyBenchmark_jmhType_B3 {
+}
+
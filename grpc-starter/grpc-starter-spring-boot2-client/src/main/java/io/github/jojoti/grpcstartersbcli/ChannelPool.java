@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Preconditions;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 同一个 service 的多个 channel，每个 channel 一条独立的 http/2 连接
+ * <p>
+ * 单连接会受到 MAX_CONCURRENT_STREAMS 以及单个 event loop 的限制，高 QPS 的后端可以配置 poolSize 打散到多条连接
+ * 每个 call 随机取两个 channel 选择 in-flight 较少的一个 (power of two choices)，不需要全局扫描也不需要锁
+ * <p>
+ * poolSize 为 1 时直接返回底层 channel 没有额外开销
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ChannelPool {
+
+    private final ManagedChannel[] channels;
+    // 已经 start 还没有 close 的 call 数量
+    private final AtomicIntegerArray inFlight;
+    private final Channel channel;
+
+    ChannelPool(List<ManagedChannel> channels) {
+        Preconditions.checkArgument(!channels.isEmpty(), "Channel pool is not allow empty");
+        this.channels = channels.toArray(new ManagedChannel[0]);
+        this.inFlight = new AtomicIntegerArray(this.channels.length);
+        this.channel = this.channels.length == 1 ? this.channels[0] : new PooledChannel();
+    }
+
+    /**
+     * 对外暴露为单个 Channel
+     */
+    Channel getChannel() {
+        return this.channel;
+    }
+
+    int size() {
+        return this.channels.length;
+    }
+
+    void shutdown() {
+        for (ManagedChannel managedChannel : this.channels) {
+            managedChannel.shutdown();
+        }
+    }
+
+    /**
+     * 所有 channel 共用同一个超时时间
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final var deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ManagedChannel managedChannel : this.channels) {
+            if (!managedChannel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int pick() {
+        final var random = ThreadLocalRandom.current();
+        final var size = this.channels.length;
+        final var first = random.nextInt(size);
+        // 第二个与第一个不同
+        final var second = (first + 1 + random.nextInt(size - 1)) % size;
+        return this.inFlight.get(first) <= this.inFlight.get(second) ? first : second;
+    }
+
+    private final class PooledChannel extends Channel {
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+            final var index = pick();
+            return new InFlightCall<>(channels[index].newCall(methodDescriptor, callOptions), index);
+        }
+
+        @Override
+        public String authority() {
+            return channels[0].authority();
+        }
+    }
+
+    private final class InFlightCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+        private final int index;
+
+        InFlightCall(ClientCall<ReqT, RespT> delegate, int index) {
+            super(delegate);
+            this.index = index;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            inFlight.incrementAndGet(this.index);
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        inFlight.decrementAndGet(index);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException e) {
+                // start 失败不会回调 onClose
+                inFlight.decrementAndGet(this.index);
+                throw e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import io.github.jojoti.grpcstartersb.ConsulClient;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.grpc.NameResolver;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * discovery.consul 的 NameResolver
+ * <p>
+ * 通过本机 agent 的 blocking query (index + wait 长轮询) 读取 passing 的实例，只有 index 变化时 agent 才会提前返回
+ * index 变小时说明 consul 重置过 从 0 重新开始
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ConsulDiscoveryNameResolver extends WatchingNameResolver {
+
+    static final String SCHEME = "consul";
+
+    // 连续变更时两次查询之间的最小间隔 避免频繁变更时请求 agent 过多
+    private static final long MIN_QUERY_INTERVAL_MILLS = 100;
+
+    private final ConsulClient client;
+    private final int waitMills;
+
+    private ConsulDiscoveryNameResolver(String service, DiscoveryConfig.Consul config, Args args) {
+        super(SCHEME, service, args);
+        this.client = new ConsulClient(config.getAgent(), config.getTimeoutMills());
+        this.waitMills = config.getWaitMills();
+    }
+
+    @Override
+    protected void watch() throws IOException {
+        var index = 0L;
+        while (!isShutdown()) {
+            final var begin = System.nanoTime();
+            final var instances = this.client.healthyInstances(this.service, index, this.waitMills);
+            if (instances.getIndex() != index) {
+                // 地址集合没有变化时 publish 里面会忽略
+                publish(ImmutableSet.copyOf(instances.getAddresses()));
+            }
+            index = instances.getIndex() < index ? 0 : instances.getIndex();
+            final var elapsedMills = (System.nanoTime() - begin) / 1_000_000;
+            if (elapsedMills < MIN_QUERY_INTERVAL_MILLS) {
+                try {
+                    Thread.sleep(MIN_QUERY_INTERVAL_MILLS - elapsedMills);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个 client 一个，发现的 service 为 discovery.consul.service
+     */
+    static final class Factory extends NameResolver.Factory {
+
+        private final DiscoveryConfig.Consul config;
+
+        Factory(DiscoveryConfig.Consul config) {
+            Preconditions.checkArgument(config.getAgent() != null && !config.getAgent().isEmpty(), "discovery.consul.agent is required");
+            Preconditions.checkArgument(config.getService() != null && !config.getService().isEmpty(), "discovery.consul.service is required");
+            this.config = config;
+        }
+
+        String getTargetUri() {
+            return SCHEME + ":///" + this.config.getService();
+        }
+
+        @Override
+        public NameResolver newNameResolver(URI targetUri, Args args) {
+            if (!SCHEME.equals(targetUri.getScheme())) {
+                return null;
+            }
+            return new ConsulDiscoveryNameResolver(this.config.getService(), this.config, args);
+        }
+
+        @Override
+        public String getDefaultScheme() {
+            return SCHEME;
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.grpc.*;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.*;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.NoopDnsCache;
+import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * discovery.dns 的 NameResolver
+ * <p>
+ * 使用配置的 nameserver 查询 A/AAAA 记录，所有记录作为后端交给 round_robin/pick_first 负载均衡，不再经过 vip 转发
+ * 按记录的最小 ttl 在后台刷新，地址集合没有变化时不通知 load balancer 避免 subchannel 抖动
+ * 解析失败时保留上一次的地址，只有第一次解析失败才通知 channel
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class DnsDiscoveryNameResolver extends NameResolver {
+
+    static final String SCHEME = "dns-ns";
+
+    private static final Logger log = LoggerFactory.getLogger(DnsDiscoveryNameResolver.class);
+
+    private final HostAndPort target;
+    private final DiscoveryConfig.Dns config;
+    private final EventLoopGroup eventLoopGroup;
+    private final SynchronizationContext syncContext;
+    private final Args args;
+
+    // 以下字段只在 syncContext 内访问
+    private Listener2 listener;
+    private DnsNameResolver dns;
+    private SynchronizationContext.ScheduledHandle refreshHandle;
+    private ImmutableSet<InetAddress> addresses;
+    private boolean resolving;
+    private boolean shutdown;
+
+    private DnsDiscoveryNameResolver(HostAndPort target, DiscoveryConfig.Dns config, EventLoopGroup eventLoopGroup, Args args) {
+        this.target = target;
+        this.config = config;
+        this.eventLoopGroup = eventLoopGroup;
+        this.syncContext = args.getSynchronizationContext();
+        this.args = args;
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return this.target.toString();
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+        Preconditions.checkState(this.listener == null, "Already started");
+        this.listener = listener;
+        if (InetAddresses.isInetAddress(this.target.getHost())) {
+            // ip 不需要解析也不需要刷新
+            publish(ImmutableSet.of(InetAddresses.forString(this.target.getHost())));
+            return;
+        }
+        this.dns = newDnsNameResolver();
+        resolve();
+    }
+
+    @Override
+    public void refresh() {
+        // 连接失败时 grpc 会调用 refresh，定时刷新已经在进行中则忽略
+        if (this.dns != null && this.refreshHandle != null && this.refreshHandle.isPending()) {
+            this.refreshHandle.cancel();
+            resolve();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.shutdown) {
+            return;
+        }
+        this.shutdown = true;
+        if (this.refreshHandle != null) {
+            this.refreshHandle.cancel();
+        }
+        if (this.dns != null) {
+            this.dns.close();
+        }
+    }
+
+    private DnsNameResolver newDnsNameResolver() {
+        final var builder = new DnsNameResolverBuilder(this.eventLoopGroup.next())
+                .channelType(NioDatagramChannel.class)
+                .queryTimeoutMillis(this.config.getQueryTimeoutMills())
+                // ttl 由这里自己处理
+                .resolveCache(NoopDnsCache.INSTANCE);
+        if (this.config.getNs() != null && !this.config.getNs().isEmpty()) {
+            final var nameServers = Lists.<InetSocketAddress>newArrayListWithCapacity(this.config.getNs().size());
+            for (String ns : this.config.getNs()) {
+                final var hostAndPort = HostAndPort.fromString(ns).withDefaultPort(53);
+                nameServers.add(new InetSocketAddress(InetAddresses.forString(hostAndPort.getHost()), hostAndPort.getPort()));
+            }
+            builder.nameServerProvider(new SequentialDnsServerAddressStreamProvider(nameServers));
+        }
+        return builder.build();
+    }
+
+    private void resolve() {
+        if (this.resolving || this.shutdown) {
+            return;
+        }
+        this.resolving = true;
+        final var a = this.dns.query(new DefaultDnsQuestion(this.target.getHost(), DnsRecordType.A));
+        final var aaaa = this.dns.query(new DefaultDnsQuestion(this.target.getHost(), DnsRecordType.AAAA));
+        a.addListener(ignoredA -> aaaa.addListener(ignoredAAAA -> this.syncContext.execute(() -> onResolved(ImmutableList.of(a, aaaa)))));
+    }
+
+    private void onResolved(List<Future<AddressedEnvelope<DnsResponse, InetSocketAddress>>> queries) {
+        this.resolving = false;
+        final var resolved = ImmutableSet.<InetAddress>builder();
+        var ttlSeconds = Long.MAX_VALUE;
+        Throwable cause = null;
+        for (Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> query : queries) {
+            if (!query.isSuccess()) {
+                cause = query.cause();
+                continue;
+            }
+            final var envelope = query.getNow();
+            try {
+                final var response = envelope.content();
+                for (int i = 0; i < response.count(DnsSection.ANSWER); i++) {
+                    final DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+                    // 递归查询的结果里可能带有 CNAME 只取地址记录
+                    if ((record.type() != DnsRecordType.A && record.type() != DnsRecordType.AAAA) || !(record instanceof DnsRawRecord)) {
+                        continue;
+                    }
+                    final var content = ((DnsRawRecord) record).content();
+                    final var bytes = new byte[content.readableBytes()];
+                    content.getBytes(content.readerIndex(), bytes);
+                    try {
+                        resolved.add(InetAddress.getByAddress(this.target.getHost(), bytes));
+                        ttlSeconds = Math.min(ttlSeconds, record.timeToLive());
+                    } catch (UnknownHostException e) {
+                        log.warn("GRPC dns {} invalid record {}", this.target, record, e);
+                    }
+                }
+            } finally {
+                envelope.release();
+            }
+        }
+        if (this.shutdown) {
+            return;
+        }
+        final var result = resolved.build();
+        if (result.isEmpty()) {
+            final var status = Status.UNAVAILABLE.withDescription("DNS " + this.target.getHost() + " resolved no addresses").withCause(cause);
+            if (this.addresses == null) {
+                this.listener.onError(status);
+            } else {
+                // 保留上一次的地址 dns 短暂不可用时不影响已有连接
+                log.warn("GRPC dns {} resolve failed, keep last addresses {}", this.target, this.addresses, cause);
+            }
+            scheduleRefresh(this.config.getMinRefreshMills());
+            return;
+        }
+        if (!result.equals(this.addresses)) {
+            publish(result);
+        }
+        final var refreshMills = Math.min(Math.max(TimeUnit.SECONDS.toMillis(ttlSeconds), this.config.getMinRefreshMills()), this.config.getMaxRefreshMills());
+        scheduleRefresh(refreshMills);
+    }
+
+    private void publish(ImmutableSet<InetAddress> addresses) {
+        this.addresses = addresses;
+        final var groups = Lists.<EquivalentAddressGroup>newArrayListWithCapacity(addresses.size());
+        for (InetAddress address : addresses) {
+            // 每个地址单独一个 group，round_robin 为每个后端建立 subchannel
+            groups.add(new EquivalentAddressGroup(new InetSocketAddress(address, this.target.getPort())));
+        }
+        log.info("GRPC dns {} resolved {}", this.target, addresses);
+        this.listener.onResult(ResolutionResult.newBuilder()
+                .setAddresses(groups)
+                .setAttributes(Attributes.EMPTY)
+                .build());
+    }
+
+    private void scheduleRefresh(long delayMills) {
+        this.refreshHandle = this.syncContext.schedule(this::resolve, delayMills, TimeUnit.MILLISECONDS, this.args.getScheduledExecutorService());
+    }
+
+    /**
+     * 每个 client 一个，target 固定为配置里的 discovery.dns.target
+     */
+    static final class Factory extends NameResolver.Factory {
+
+        private final HostAndPort target;
+        private final DiscoveryConfig.Dns config;
+        private final EventLoopGroup eventLoopGroup;
+
+        Factory(DiscoveryConfig.Dns config, EventLoopGroup eventLoopGroup) {
+            Preconditions.checkArgument(config.getTarget() != null && !config.getTarget().isEmpty(), "discovery.dns.target is required");
+            Preconditions.checkArgument(config.getMinRefreshMills() > 0 && config.getMinRefreshMills() <= config.getMaxRefreshMills(),
+                    "discovery.dns must be 0 < minRefreshMills <= maxRefreshMills");
+            this.target = HostAndPort.fromString(config.getTarget());
+            Preconditions.checkArgument(this.target.hasPort(), "discovery.dns.target requires port");
+            this.config = config;
+            this.eventLoopGroup = eventLoopGroup;
+        }
+
+        String getTargetUri() {
+            return SCHEME + ":///" + this.target;
+        }
+
+        @Override
+        public NameResolver newNameResolver(URI targetUri, Args args) {
+            if (!SCHEME.equals(targetUri.getScheme())) {
+                return null;
+            }
+            return new DnsDiscoveryNameResolver(this.target, this.config, this.eventLoopGroup, args);
+        }
+
+        @Override
+        public String getDefaultScheme() {
+            return SCHEME;
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.github.jojoti.grpcstartersb.DiscoveryEndpoint;
+import io.github.jojoti.grpcstartersb.EtcdClient;
+import io.grpc.NameResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * discovery.etcd 的 NameResolver
+ * <p>
+ * 先 range 读取 {prefix}/{service}/ 下所有实例，再从下一个 revision 开始 watch，变更增量推送 不需要轮询
+ * 只把 healthy 的实例交给 load balancer，watch 断开或者 revision 已经被 compact 时重新 range
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class EtcdDiscoveryNameResolver extends WatchingNameResolver {
+
+    static final String SCHEME = "etcd";
+
+    private static final Logger log = LoggerFactory.getLogger(EtcdDiscoveryNameResolver.class);
+
+    private final String prefix;
+    private final EtcdClient client;
+    private volatile EtcdClient.Watch watch;
+
+    private EtcdDiscoveryNameResolver(String service, DiscoveryConfig.Etcd config, Args args) {
+        super(SCHEME, service, args);
+        this.prefix = config.getServicePrefix(service);
+        this.client = new EtcdClient(config.getEndpoints(), config.getTimeoutMills());
+    }
+
+    @Override
+    protected void watch() throws IOException {
+        // key -> endpoint 只在 watch 线程里访问
+        final var endpoints = Maps.<String, DiscoveryEndpoint>newHashMap();
+        final var range = this.client.range(this.prefix);
+        for (EtcdClient.KeyValue kv : range.getKvs()) {
+            apply(endpoints, kv, true);
+        }
+        publish(healthy(endpoints));
+        final var watch = this.client.watch(this.prefix, range.getRevision() + 1);
+        this.watch = watch;
+        if (isShutdown()) {
+            closeWatch();
+            return;
+        }
+        while (!isShutdown()) {
+            final var events = watch.next();
+            if (events.isEmpty()) {
+                continue;
+            }
+            for (EtcdClient.Event event : events) {
+                apply(endpoints, event.getKv(), event.isPut());
+            }
+            publish(healthy(endpoints));
+        }
+    }
+
+    @Override
+    protected void closeWatch() {
+        final var current = this.watch;
+        this.watch = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("GRPC etcd {} watch close failed", this.service, e);
+            }
+        }
+    }
+
+    private static void apply(Map<String, DiscoveryEndpoint> endpoints, EtcdClient.KeyValue kv, boolean put) {
+        if (!put) {
+            endpoints.remove(kv.getKey());
+            return;
+        }
+        try {
+            endpoints.put(kv.getKey(), DiscoveryEndpoint.fromJson(kv.getValue()));
+        } catch (RuntimeException e) {
+            log.warn("GRPC etcd {} invalid endpoint {}", kv.getKey(), kv.getValue(), e);
+            endpoints.remove(kv.getKey());
+        }
+    }
+
+    private static ImmutableSet<String> healthy(Map<String, DiscoveryEndpoint> endpoints) {
+        final var healthy = ImmutableSet.<String>builder();
+        for (DiscoveryEndpoint endpoint : endpoints.values()) {
+            if (endpoint.isHealthy()) {
+                healthy.add(endpoint.getAddress());
+            }
+        }
+        return healthy.build();
+    }
+
+    /**
+     * 每个 client 一个，watch 的 service 为 discovery.etcd.service
+     */
+    static final class Factory extends NameResolver.Factory {
+
+        private final DiscoveryConfig.Etcd config;
+
+        Factory(DiscoveryConfig.Etcd config) {
+            Preconditions.checkArgument(config.getEndpoints() != null && !config.getEndpoints().isEmpty(), "discovery.etcd.endpoints must not be empty");
+            Preconditions.checkArgument(config.getService() != null && !config.getService().isEmpty(), "discovery.etcd.service is required");
+            this.config = config;
+        }
+
+        String getTargetUri() {
+            return SCHEME + ":///" + this.config.getService();
+        }
+
+        @Override
+        public NameResolver newNameResolver(URI targetUri, Args args) {
+            if (!SCHEME.equals(targetUri.getScheme())) {
+                return null;
+            }
+            return new EtcdDiscoveryNameResolver(this.config.getService(), this.config, args);
+        }
+
+        @Override
+        public String getDefaultScheme() {
+            return SCHEME;
+        }
+    }
+
+}
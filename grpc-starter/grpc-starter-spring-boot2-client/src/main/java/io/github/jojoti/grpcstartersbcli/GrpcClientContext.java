@@ -1,6 +1,7 @@
 package io.github.jojoti.grpcstartersbcli;
 
 import io.grpc.Channel;
+import io.grpc.stub.AbstractStub;
 
 /**
  * 从 grpc client 容器里面取出对应的 grpc client
@@ -12,6 +13,8 @@ public interface GrpcClientContext {
 
     /**
      * 获取 channel 来创建
+     * <p>
+     * 配置了 poolSize > 1 时返回的 channel 会把 call 分散到多条连接
      *
      * @param serviceName
      * @param <T>
@@ -19,4 +22,19 @@ public interface GrpcClientContext {
      */
     <T extends Enum<T>> Channel getChannel(ServiceName<T> serviceName);
 
+    /**
+     * 获取缓存的 stub，每个 ServiceName + stub 类型只创建一次
+     * <p>
+     * stubClass 为 protoc 生成的 stub 例如 XxxGrpc.XxxBlockingStub.class，通过 XxxGrpc 的静态工厂方法创建
+     * 每次请求的 deadline 等选项在返回的 stub 上派生:
+     * getStub(name, XxxGrpc.XxxBlockingStub.class).withDeadlineAfter(1, TimeUnit.SECONDS)
+     *
+     * @param serviceName
+     * @param stubClass
+     * @param <T>
+     * @param <S>
+     * @return
+     */
+    <T extends Enum<T>, S extends AbstractStub<S>> S getStub(ServiceName<T> serviceName, Class<S> stubClass);
+
 }
@@ -19,20 +19,37 @@ package io.github.jojoti.grpcstartersbcli;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
 import io.github.jojoti.grpcstartersbcli.autoconfigure.GRpcClientProperties;
 import io.github.jojoti.utildaemonthreads.DaemonThreads;
 import io.github.jojoti.utilguavaext.GetAddress;
 import io.grpc.Channel;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.AbstractStub;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.SmartLifecycle;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author JoJo Wang
@@ -42,11 +59,35 @@ public class GrpcClients implements SmartLifecycle, GrpcClientContext {
 
     private static final Logger log = LoggerFactory.getLogger(GrpcClients.class);
 
+    /**
+     * protoc 生成的 stub 嵌套在 XxxGrpc 里 由 XxxGrpc.newXxxStub(Channel) 创建
+     */
+    private static final ClassValue<Method> STUB_FACTORIES = new ClassValue<>() {
+        @Override
+        protected Method computeValue(Class<?> stubClass) {
+            final var grpcClass = stubClass.getEnclosingClass();
+            Preconditions.checkArgument(grpcClass != null, "Stub " + stubClass.getName() + " is not generated by protoc");
+            for (Method method : grpcClass.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) && method.getReturnType() == stubClass
+                        && method.getParameterCount() == 1 && method.getParameterTypes()[0] == Channel.class) {
+                    return method;
+                }
+            }
+            throw new IllegalArgumentException("Stub " + stubClass.getName() + " static factory not found in " + grpcClass.getName());
+        }
+    };
+
     private final GRpcClientProperties gRpcClientProperties;
     private final GrpcClientFilter grpcClientFilter;
 
     private volatile DaemonThreads daemonThreads;
-    private ImmutableMap<Map.Entry<String, GRpcClientProperties.ClientItem>, ManagedChannel> channels;
+    private volatile ImmutableMap<String, ChannelPool> channels;
+    // 按 enum 类型 + ordinal 索引 第一次访问时从 channels 填充 stop 时清空
+    private final ConcurrentMap<Class<?>, AtomicReferenceArray<ChannelSlot>> slots = Maps.newConcurrentMap();
+    // 懒加载 只有配置了 unix domain socket 的客户端才创建
+    private EventLoopGroup domainSocketGroup;
+    // 懒加载 discovery.dns 的查询共用一个线程
+    private EventLoopGroup dnsGroup;
 
     public GrpcClients(GRpcClientProperties gRpcClientProperties, GrpcClientFilter grpcClientFilter) {
         this.gRpcClientProperties = gRpcClientProperties;
@@ -61,13 +102,37 @@ public class GrpcClients implements SmartLifecycle, GrpcClientContext {
         final var clients = Maps.<Map.Entry<String, GRpcClientProperties.ClientItem>, ManagedChannelBuilder<?>>newHashMap();
 
         for (var client : this.gRpcClientProperties.getClients().entrySet()) {
-            if (!Strings.isNullOrEmpty(client.getValue().getDiscovery().getVip())) {
-                final var builder = NettyChannelBuilder.forAddress(GetAddress.getSocketAddress(client.getValue().getDiscovery().getVip()));
+            if (!Strings.isNullOrEmpty(client.getValue().getDiscovery().getInProcess())) {
+                // 同一个 jvm 内的 scope 不经过序列化到 loopback 的网络 GrpcClientFilter 只作用于 netty
+                clients.put(client, InProcessChannelBuilder.forName(client.getValue().getDiscovery().getInProcess()));
+            } else if (!Strings.isNullOrEmpty(client.getValue().getDiscovery().getVip())) {
+                final var vip = client.getValue().getDiscovery().getVip();
+                final var builder = GetAddress.isDomainSocket(vip) ? newDomainSocketBuilder(vip)
+                        : NettyChannelBuilder.forAddress(GetAddress.getSocketAddress(vip));
                 // 通知 自定义 配置
                 this.grpcClientFilter.onFilter(client.getKey(), builder);
                 clients.put(client, builder);
+            } else if (client.getValue().getDiscovery().getDns() != null) {
+                final var builder = newDnsBuilder(client.getValue().getDiscovery().getDns());
+                this.grpcClientFilter.onFilter(client.getKey(), builder);
+                clients.put(client, builder);
+            } else if (client.getValue().getDiscovery().getEtcd() != null) {
+                final var factory = new EtcdDiscoveryNameResolver.Factory(client.getValue().getDiscovery().getEtcd());
+                // 注册中心只保留 healthy 的实例
+                final var builder = NettyChannelBuilder.forTarget(factory.getTargetUri())
+                        .nameResolverFactory(factory)
+                        .defaultLoadBalancingPolicy("round_robin");
+                this.grpcClientFilter.onFilter(client.getKey(), builder);
+                clients.put(client, builder);
+            } else if (client.getValue().getDiscovery().getConsul() != null) {
+                final var factory = new ConsulDiscoveryNameResolver.Factory(client.getValue().getDiscovery().getConsul());
+                // agent 只返回 passing 的实例
+                final var builder = NettyChannelBuilder.forTarget(factory.getTargetUri())
+                        .nameResolverFactory(factory)
+                        .defaultLoadBalancingPolicy("round_robin");
+                this.grpcClientFilter.onFilter(client.getKey(), builder);
+                clients.put(client, builder);
             } else {
-                // 目前只支持 vip 网络这种模式发现
                 throw new UnsupportedOperationException("Discovery unsupported");
             }
         }
@@ -77,13 +142,19 @@ public class GrpcClients implements SmartLifecycle, GrpcClientContext {
                     log.error("E: {}", handler, e);
                 });
 
-        final var clientChannels = ImmutableMap.<Map.Entry<String, GRpcClientProperties.ClientItem>, ManagedChannel>builder();
+        final var clientChannels = ImmutableMap.<String, ChannelPool>builder();
 
         for (final var entry : clients.entrySet()) {
+            // in-process 没有连接的限制 不需要多个 channel
+            final var poolSize = entry.getValue() instanceof InProcessChannelBuilder ? 1 : entry.getKey().getValue().getPoolSize();
             try {
                 daemon.startThreads(entry.getKey().getKey(), () -> {
-                    final var channel = entry.getValue().build();
-                    clientChannels.put(entry.getKey(), channel);
+                    // 同一个 builder 每次 build 都是独立的 channel 与连接，没有指定 eventLoopGroup 时共用 grpc 默认的 event loop group
+                    final var pool = Lists.<ManagedChannel>newArrayListWithCapacity(poolSize);
+                    for (int i = 0; i < poolSize; i++) {
+                        pool.add(entry.getValue().build());
+                    }
+                    clientChannels.put(entry.getKey().getKey(), new ChannelPool(pool));
                 });
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -96,16 +167,65 @@ public class GrpcClients implements SmartLifecycle, GrpcClientContext {
     @Override
     public void stop() {
         if (this.channels != null) {
+            this.slots.clear();
             for (var value : this.channels.entrySet()) {
-                this.daemonThreads.downThreads(value.getKey().getKey(), () -> {
+                final var clientItem = this.gRpcClientProperties.getClients().get(value.getKey());
+                this.daemonThreads.downThreads(value.getKey(), () -> {
                     log.info("gRPC {} client stop", value.getKey());
                     value.getValue().shutdown();
-                    value.getValue().awaitTermination(value.getKey().getValue().getShutdownGracefullyMills(), TimeUnit.MILLISECONDS);
+                    value.getValue().awaitTermination(clientItem.getShutdownGracefullyMills(), TimeUnit.MILLISECONDS);
                 });
             }
             this.channels = null;
             this.daemonThreads = null;
         }
+        if (this.domainSocketGroup != null) {
+            // channel 已经全部关闭 不需要再等待
+            this.domainSocketGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+            this.domainSocketGroup = null;
+        }
+        if (this.dnsGroup != null) {
+            this.dnsGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+            this.dnsGroup = null;
+        }
+    }
+
+    /**
+     * 本机 sidecar 通过 unix:///path 访问 只能使用 epoll，所有 domain socket 客户端共用一组 event loop
+     */
+    private NettyChannelBuilder newDomainSocketBuilder(String vip) {
+        Preconditions.checkArgument(Epoll.isAvailable(), "Unix domain socket requires epoll, vip " + vip);
+        if (this.domainSocketGroup == null) {
+            this.domainSocketGroup = new EpollEventLoopGroup(0,
+                    new ThreadFactoryBuilder().setNameFormat("grpc-client-uds-%d").setDaemon(true).build());
+        }
+        return NettyChannelBuilder.forAddress(new DomainSocketAddress(GetAddress.getDomainSocketPath(vip)))
+                .eventLoopGroup(this.domainSocketGroup)
+                .channelType(EpollDomainSocketChannel.class)
+                // domain socket 不需要 tls
+                .usePlaintext();
+    }
+
+    /**
+     * 解析出所有后端由客户端负载均衡 不再经过 vip 转发
+     */
+    private NettyChannelBuilder newDnsBuilder(DiscoveryConfig.Dns dns) {
+        if (this.dnsGroup == null) {
+            this.dnsGroup = new NioEventLoopGroup(1,
+                    new ThreadFactoryBuilder().setNameFormat("grpc-client-dns-%d").setDaemon(true).build());
+        }
+        final var factory = new DnsDiscoveryNameResolver.Factory(dns, this.dnsGroup);
+        Preconditions.checkArgument("round_robin".equals(dns.getLoadBalancing()) || "pick_first".equals(dns.getLoadBalancing()),
+                "discovery.dns.loadBalancing must be round_robin or pick_first");
+        final var serviceConfig = Maps.<String, Object>newHashMap();
+        serviceConfig.put("loadBalancingConfig", List.of(Map.of(dns.getLoadBalancing(), Map.of())));
+        if (dns.isHealthCheck()) {
+            // 空字符串对应 server 的整体健康状态
+            serviceConfig.put("healthCheckConfig", Map.of("serviceName", ""));
+        }
+        return NettyChannelBuilder.forTarget(factory.getTargetUri())
+                .nameResolverFactory(factory)
+                .defaultServiceConfig(serviceConfig);
     }
 
     @Override
@@ -115,12 +235,62 @@ public class GrpcClients implements SmartLifecycle, GrpcClientContext {
 
     @Override
     public <T extends Enum<T>> Channel getChannel(ServiceName<T> serviceName) {
-        for (var entry : channels.entrySet()) {
-            if (entry.getKey().getKey().equals(serviceName.getServiceName())) {
-                return entry.getValue();
-            }
+        return getSlot(serviceName).channel;
+    }
+
+    @Override
+    public <T extends Enum<T>, S extends AbstractStub<S>> S getStub(ServiceName<T> serviceName, Class<S> stubClass) {
+        final var slot = getSlot(serviceName);
+        final var stub = slot.stubs.get(stubClass);
+        if (stub != null) {
+            return stubClass.cast(stub);
+        }
+        return stubClass.cast(slot.stubs.computeIfAbsent(stubClass, key -> newStub(stubClass, slot.channel)));
+    }
+
+    private static <S> S newStub(Class<S> stubClass, Channel channel) {
+        try {
+            return stubClass.cast(STUB_FACTORIES.get(stubClass).invoke(null, channel));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Stub " + stubClass.getName() + " factory is not accessible", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Stub " + stubClass.getName() + " create failed", e.getCause());
+        }
+    }
+
+    /**
+     * 热路径: 一次 Class 的 identity hash 查找 + 一次数组读取，只有第一次访问某个 ServiceName 时按名字查找
+     */
+    private <T extends Enum<T>> ChannelSlot getSlot(ServiceName<T> serviceName) {
+        final var enumValue = serviceName.getEnumValue();
+        final var enumClass = enumValue.getDeclaringClass();
+        var indexed = this.slots.get(enumClass);
+        if (indexed == null) {
+            indexed = this.slots.computeIfAbsent(enumClass, key -> new AtomicReferenceArray<>(enumClass.getEnumConstants().length));
+        }
+        final var slot = indexed.get(enumValue.ordinal());
+        if (slot != null) {
+            return slot;
+        }
+        final var channels = this.channels;
+        Preconditions.checkState(channels != null, "gRPC clients is not running");
+        final var pool = channels.get(serviceName.getServiceName());
+        if (pool == null) {
+            throw new IllegalArgumentException("ServiceName " + serviceName.getServiceName() + " not fund");
+        }
+        // 并发填充时保留先写入的 保证 stub 缓存唯一
+        indexed.compareAndSet(enumValue.ordinal(), null, new ChannelSlot(pool.getChannel()));
+        return indexed.get(enumValue.ordinal());
+    }
+
+    private static final class ChannelSlot {
+        private final Channel channel;
+        // key 为 stub 类型 个数固定，stub 不可变且线程安全 可以共享
+        private final ConcurrentMap<Class<?>, Object> stubs = Maps.newConcurrentMap();
+
+        private ChannelSlot(Channel channel) {
+            this.channel = channel;
         }
-        throw new IllegalArgumentException("ServiceName " + serviceName.getServiceName() + " not fund");
     }
 
 }
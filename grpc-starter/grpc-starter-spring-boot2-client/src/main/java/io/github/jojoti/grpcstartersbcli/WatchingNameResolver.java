@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * 注册中心 NameResolver 的公共部分: 一个后台线程阻塞 watch，变更之后推送 host:port 集合
+ * <p>
+ * 集合没有变化时不通知 load balancer，已有的 subchannel 不会被重建
+ * watch 失败按 1s 到 30s 指数退避重试，第一次就失败时通知 channel，之后保留上一次的地址
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+abstract class WatchingNameResolver extends NameResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(WatchingNameResolver.class);
+    private static final long MIN_BACKOFF_MILLS = 1000;
+    private static final long MAX_BACKOFF_MILLS = 30000;
+
+    protected final String service;
+    private final String kind;
+    private final SynchronizationContext syncContext;
+
+    // syncContext 内访问
+    private Listener2 listener;
+    private ImmutableSet<String> published;
+
+    private volatile boolean shutdown;
+    private volatile boolean progressed;
+    private Thread watcher;
+
+    WatchingNameResolver(String kind, String service, Args args) {
+        this.kind = kind;
+        this.service = service;
+        this.syncContext = args.getSynchronizationContext();
+    }
+
+    /**
+     * 在 watch 线程里执行 一直阻塞直到出错或者 shutdown，每次拿到结果调用 publish
+     */
+    protected abstract void watch() throws IOException;
+
+    /**
+     * shutdown 时中断阻塞中的 watch 默认只 interrupt 线程
+     */
+    protected void closeWatch() {
+    }
+
+    protected final boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return this.service;
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+        Preconditions.checkState(this.listener == null, "Already started");
+        this.listener = listener;
+        // http 请求是阻塞的 每个 resolver 一个 watch 线程
+        this.watcher = new ThreadFactoryBuilder().setNameFormat("grpc-client-" + this.kind + "-" + this.service + "-%d").setDaemon(true).build()
+                .newThread(this::watchLoop);
+        this.watcher.start();
+    }
+
+    @Override
+    public void refresh() {
+        // watch 实时推送 不需要主动刷新
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.shutdown) {
+            return;
+        }
+        this.shutdown = true;
+        closeWatch();
+        if (this.watcher != null) {
+            this.watcher.interrupt();
+        }
+    }
+
+    private void watchLoop() {
+        var backoffMills = MIN_BACKOFF_MILLS;
+        while (!this.shutdown) {
+            try {
+                this.progressed = false;
+                watch();
+            } catch (IOException | RuntimeException e) {
+                closeWatch();
+                if (this.shutdown) {
+                    return;
+                }
+                if (this.progressed) {
+                    // 成功推送过 说明注册中心可用 从最小间隔重新开始
+                    backoffMills = MIN_BACKOFF_MILLS;
+                }
+                log.warn("GRPC {} {} watch failed, retry in {}ms", this.kind, this.service, backoffMills, e);
+                publishError(Status.UNAVAILABLE.withDescription(this.kind + " resolve " + this.service + " failed").withCause(e));
+                try {
+                    Thread.sleep(backoffMills);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                backoffMills = Math.min(backoffMills * 2, MAX_BACKOFF_MILLS);
+            }
+        }
+    }
+
+    /**
+     * @param addresses 所有可用实例 host:port
+     */
+    protected final void publish(ImmutableSet<String> addresses) {
+        this.progressed = true;
+        this.syncContext.execute(() -> {
+            if (this.shutdown || addresses.equals(this.published)) {
+                return;
+            }
+            this.published = addresses;
+            final var groups = Lists.<EquivalentAddressGroup>newArrayListWithCapacity(addresses.size());
+            for (String address : addresses) {
+                final var hostAndPort = HostAndPort.fromString(address);
+                groups.add(new EquivalentAddressGroup(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort())));
+            }
+            log.info("GRPC {} {} resolved {}", this.kind, this.service, addresses);
+            this.listener.onResult(ResolutionResult.newBuilder()
+                    .setAddresses(groups)
+                    .setAttributes(Attributes.EMPTY)
+                    .build());
+        });
+    }
+
+    private void publishError(Status error) {
+        this.syncContext.execute(() -> {
+            if (!this.shutdown && this.published == null) {
+                this.listener.onError(error);
+            }
+        });
+    }
+
+}
@@ -16,6 +16,7 @@
 
 package io.github.jojoti.grpcstartersbcli.autoconfigure;
 
+import com.google.common.base.Preconditions;
 import io.github.jojoti.grpcstartersb.DiscoveryConfig;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -41,6 +42,8 @@ public class GRpcClientProperties {
     public static final class ClientItem {
         // 默认 5s
         private int shutdownGracefullyMills = 5000;
+        // 每个 service 的 channel 数量 每个 channel 一条连接，call 按 in-flight 选择 channel
+        private int poolSize = 1;
         private NettyConfig nettyConfig = null;
         private NettySharedConfig nettySharedConfig = null;
         private DiscoveryConfig discovery;
@@ -81,6 +84,15 @@ public class GRpcClientProperties {
             return null;
         }
 
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            Preconditions.checkArgument(poolSize >= 1, "poolSize must be >= 1");
+            this.poolSize = poolSize;
+        }
+
         public int getShutdownGracefullyMills() {
             return shutdownGracefullyMills;
         }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用本地 http stub 代替 consul agent，每次 blocking query 按顺序返回预先设置的响应
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ConsulDiscoveryNameResolverTest {
+
+    private final BlockingQueue<Map<String, String>> queries = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ImmutableSet<String>> results = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Status> errors = new LinkedBlockingQueue<>();
+    private ExecutorService agentExecutor;
+    private HttpServer agent;
+    private NameResolver resolver;
+
+    @BeforeEach
+    public void start() throws Exception {
+        this.agentExecutor = Executors.newCachedThreadPool();
+        this.agent = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.agent.setExecutor(this.agentExecutor);
+        this.agent.createContext("/v1/health/service/echo", this::health);
+        this.agent.start();
+
+        final var config = new DiscoveryConfig.Consul();
+        config.setAgent("127.0.0.1:" + this.agent.getAddress().getPort());
+        config.setService("echo");
+        config.setWaitMills(1000);
+        config.setTimeoutMills(1000);
+        final var factory = new ConsulDiscoveryNameResolver.Factory(config);
+        this.resolver = factory.newNameResolver(URI.create(factory.getTargetUri()), NameResolver.Args.newBuilder()
+                .setDefaultPort(443)
+                .setProxyDetector(address -> null)
+                .setSynchronizationContext(new SynchronizationContext((t, e) -> fail(e)))
+                .setServiceConfigParser(new NameResolver.ServiceConfigParser() {
+                    @Override
+                    public NameResolver.ConfigOrError parseServiceConfig(Map<String, ?> rawServiceConfig) {
+                        return NameResolver.ConfigOrError.fromConfig(rawServiceConfig);
+                    }
+                })
+                .build());
+    }
+
+    @AfterEach
+    public void stop() {
+        this.resolver.shutdown();
+        this.agent.stop(0);
+        this.agentExecutor.shutdownNow();
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        final var query = Splitter.on('&').withKeyValueSeparator('=').split(exchange.getRequestURI().getRawQuery());
+        this.queries.add(query);
+        final Response response;
+        try {
+            // 没有变更时一直阻塞 直到 client 超时
+            response = this.responses.take();
+        } catch (InterruptedException e) {
+            exchange.close();
+            return;
+        }
+        // 与 agent 一致 passing=true 时过滤掉没有通过检查的实例
+        final var entries = new JsonArray();
+        for (JsonObject entry : response.entries) {
+            if (!"true".equals(query.get("passing")) || entry.get("Status").getAsString().equals("passing")) {
+                entries.add(entry);
+            }
+        }
+        final var bytes = entries.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("X-Consul-Index", String.valueOf(response.index));
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static JsonObject entry(String address, String status) {
+        final var node = new JsonObject();
+        node.addProperty("Address", "10.0.0.100");
+        final var service = new JsonObject();
+        final var hostAndPort = Splitter.on(':').splitToList(address);
+        service.addProperty("Address", hostAndPort.get(0));
+        service.addProperty("Port", Integer.parseInt(hostAndPort.get(1)));
+        final var entry = new JsonObject();
+        entry.add("Node", node);
+        entry.add("Service", service);
+        // 简化 agent 的 Checks 数组 只保留聚合之后的状态
+        entry.addProperty("Status", status);
+        return entry;
+    }
+
+    private Map<String, String> nextQuery() throws InterruptedException {
+        final var query = this.queries.poll(5, TimeUnit.SECONDS);
+        assertNotNull(query, "waiting for blocking query");
+        return query;
+    }
+
+    private ImmutableSet<String> nextResult() throws InterruptedException {
+        final var result = this.results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(result, "waiting for resolution result");
+        return result;
+    }
+
+    @Test
+    public void testBlockingQuery() throws Exception {
+        this.responses.add(new Response(10, List.of(entry("10.0.0.1:9000", "passing"), entry("10.0.0.2:9000", "critical"))));
+        // index 变化但是 passing 的实例没有变化
+        this.responses.add(new Response(11, List.of(entry("10.0.0.1:9000", "passing"), entry("10.0.0.2:9000", "warning"))));
+        this.responses.add(new Response(12, List.of(entry("10.0.0.1:9000", "passing"), entry("10.0.0.2:9000", "passing"))));
+        // consul 重置 index 变小
+        this.responses.add(new Response(5, List.of(entry("10.0.0.1:9000", "passing"), entry("10.0.0.2:9000", "passing"))));
+        this.responses.add(new Response(6, List.of(entry("10.0.0.2:9000", "passing"))));
+
+        this.resolver.start(new NameResolver.Listener2() {
+            @Override
+            public void onResult(NameResolver.ResolutionResult resolutionResult) {
+                final var addresses = ImmutableSet.<String>builder();
+                for (EquivalentAddressGroup group : resolutionResult.getAddresses()) {
+                    final var address = (InetSocketAddress) group.getAddresses().get(0);
+                    addresses.add(address.getHostString() + ":" + address.getPort());
+                }
+                results.add(addresses.build());
+            }
+
+            @Override
+            public void onError(Status error) {
+                errors.add(error);
+            }
+        });
+
+        final var first = nextQuery();
+        assertEquals("0", first.get("index"));
+        assertEquals("true", first.get("passing"));
+        assertEquals("1000ms", first.get("wait"));
+        // 下一次查询带上 X-Consul-Index
+        assertEquals("10", nextQuery().get("index"));
+        assertEquals("11", nextQuery().get("index"));
+        assertEquals("12", nextQuery().get("index"));
+        // index 变小之后从 0 重新开始
+        assertEquals("0", nextQuery().get("index"));
+        assertEquals("6", nextQuery().get("index"));
+
+        // 只有 passing 的实例 集合没有变化的响应不通知
+        assertEquals(ImmutableSet.of("10.0.0.1:9000"), nextResult());
+        assertEquals(ImmutableSet.of("10.0.0.1:9000", "10.0.0.2:9000"), nextResult());
+        assertEquals(ImmutableSet.of("10.0.0.2:9000"), nextResult());
+        assertNull(this.results.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(this.errors.isEmpty());
+    }
+
+    private static final class Response {
+        private final long index;
+        private final List<JsonObject> entries;
+
+        private Response(long index, List<JsonObject> entries) {
+            this.index = index;
+            this.entries = entries;
+        }
+    }
+
+}
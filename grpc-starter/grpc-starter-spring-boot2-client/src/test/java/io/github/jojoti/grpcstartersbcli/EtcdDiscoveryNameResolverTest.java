@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbcli;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.github.jojoti.grpcstartersb.DiscoveryEndpoint;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用本地 http stub 代替 etcd json gateway，watch 的每一行由测试推送
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class EtcdDiscoveryNameResolverTest {
+
+    private static final String PREFIX = "/grpc-starter/services/echo/";
+
+    private final BlockingQueue<JsonObject> watchRequests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> watchLines = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ImmutableSet<String>> results = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Status> errors = new LinkedBlockingQueue<>();
+    private ExecutorService gatewayExecutor;
+    private HttpServer gateway;
+    private NameResolver resolver;
+
+    @BeforeEach
+    public void start() throws Exception {
+        this.gatewayExecutor = Executors.newCachedThreadPool();
+        this.gateway = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.gateway.setExecutor(this.gatewayExecutor);
+        this.gateway.createContext("/v3/kv/range", this::range);
+        this.gateway.createContext("/v3/watch", this::watch);
+        this.gateway.start();
+
+        final var config = new DiscoveryConfig.Etcd();
+        config.setEndpoints(List.of("127.0.0.1:" + this.gateway.getAddress().getPort()));
+        config.setService("echo");
+        config.setTimeoutMills(1000);
+        final var factory = new EtcdDiscoveryNameResolver.Factory(config);
+        this.resolver = factory.newNameResolver(URI.create(factory.getTargetUri()), NameResolver.Args.newBuilder()
+                .setDefaultPort(443)
+                .setProxyDetector(address -> null)
+                .setSynchronizationContext(new SynchronizationContext((t, e) -> fail(e)))
+                .setServiceConfigParser(new NameResolver.ServiceConfigParser() {
+                    @Override
+                    public NameResolver.ConfigOrError parseServiceConfig(Map<String, ?> rawServiceConfig) {
+                        return NameResolver.ConfigOrError.fromConfig(rawServiceConfig);
+                    }
+                })
+                .build());
+    }
+
+    @AfterEach
+    public void stop() {
+        this.resolver.shutdown();
+        this.gateway.stop(0);
+        this.gatewayExecutor.shutdownNow();
+    }
+
+    private void range(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        final var body = "{\"header\":{\"revision\":\"5\"},\"kvs\":["
+                + kv("10.0.0.1:9000", true) + ","
+                + kv("10.0.0.2:9000", false) + "]}";
+        final var bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private void watch(HttpExchange exchange) throws IOException {
+        this.watchRequests.add(JsonParser.parseString(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject());
+        // chunked 长连接 每次推送一行
+        exchange.sendResponseHeaders(200, 0);
+        final var out = exchange.getResponseBody();
+        try {
+            while (true) {
+                out.write((this.watchLines.take() + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException | IOException e) {
+            exchange.close();
+        }
+    }
+
+    private static String kv(String address, boolean healthy) {
+        final var kv = new JsonObject();
+        kv.addProperty("key", encode(PREFIX + address));
+        kv.addProperty("value", encode(new DiscoveryEndpoint("echo", address, healthy).toJson()));
+        return kv.toString();
+    }
+
+    private static String event(String type, String address, boolean healthy) {
+        final var event = JsonParser.parseString("{\"kv\":" + kv(address, healthy) + "}").getAsJsonObject();
+        if (type != null) {
+            event.addProperty("type", type);
+        }
+        return "{\"result\":{\"header\":{},\"events\":[" + event + "]}}";
+    }
+
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ImmutableSet<String> nextResult() throws InterruptedException {
+        final var result = this.results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(result, "waiting for resolution result");
+        return result;
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        this.resolver.start(new NameResolver.Listener2() {
+            @Override
+            public void onResult(NameResolver.ResolutionResult resolutionResult) {
+                final var addresses = ImmutableSet.<String>builder();
+                for (EquivalentAddressGroup group : resolutionResult.getAddresses()) {
+                    final var address = (InetSocketAddress) group.getAddresses().get(0);
+                    addresses.add(address.getHostString() + ":" + address.getPort());
+                }
+                results.add(addresses.build());
+            }
+
+            @Override
+            public void onError(Status error) {
+                errors.add(error);
+            }
+        });
+
+        // range 之后只有 healthy 的实例
+        assertEquals(ImmutableSet.of("10.0.0.1:9000"), nextResult());
+        // 从 range 的下一个 revision 开始 watch
+        final var create = this.watchRequests.poll(5, TimeUnit.SECONDS).getAsJsonObject("create_request");
+        assertEquals(6, create.get("start_revision").getAsLong());
+        assertEquals(PREFIX, new String(Base64.getDecoder().decode(create.get("key").getAsString()), StandardCharsets.UTF_8));
+
+        this.watchLines.add("{\"result\":{\"header\":{},\"created\":true}}");
+        // PUT 是默认值 json 里面没有 type
+        this.watchLines.add(event(null, "10.0.0.2:9000", true));
+        assertEquals(ImmutableSet.of("10.0.0.1:9000", "10.0.0.2:9000"), nextResult());
+
+        // 新增 unhealthy 的实例 集合没有变化 不通知
+        this.watchLines.add(event("PUT", "10.0.0.3:9000", false));
+        this.watchLines.add(event("DELETE", "10.0.0.1:9000", false));
+        assertEquals(ImmutableSet.of("10.0.0.2:9000"), nextResult());
+
+        assertTrue(this.errors.isEmpty());
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.protobuf.MessageLite;
+import io.github.jojoti.grpcstartersb.GRpcScope;
+import io.github.jojoti.grpcstartersb.ScopeServerInterceptor;
+import io.github.jojoti.grpcstartersb.ServiceDescriptorAnnotations;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 只读 unary method 的响应缓存
+ * <p>
+ * key 为 method + 请求序列化之后的字节 (+ uid)，value 为响应 message，protobuf message 不可变可以直接复用
+ * 按请求和响应的序列化大小限制整个 scope 的缓存，超过之后淘汰，过期时间由 @GRpcCacheable 按 method 设置
+ * 未命中时相同的请求只有一个进入业务代码 其它的等待结果 防止缓存击穿
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+class CacheInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcCacheProperties gRpcCacheProperties;
+    // clone 之后所有 scope 共用
+    private final ConcurrentMap<String, ScopeCacheStats> stats = Maps.newConcurrentMap();
+
+    // reload 时整体替换 进行中的请求继续使用之前的缓存
+    private volatile ScopeCache scopeCache;
+
+    CacheInterceptor(GRpcCacheProperties gRpcCacheProperties) {
+        this.gRpcCacheProperties = gRpcCacheProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var scopeCache = this.scopeCache;
+        final var cacheable = scopeCache == null ? null : scopeCache.cacheables.get(call.getMethodDescriptor());
+        if (cacheable == null) {
+            return next.startCall(call, headers);
+        }
+        final long uid;
+        if (cacheable.perUser()) {
+            final var user = SessionInterceptor.USER_NTS.get();
+            if (user == null || user.isAnonymous()) {
+                return next.startCall(call, headers);
+            }
+            uid = user.getUid();
+        } else {
+            uid = 0;
+        }
+        return new DeferredUnaryListener<>(call, headers, next) {
+
+            private UnaryFlights<RequestKey>.Flight flight;
+
+            @Override
+            protected void onRequest(ReqT request) {
+                final var key = new RequestKey(call.getMethodDescriptor(), uid, ((MessageLite) request).toByteString());
+                final var found = scopeCache.cache.getIfPresent(key);
+                if (found != null) {
+                    if (found.expiresAtNanos - System.nanoTime() > 0) {
+                        scopeCache.stats.hit();
+                        sendCached(call, found.response);
+                        return;
+                    }
+                    scopeCache.cache.asMap().remove(key, found);
+                }
+                this.flight = scopeCache.flights.join(key, call);
+                if (this.flight == null) {
+                    scopeCache.stats.coalesced();
+                    return;
+                }
+                scopeCache.stats.miss();
+                final var ttlNanos = TimeUnit.MILLISECONDS.toNanos(cacheable.ttlMills());
+                try {
+                    startHandler(this.flight.leaderCall(call, response -> {
+                        if (response instanceof MessageLite) {
+                            scopeCache.cache.put(key, new Entry(response, ((MessageLite) response).getSerializedSize(), System.nanoTime() + ttlNanos));
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    this.flight.fail(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            protected void onFinished() {
+                if (this.flight != null) {
+                    this.flight.cancel();
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <RespT> void sendCached(ServerCall<?, RespT> call, Object response) {
+        call.sendHeaders(new Metadata());
+        call.sendMessage((RespT) response);
+        call.close(Status.OK, new Metadata());
+    }
+
+    /**
+     * @return 没有开启缓存或者还没有启动的 scope 为 null
+     */
+    public ScopeCacheStats getStats(String scopeName) {
+        return this.stats.get(scopeName);
+    }
+
+    @Override
+    public List<String> getScopes() {
+        return this.gRpcCacheProperties.enableScopeNames();
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> servicesEvent) {
+        final var found = ServiceDescriptorAnnotations.getAnnotationMaps(servicesEvent, GRpcCacheable.class, false);
+        long maxTtlMills = 1;
+        for (var entry : found.entrySet()) {
+            final var method = entry.getKey();
+            Preconditions.checkArgument(method.getType() == MethodDescriptor.MethodType.UNARY,
+                    "@GRpcCacheable only supports unary method: " + method.getFullMethodName());
+            Preconditions.checkArgument(entry.getValue().ttlMills() > 0, "@GRpcCacheable ttlMills must be > 0: " + method.getFullMethodName());
+            Preconditions.checkArgument(method.getRequestMarshaller() instanceof MethodDescriptor.PrototypeMarshaller
+                            && ((MethodDescriptor.PrototypeMarshaller<?>) method.getRequestMarshaller()).getMessagePrototype() instanceof MessageLite,
+                    "@GRpcCacheable only supports protobuf request: " + method.getFullMethodName());
+            maxTtlMills = Math.max(maxTtlMills, entry.getValue().ttlMills());
+        }
+        final var config = this.gRpcCacheProperties.getServers().get(currentGRpcScope.value()).getCache();
+        // 每个 method 的过期时间读取时判断 这里只是保证过期的 entry 最终会被回收
+        final Cache<RequestKey, Entry> cache = CacheBuilder.newBuilder()
+                .maximumWeight(config.getMaxBytes())
+                .weigher((RequestKey key, Entry value) -> key.size() + value.size)
+                .expireAfterWrite(maxTtlMills, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        final var scopeStats = this.stats.computeIfAbsent(currentGRpcScope.value(), ScopeCacheStats::new);
+        scopeStats.bind(() -> cache.stats().evictionCount(), cache::size);
+        this.scopeCache = new ScopeCache(found, cache, scopeStats);
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class ScopeCache {
+        private final ImmutableMap<MethodDescriptor<?, ?>, GRpcCacheable> cacheables;
+        private final Cache<RequestKey, Entry> cache;
+        private final UnaryFlights<RequestKey> flights = new UnaryFlights<>();
+        private final ScopeCacheStats stats;
+
+        private ScopeCache(ImmutableMap<MethodDescriptor<?, ?>, GRpcCacheable> cacheables, Cache<RequestKey, Entry> cache, ScopeCacheStats stats) {
+            this.cacheables = cacheables;
+            this.cache = cache;
+            this.stats = stats;
+        }
+    }
+
+    private static final class Entry {
+        private final Object response;
+        private final int size;
+        private final long expiresAtNanos;
+
+        private Entry(Object response, int size, long expiresAtNanos) {
+            this.response = response;
+            this.size = size;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.MessageLite;
+import io.github.jojoti.grpcstartersb.GRpcScope;
+import io.github.jojoti.grpcstartersb.ScopeServerInterceptor;
+import io.github.jojoti.grpcstartersb.ServiceDescriptorAnnotations;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 合并同一时间相同请求体的 unary 调用
+ * <p>
+ * 缓存冷启动或者发布之后的惊群，大量相同的请求同时到达时只有第一个进入业务代码，其它的等待结果
+ * 只作用于标注了 @GRpcCoalesce 的 method，没有标注的只有一次 map 查找
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+class CoalesceInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcServerProperties gRpcServerProperties;
+    // clone 之后所有 scope 共用
+    private final ConcurrentMap<String, ScopeCoalesceStats> stats = Maps.newConcurrentMap();
+
+    // reload 时整体替换
+    private volatile ScopeFlights scopeFlights;
+
+    CoalesceInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var scopeFlights = this.scopeFlights;
+        final var coalesce = scopeFlights == null ? null : scopeFlights.coalesces.get(call.getMethodDescriptor());
+        if (coalesce == null) {
+            return next.startCall(call, headers);
+        }
+        final long uid;
+        if (coalesce.perUser()) {
+            final var user = SessionInterceptor.USER_NTS.get();
+            if (user == null || user.isAnonymous()) {
+                return next.startCall(call, headers);
+            }
+            uid = user.getUid();
+        } else {
+            uid = 0;
+        }
+        return new DeferredUnaryListener<>(call, headers, next) {
+
+            private UnaryFlights<RequestKey>.Flight flight;
+
+            @Override
+            protected void onRequest(ReqT request) {
+                final var key = new RequestKey(call.getMethodDescriptor(), uid, ((MessageLite) request).toByteString());
+                this.flight = scopeFlights.flights.join(key, call);
+                if (this.flight == null) {
+                    scopeFlights.stats.coalesced();
+                    return;
+                }
+                scopeFlights.stats.leader();
+                try {
+                    startHandler(this.flight.leaderCall(call, response -> {
+                    }));
+                } catch (RuntimeException e) {
+                    this.flight.fail(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            protected void onFinished() {
+                if (this.flight != null) {
+                    this.flight.cancel();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return 还没有启动的 scope 为 null
+     */
+    public ScopeCoalesceStats getStats(String scopeName) {
+        return this.stats.get(scopeName);
+    }
+
+    @Override
+    public List<String> getScopes() {
+        // 由 method 上的注解决定 所有 scope 都生效
+        if (this.gRpcServerProperties.getServers() == null) {
+            return Lists.newArrayList();
+        }
+        return Lists.newArrayList(this.gRpcServerProperties.getServers().keySet());
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> servicesEvent) {
+        final var found = ServiceDescriptorAnnotations.getAnnotationMaps(servicesEvent, GRpcCoalesce.class, false);
+        for (var method : found.keySet()) {
+            Preconditions.checkArgument(method.getType() == MethodDescriptor.MethodType.UNARY,
+                    "@GRpcCoalesce only supports unary method: " + method.getFullMethodName());
+            Preconditions.checkArgument(method.getRequestMarshaller() instanceof MethodDescriptor.PrototypeMarshaller
+                            && ((MethodDescriptor.PrototypeMarshaller<?>) method.getRequestMarshaller()).getMessagePrototype() instanceof MessageLite,
+                    "@GRpcCoalesce only supports protobuf request: " + method.getFullMethodName());
+        }
+        final var scopeStats = this.stats.computeIfAbsent(currentGRpcScope.value(), ScopeCoalesceStats::new);
+        this.scopeFlights = new ScopeFlights(found, scopeStats);
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class ScopeFlights {
+        private final ImmutableMap<MethodDescriptor<?, ?>, GRpcCoalesce> coalesces;
+        private final UnaryFlights<RequestKey> flights = new UnaryFlights<>();
+        private final ScopeCoalesceStats stats;
+
+        private ScopeFlights(ImmutableMap<MethodDescriptor<?, ?>, GRpcCoalesce> coalesces, ScopeCoalesceStats stats) {
+            this.coalesces = coalesces;
+            this.stats = stats;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+
+/**
+ * unary 请求收完之后再决定是否进入业务代码
+ * <p>
+ * 业务 handler 在 startHandler 之前不会创建，startHandler 时按顺序补发 onMessage/onHalfClose
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+abstract class DeferredUnaryListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+    protected final ServerCall<ReqT, RespT> call;
+    private final Metadata headers;
+    private final ServerCallHandler<ReqT, RespT> next;
+
+    private ReqT request;
+    private ServerCall.Listener<ReqT> delegate;
+
+    DeferredUnaryListener(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        this.call = call;
+        this.headers = headers;
+        this.next = next;
+        // 业务 handler 还没有创建 需要自己请求消息 与 grpc unary handler 一样请求 2 个用于发现多余的消息
+        call.request(2);
+    }
+
+    /**
+     * 收到完整的请求
+     */
+    protected abstract void onRequest(ReqT request);
+
+    /**
+     * call 结束 (完成或者被取消) 此时业务 handler 可能还没有创建
+     */
+    protected void onFinished() {
+    }
+
+    /**
+     * 进入业务代码 只能调用一次
+     */
+    protected void startHandler(ServerCall<ReqT, RespT> handlerCall) {
+        this.delegate = this.next.startCall(handlerCall, this.headers);
+        final var request = this.request;
+        this.request = null;
+        this.delegate.onMessage(request);
+        this.delegate.onHalfClose();
+        if (this.call.isReady()) {
+            this.delegate.onReady();
+        }
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+        if (this.request != null) {
+            this.call.close(Status.INTERNAL.withDescription("Too many requests"), new Metadata());
+            return;
+        }
+        this.request = message;
+    }
+
+    @Override
+    public void onHalfClose() {
+        if (this.request == null) {
+            this.call.close(Status.INTERNAL.withDescription("Half-closed without a request"), new Metadata());
+            return;
+        }
+        onRequest(this.request);
+    }
+
+    @Override
+    public void onCancel() {
+        try {
+            if (this.delegate != null) {
+                this.delegate.onCancel();
+            }
+        } finally {
+            onFinished();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            if (this.delegate != null) {
+                this.delegate.onComplete();
+            }
+        } finally {
+            onFinished();
+        }
+    }
+
+    @Override
+    public void onReady() {
+        if (this.delegate != null) {
+            this.delegate.onReady();
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.github.jojoti.grpcstartersb.GRpcGlobalInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.*;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import java.util.Map;
+
+/**
+ * 响应缓存在 session 和 ram 之后执行，命中缓存的请求同样需要校验会话和权限
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(GRpcCacheProperties.class)
+@Conditional(GRpcCacheAutoConfiguration.EnableCache.class)
+public class GRpcCacheAutoConfiguration {
+
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(3)
+    public CacheInterceptor cacheInterceptor(GRpcCacheProperties gRpcCacheProperties) {
+        return new CacheInterceptor(gRpcCacheProperties);
+    }
+
+    /**
+     * 存在 micrometer 时导出命中率
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class GRpcCacheMetricsConfiguration {
+
+        @Bean
+        public GRpcCacheMetrics grpcCacheMetrics(CacheInterceptor cacheInterceptor, GRpcCacheProperties gRpcCacheProperties) {
+            return new GRpcCacheMetrics(cacheInterceptor, gRpcCacheProperties);
+        }
+
+    }
+
+    static final class EnableCache implements Condition {
+
+        private static final Bindable<Map<String, GRpcCacheProperties.CacheItem>> STRING_LIST = Bindable.mapOf(String.class, GRpcCacheProperties.CacheItem.class);
+
+        // rf: org.springframework.boot.autoconfigure.condition.OnPropertyListCondition
+        @Override
+        public boolean matches(ConditionContext conditionContext, AnnotatedTypeMetadata annotatedTypeMetadata) {
+            var found = Binder.get(conditionContext.getEnvironment()).bind("grpcs.servers", STRING_LIST);
+            if (found.isBound()) {
+                for (var cacheItem : found.get().values()) {
+                    if (cacheItem.getCache().isEnabled()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+}
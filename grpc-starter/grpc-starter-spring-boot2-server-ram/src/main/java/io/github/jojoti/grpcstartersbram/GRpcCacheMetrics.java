@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * 开启了响应缓存的 scope
+ * grpc.server.cache.requests{scope, result=hit/miss/coalesced}，grpc.server.cache.evictions{scope}，grpc.server.cache.size{scope}
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+class GRpcCacheMetrics implements MeterBinder {
+
+    private final CacheInterceptor cacheInterceptor;
+    private final GRpcCacheProperties gRpcCacheProperties;
+
+    GRpcCacheMetrics(CacheInterceptor cacheInterceptor, GRpcCacheProperties gRpcCacheProperties) {
+        this.cacheInterceptor = cacheInterceptor;
+        this.gRpcCacheProperties = gRpcCacheProperties;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (String scopeName : this.gRpcCacheProperties.enableScopeNames()) {
+            register(registry, scopeName, "hit", ScopeCacheStats::getHits);
+            register(registry, scopeName, "miss", ScopeCacheStats::getMisses);
+            register(registry, scopeName, "coalesced", ScopeCacheStats::getCoalesced);
+            FunctionCounter.builder("grpc.server.cache.evictions", this.cacheInterceptor, interceptor -> get(interceptor, scopeName, ScopeCacheStats::getEvictions))
+                    .tag("scope", scopeName)
+                    .description("gRPC server response cache evictions")
+                    .register(registry);
+            Gauge.builder("grpc.server.cache.size", this.cacheInterceptor, interceptor -> get(interceptor, scopeName, ScopeCacheStats::getEntries))
+                    .tag("scope", scopeName)
+                    .description("gRPC server response cache entries")
+                    .register(registry);
+        }
+    }
+
+    private void register(MeterRegistry registry, String scopeName, String result, ToLongFunction<ScopeCacheStats> getter) {
+        FunctionCounter.builder("grpc.server.cache.requests", this.cacheInterceptor, interceptor -> get(interceptor, scopeName, getter))
+                .tag("scope", scopeName)
+                .tag("result", result)
+                .description("gRPC server response cache lookups")
+                .register(registry);
+    }
+
+    private static long get(CacheInterceptor interceptor, String scopeName, ToLongFunction<ScopeCacheStats> getter) {
+        // 启动之前为 0
+        final var stats = interceptor.getStats(scopeName);
+        return stats == null ? 0 : getter.applyAsLong(stats);
+    }
+
+}
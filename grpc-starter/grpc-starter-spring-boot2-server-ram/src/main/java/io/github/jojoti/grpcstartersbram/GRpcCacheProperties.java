@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@ConfigurationProperties(prefix = "grpcs")
+public class GRpcCacheProperties {
+
+    // 那些 scope 需要启用响应缓存
+    private Map<String, CacheItem> servers;
+
+    List<String> enableScopeNames() {
+        var found = Lists.<String>newArrayList();
+        for (Map.Entry<String, CacheItem> entry : servers.entrySet()) {
+            if (entry.getValue().getCache().enabled) {
+                found.add(entry.getKey());
+            }
+        }
+        if (found.size() <= 0) {
+            throw new IllegalArgumentException("Bug fix cache scope conditional error");
+        }
+        return found;
+    }
+
+    public Map<String, CacheItem> getServers() {
+        return servers;
+    }
+
+    public void setServers(Map<String, CacheItem> servers) {
+        this.servers = servers;
+    }
+
+    static final class CacheItem {
+        private CacheConfig cache = new CacheConfig();
+
+        public CacheConfig getCache() {
+            return cache;
+        }
+
+        public void setCache(CacheConfig cache) {
+            this.cache = cache;
+        }
+    }
+
+    static final class CacheConfig {
+        private boolean enabled = false;
+        // 整个 scope 缓存的请求加响应的序列化大小上限 超过之后按 LRU 淘汰 默认 64m
+        private long maxBytes = 64 * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            Preconditions.checkArgument(maxBytes > 0, "cache maxBytes must be > 0");
+            this.maxBytes = maxBytes;
+        }
+    }
+
+}
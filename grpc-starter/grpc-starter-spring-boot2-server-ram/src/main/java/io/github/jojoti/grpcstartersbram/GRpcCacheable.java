@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import java.lang.annotation.*;
+
+/**
+ * 只读 幂等的 unary method 使用，相同的请求在 ttlMills 内直接返回缓存的响应，不再进入业务代码
+ * <p>
+ * 需要 scope 开启 grpcs.servers.[scope].cache.enabled，缓存命中时同样会经过 session 和 ram 拦截器
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface GRpcCacheable {
+
+    /**
+     * 缓存时间
+     */
+    long ttlMills();
+
+    /**
+     * 按当前会话的 uid 区分缓存，没有登录的请求不使用缓存
+     */
+    boolean perUser() default false;
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import java.lang.annotation.*;
+
+/**
+ * 同一时间相同请求体的 unary 调用只执行一次业务代码，结果返回给所有等待的调用
+ * <p>
+ * 只用于只读幂等的 method，响应与调用者有关时需要 perUser = true
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface GRpcCoalesce {
+
+    /**
+     * 按当前会话的 uid 区分，没有登录的请求不合并
+     */
+    boolean perUser() default false;
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.github.jojoti.grpcstartersb.GRpcGlobalInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcScopeService;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+
+/**
+ * 请求合并在 session/ram/cache 之后执行，标注了 @GRpcCacheable 的 method 本身已经合并了未命中的请求
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnBean(annotation = {GRpcScopeService.class})
+@EnableConfigurationProperties(GRpcServerProperties.class)
+public class GRpcCoalesceAutoConfiguration {
+
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(4)
+    public CoalesceInterceptor coalesceInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new CoalesceInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 存在 micrometer 时导出合并率
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class GRpcCoalesceMetricsConfiguration {
+
+        @Bean
+        public GRpcCoalesceMetrics grpcCoalesceMetrics(CoalesceInterceptor coalesceInterceptor, GRpcServerProperties gRpcServerProperties) {
+            return new GRpcCoalesceMetrics(coalesceInterceptor, gRpcServerProperties);
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * grpc.server.coalesce.requests{scope, result=leader/coalesced} 合并率为 coalesced / 总数
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+class GRpcCoalesceMetrics implements MeterBinder {
+
+    private final CoalesceInterceptor coalesceInterceptor;
+    private final GRpcServerProperties gRpcServerProperties;
+
+    GRpcCoalesceMetrics(CoalesceInterceptor coalesceInterceptor, GRpcServerProperties gRpcServerProperties) {
+        this.coalesceInterceptor = coalesceInterceptor;
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (this.gRpcServerProperties.getServers() == null) {
+            return;
+        }
+        for (String scopeName : this.gRpcServerProperties.getServers().keySet()) {
+            register(registry, scopeName, "leader", ScopeCoalesceStats::getLeaders);
+            register(registry, scopeName, "coalesced", ScopeCoalesceStats::getCoalesced);
+        }
+    }
+
+    private void register(MeterRegistry registry, String scopeName, String result, ToLongFunction<ScopeCoalesceStats> getter) {
+        FunctionCounter.builder("grpc.server.coalesce.requests", this.coalesceInterceptor, interceptor -> {
+                    // 启动之前为 0
+                    final var stats = interceptor.getStats(scopeName);
+                    return stats == null ? 0 : getter.applyAsLong(stats);
+                })
+                .tag("scope", scopeName)
+                .tag("result", result)
+                .description("gRPC server coalesced unary calls")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import io.github.jojoti.grpcstartersb.GRpcGlobalInterceptor;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.*;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import java.util.Map;
+
+/**
+ * 按用户限流在 session 之后 ram 之前执行，被限流的请求不再做权限校验
+ * perIp/perMethod 由 server 模块的 GRpcRateLimitInterceptor 在 session 之前检查
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(GRpcServerProperties.class)
+@Conditional(GRpcRateLimitAutoConfiguration.EnableUserRateLimit.class)
+public class GRpcRateLimitAutoConfiguration {
+
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(1)
+    public UserRateLimitInterceptor userRateLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new UserRateLimitInterceptor(gRpcServerProperties);
+    }
+
+    static final class EnableUserRateLimit implements Condition {
+
+        private static final Bindable<Map<String, GRpcServerProperties.ServerItem>> STRING_LIST = Bindable.mapOf(String.class, GRpcServerProperties.ServerItem.class);
+
+        // rf: org.springframework.boot.autoconfigure.condition.OnPropertyListCondition
+        @Override
+        public boolean matches(ConditionContext conditionContext, AnnotatedTypeMetadata annotatedTypeMetadata) {
+            var found = Binder.get(conditionContext.getEnvironment()).bind("grpcs.servers", STRING_LIST);
+            if (found.isBound()) {
+                for (var serverItem : found.get().values()) {
+                    if (serverItem.getRateLimit().isEnabled() && serverItem.getRateLimit().getPerUser().isEnabled()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.github.jojoti.grpcstartersb.GRpcScope;
 import io.github.jojoti.grpcstartersb.ScopeServerInterceptor;
+import io.github.jojoti.grpcstartersb.ServiceDescriptorAnnotations;
 import io.grpc.*;
 
 import java.util.List;
@@ -61,7 +62,7 @@ class RAMInterceptor implements ScopeServerInterceptor {
             try {
                 // 判断用户是否登陆
                 var isLogin = this.ramAccessInterceptor.checkSession(this.currentGRpcScope, foundRam, call, headers, next);
-                if (isLogin) {
+                if (!isLogin) {
                     // 权限不足
                     final var error = Status.fromCode(Status.UNAUTHENTICATED.getCode()).withDescription("Auth failed, please check session");
                     call.close(error, new Metadata());
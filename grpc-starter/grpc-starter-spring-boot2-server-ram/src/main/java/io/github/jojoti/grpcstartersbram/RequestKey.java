@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.protobuf.ByteString;
+import io.grpc.MethodDescriptor;
+
+/**
+ * method + 请求序列化之后的字节 (+ uid) 作为缓存和合并请求的 key
+ * <p>
+ * protobuf 对同一个 message 的序列化结果是确定的 (map 字段除外)
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class RequestKey {
+
+    private final MethodDescriptor<?, ?> method;
+    private final long uid;
+    private final ByteString request;
+    private final int hash;
+
+    RequestKey(MethodDescriptor<?, ?> method, long uid, ByteString request) {
+        this.method = method;
+        this.uid = uid;
+        this.request = request;
+        // MethodDescriptor 没有重写 hashCode 使用 identity
+        this.hash = 31 * (31 * System.identityHashCode(method) + Long.hashCode(uid)) + request.hashCode();
+    }
+
+    int size() {
+        return this.request.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        final var that = (RequestKey) o;
+        return this.hash == that.hash && this.method == that.method && this.uid == that.uid && this.request.equals(that.request);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+}
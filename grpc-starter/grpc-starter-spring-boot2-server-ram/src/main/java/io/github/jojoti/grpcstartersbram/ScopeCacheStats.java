@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 单个 scope 的响应缓存统计，reload 之后继续累加
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class ScopeCacheStats {
+
+    private final String scopeName;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 未命中 但是等待了其它相同请求的结果
+    private final LongAdder coalesced = new LongAdder();
+    private volatile LongSupplier evictions = () -> 0;
+    private volatile LongSupplier entries = () -> 0;
+
+    ScopeCacheStats(String scopeName) {
+        this.scopeName = scopeName;
+    }
+
+    public String getScopeName() {
+        return scopeName;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.getAsLong();
+    }
+
+    public long getEntries() {
+        return entries.getAsLong();
+    }
+
+    void hit() {
+        this.hits.increment();
+    }
+
+    void miss() {
+        this.misses.increment();
+    }
+
+    void coalesced() {
+        this.coalesced.increment();
+    }
+
+    /**
+     * reload 之后缓存重新创建
+     */
+    void bind(LongSupplier evictions, LongSupplier entries) {
+        this.evictions = evictions;
+        this.entries = entries;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个 scope 的请求合并统计，合并率 = coalesced / (leaders + coalesced)
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class ScopeCoalesceStats {
+
+    private final String scopeName;
+    // 实际进入业务代码的调用
+    private final LongAdder leaders = new LongAdder();
+    // 等待其它调用结果的调用
+    private final LongAdder coalesced = new LongAdder();
+
+    ScopeCoalesceStats(String scopeName) {
+        this.scopeName = scopeName;
+    }
+
+    public String getScopeName() {
+        return scopeName;
+    }
+
+    public long getLeaders() {
+        return leaders.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    void leader() {
+        this.leaders.increment();
+    }
+
+    void coalesced() {
+        this.coalesced.increment();
+    }
+
+}
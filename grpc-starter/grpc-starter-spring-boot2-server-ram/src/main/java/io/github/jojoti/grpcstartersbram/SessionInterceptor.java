@@ -23,6 +23,7 @@ import com.google.common.collect.Lists;
 import io.github.jojoti.grpcstartersb.GRpcGlobalInterceptor;
 import io.github.jojoti.grpcstartersb.GRpcScope;
 import io.github.jojoti.grpcstartersb.ScopeServerInterceptor;
+import io.github.jojoti.grpcstartersb.ServiceDescriptorAnnotations;
 import io.github.jojoti.utilguavaext.GuavaCollects;
 import io.grpc.*;
 import org.springframework.beans.BeansException;
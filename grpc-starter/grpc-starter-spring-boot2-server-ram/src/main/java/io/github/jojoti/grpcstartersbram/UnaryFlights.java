@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.github.jojoti.grpcstartersb.Trailers;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 相同 key 的 unary 请求同一时间只有一个 (leader) 进入业务代码，其它请求等待 leader 的结果
+ * <p>
+ * leader 返回 OK 时所有等待的 call 收到同一个响应，失败时收到同样的 status
+ * leader 被客户端取消时等待的 call 返回 UNAVAILABLE 由客户端重试
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class UnaryFlights<K> {
+
+    private static final Logger log = LoggerFactory.getLogger(UnaryFlights.class);
+
+    private final ConcurrentMap<K, Flight> flights = Maps.newConcurrentMap();
+
+    /**
+     * @return 当前 call 是 leader 时返回 flight，需要执行业务代码并通过 leaderCall 包装返回结果，等待其它 call 时返回 null
+     */
+    Flight join(K key, ServerCall<?, ?> call) {
+        while (true) {
+            final var created = new Flight(key);
+            final var existing = this.flights.putIfAbsent(key, created);
+            if (existing == null) {
+                return created;
+            }
+            if (existing.addWaiter(call)) {
+                return null;
+            }
+            // leader 刚刚结束 还没有从 map 里移除
+            this.flights.remove(key, existing);
+        }
+    }
+
+    final class Flight {
+
+        private final K key;
+        private final List<ServerCall<?, ?>> waiters = Lists.newArrayList();
+        private boolean done;
+
+        private Flight(K key) {
+            this.key = key;
+        }
+
+        private synchronized boolean addWaiter(ServerCall<?, ?> call) {
+            if (this.done) {
+                return false;
+            }
+            this.waiters.add(call);
+            return true;
+        }
+
+        /**
+         * 捕获 leader 的响应 close 之后通知等待的 call
+         */
+        <ReqT, RespT> ServerCall<ReqT, RespT> leaderCall(ServerCall<ReqT, RespT> call, Listener<RespT> listener) {
+            return new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+                private RespT response;
+
+                @Override
+                public void sendMessage(RespT message) {
+                    this.response = message;
+                    super.sendMessage(message);
+                }
+
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    // close 之后 grpc 会修改 trailers 先复制
+                    final var copied = Trailers.copyOf(trailers);
+                    try {
+                        super.close(status, trailers);
+                    } finally {
+                        if (status.isOk() && this.response != null) {
+                            listener.onResponse(this.response);
+                        }
+                        complete(status, this.response, copied);
+                    }
+                }
+            };
+        }
+
+        /**
+         * leader 被取消 或者没有经过 leaderCall 就结束了 (例如外层拦截器直接 close)，已经完成时忽略
+         */
+        void cancel() {
+            complete(Status.UNAVAILABLE.withDescription("Coalesced request cancelled, retry"), null, new Metadata());
+        }
+
+        /**
+         * leader 进入业务代码之前失败
+         */
+        void fail(Throwable e) {
+            complete(Status.fromThrowable(e), null, new Metadata());
+        }
+
+        int getWaiters() {
+            synchronized (this) {
+                return this.waiters.size();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Status status, Object response, Metadata trailers) {
+            final List<ServerCall<?, ?>> waiters;
+            synchronized (this) {
+                if (this.done) {
+                    return;
+                }
+                this.done = true;
+                waiters = this.waiters;
+            }
+            flights.remove(this.key, this);
+            for (ServerCall<?, ?> waiter : waiters) {
+                try {
+                    if (status.isOk() && response != null) {
+                        final var call = (ServerCall<?, Object>) waiter;
+                        call.sendHeaders(new Metadata());
+                        call.sendMessage(response);
+                        call.close(Status.OK, new Metadata());
+                    } else {
+                        waiter.close(status, Trailers.copyOf(trailers));
+                    }
+                } catch (RuntimeException e) {
+                    // 等待的 call 可能已经被取消 不影响其它的 call
+                    log.debug("GRPC coalesced call {} complete failed", waiter.getMethodDescriptor().getFullMethodName(), e);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Listener<RespT> {
+
+        /**
+         * leader 成功返回之后 在通知等待的 call 之前调用
+         */
+        void onResponse(RespT response);
+
+    }
+
+}
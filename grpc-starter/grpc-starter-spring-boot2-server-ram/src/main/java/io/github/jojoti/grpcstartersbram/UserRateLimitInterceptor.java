@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.github.jojoti.grpcstartersb.GRpcScope;
+import io.github.jojoti.grpcstartersb.ScopeServerInterceptor;
+import io.github.jojoti.grpcstartersb.TokenBucket;
+import io.github.jojoti.grpcstartersb.TokenBuckets;
+import io.github.jojoti.grpcstartersb.Trailers;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按登录用户的令牌桶限流 配置为 rateLimit.perUser
+ * <p>
+ * 在 session 之后 ram 之前执行，匿名用户只受 perIp 限制
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+class UserRateLimitInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // reload 时整体替换 没有开启的 scope 为 null
+    private volatile TokenBuckets<Long> perUser;
+
+    UserRateLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var perUser = this.perUser;
+        final var user = SessionInterceptor.USER_NTS.get();
+        if (perUser == null || user == null || user.isAnonymous()) {
+            return next.startCall(call, headers);
+        }
+        final var retryNanos = perUser.tryAcquire(user.getUid());
+        if (retryNanos > 0) {
+            // 重试时间向上取整到毫秒
+            final var e = Trailers.newResourceExhausted("Rate limit per user exceeded", TimeUnit.NANOSECONDS.toMillis(retryNanos + 999_999));
+            call.close(e.getStatus(), e.getTrailers());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        return next.startCall(call, headers);
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        if (this.gRpcServerProperties.getServers() == null) {
+            return found;
+        }
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            final var config = entry.getValue().getRateLimit();
+            if (config.isEnabled() && config.getPerUser().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> servicesEvent) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getRateLimit();
+        if (!config.isEnabled() || !config.getPerUser().isEnabled()) {
+            this.perUser = null;
+            return;
+        }
+        this.perUser = new TokenBuckets<>(new TokenBucket.Rate(config.getPerUser().getPermitsPerSecond(), config.getPerUser().getBurst()),
+                config.getMaxEntries(), config.getIdleMills());
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersbram;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.StringValue;
+import io.github.jojoti.grpcstartersb.GRpcScope;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 匿名会话不能访问 @RAM 标注的 method，登录之后由 RAMAccessInterceptor 决定
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcScope
+public class RAMInterceptorTest {
+
+    private static final String SERVICE_NAME = "test.Secured";
+    private static final Metadata.Key<String> TOKEN = Metadata.Key.of("x-token", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final MethodDescriptor<StringValue, StringValue> SECURED = newMethod("secured");
+    private static final MethodDescriptor<StringValue, StringValue> OPEN = newMethod("open");
+
+    private final AtomicInteger handled = new AtomicInteger();
+    private Server server;
+    private ManagedChannel channel;
+
+    private static MethodDescriptor<StringValue, StringValue> newMethod(String methodName) {
+        return MethodDescriptor.<StringValue, StringValue>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, methodName))
+                .setRequestMarshaller(ProtoUtils.marshaller(StringValue.getDefaultInstance()))
+                .setResponseMarshaller(ProtoUtils.marshaller(StringValue.getDefaultInstance()))
+                .build();
+    }
+
+    @BeforeEach
+    public void start() throws Exception {
+        final var ramItem = new GRpcRAMProperties.RAMItem();
+        ramItem.getRam().setEnabled(true);
+        final var properties = new GRpcRAMProperties();
+        properties.setServers(Map.of("default", ramItem));
+
+        final var service = new SecuredService();
+        final var ram = new RAMInterceptor(new UidAccess(), properties);
+        ram.aware(RAMInterceptorTest.class.getAnnotation(GRpcScope.class), ImmutableList.of(service));
+
+        final var name = InProcessServerBuilder.generateName();
+        this.server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(ServerInterceptors.interceptForward(service, new TokenSession(), ram))
+                .build()
+                .start();
+        this.channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private StringValue call(MethodDescriptor<StringValue, StringValue> method, String token) {
+        final var headers = new Metadata();
+        headers.put(TOKEN, token);
+        final var intercepted = ClientInterceptors.intercept(this.channel, MetadataUtils.newAttachHeadersInterceptor(headers));
+        return ClientCalls.blockingUnaryCall(intercepted, method, CallOptions.DEFAULT, StringValue.of("hello"));
+    }
+
+    @Test
+    public void testAnonymousRejected() throws Exception {
+        final var e = assertThrows(StatusRuntimeException.class, () -> call(SECURED, "anonymous"));
+        assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+        assertEquals(0, this.handled.get());
+    }
+
+    @Test
+    public void testLoginPassed() throws Exception {
+        assertEquals("hello", call(SECURED, "1").getValue());
+        assertEquals(1, this.handled.get());
+    }
+
+    @Test
+    public void testLoginPermissionDenied() throws Exception {
+        final var e = assertThrows(StatusRuntimeException.class, () -> call(SECURED, "2"));
+        assertEquals(Status.Code.PERMISSION_DENIED, e.getStatus().getCode());
+        assertEquals(0, this.handled.get());
+    }
+
+    @Test
+    public void testAllowAnonymous() throws Exception {
+        assertEquals("hello", call(OPEN, "anonymous").getValue());
+        assertEquals(1, this.handled.get());
+    }
+
+    /**
+     * ServiceDescriptorAnnotations 按 java 方法名查找注解 pb 方法名与 java 方法名相同
+     */
+    private final class SecuredService implements BindableService {
+
+        @RAM(groupId = 1)
+        public void secured(StringValue request, StreamObserver<StringValue> responseObserver) {
+            handled.incrementAndGet();
+            responseObserver.onNext(request);
+            responseObserver.onCompleted();
+        }
+
+        @RAMAllowAnonymous
+        public void open(StringValue request, StreamObserver<StringValue> responseObserver) {
+            handled.incrementAndGet();
+            responseObserver.onNext(request);
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public ServerServiceDefinition bindService() {
+            return ServerServiceDefinition.builder(SERVICE_NAME)
+                    .addMethod(SECURED, ServerCalls.asyncUnaryCall(this::secured))
+                    .addMethod(OPEN, ServerCalls.asyncUnaryCall(this::open))
+                    .build();
+        }
+    }
+
+    /**
+     * 代替 SessionInterceptor: token 为 anonymous 时是匿名会话，否则 token 就是 uid
+     */
+    private static final class TokenSession implements ServerInterceptor {
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            final var token = headers.get(TOKEN);
+            final var user = mock(SessionUser.class);
+            if ("anonymous".equals(token)) {
+                when(user.isAnonymous()).thenReturn(true);
+            } else {
+                when(user.isAnonymous()).thenReturn(false);
+                when(user.getUid()).thenReturn(Long.parseLong(token));
+            }
+            return Contexts.interceptCall(Context.current().withValue(SessionInterceptor.USER_NTS, user), call, headers, next);
+        }
+    }
+
+    /**
+     * 只有 uid 1 有权限
+     */
+    private static final class UidAccess implements RAMAccessInterceptor {
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> checkAccess(GRpcScope gRpcScope, RAM ram, ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            if (SessionInterceptor.USER_NTS.get().getUid() == 1) {
+                return next.startCall(call, headers);
+            }
+            return null;
+        }
+    }
+
+}
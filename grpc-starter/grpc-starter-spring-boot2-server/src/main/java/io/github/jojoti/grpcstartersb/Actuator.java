@@ -16,6 +16,267 @@
 
 package io.github.jojoti.grpcstartersb;
 
-// fixme : 这里待定，后面有时间实现 整合 spring boot 健康检查
-public class Actuator {
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.protobuf.services.HealthStatusManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个 scope 的 liveness/readiness 状态，同时同步到 grpc HealthStatusManager 和 spring boot actuator
+ * <p>
+ * liveness: server 已经启动并且没有终止
+ * readiness: 已经启动，没有进入 drain，进行中请求数和业务线程池排队数都没有超过阈值
+ * <p>
+ * 进行中的请求数在传输层通过 ServerStreamTracer 统计，不依赖拦截器链
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class Actuator {
+
+    private static final Logger log = LoggerFactory.getLogger(Actuator.class);
+
+    private volatile ImmutableMap<String, ScopeHealth> scopes = ImmutableMap.of();
+    private ScheduledExecutorService scheduler;
+
+    Actuator() {
+    }
+
+    /**
+     * 创建 server builder 时调用，返回的 tracer 需要挂到 builder 上，调用 register 或者 replace 之后才对外可见
+     */
+    ScopeHealth newScopeHealth(String scopeName, GRpcServerProperties.HealthStatus config,
+                               HealthStatusManager health, ExecutorService executor) {
+        if (health != null) {
+            // 所有 scope 启动之前不接收流量
+            health.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, HealthCheckResponse.ServingStatus.NOT_SERVING);
+        }
+        return new ScopeHealth(scopeName, config, health, executor);
+    }
+
+    synchronized void register(ScopeHealth scopeHealth) {
+        this.scopes = put(scopeHealth);
+    }
+
+    /**
+     * 所有 scope 启动成功之后调用 配置了阈值的 scope 开始定时检查背压
+     */
+    synchronized void started(ImmutableMap<String, Server> servers) {
+        for (var scope : this.scopes.values()) {
+            final var server = servers.get(scope.scopeName);
+            if (server != null) {
+                serving(scope, server);
+            }
+        }
+    }
+
+    /**
+     * reload 之后新 server 开始接收流量，旧 server 切换为 NOT_SERVING 并且不再恢复
+     */
+    synchronized void replace(ScopeHealth scopeHealth, Server server) {
+        final var previous = this.scopes.get(scopeHealth.scopeName);
+        this.scopes = put(scopeHealth);
+        serving(scopeHealth, server);
+        if (previous != null) {
+            if (previous.checkTask != null) {
+                previous.checkTask.cancel(false);
+            }
+            previous.draining = true;
+            previous.updateReady(false);
+            if (previous.health != null) {
+                previous.health.enterTerminalState();
+            }
+        }
+    }
+
+    private void serving(ScopeHealth scope, Server server) {
+        final var names = ImmutableList.<String>builder();
+        for (ServerServiceDefinition service : server.getServices()) {
+            names.add(service.getServiceDescriptor().getName());
+        }
+        scope.serviceNames = names.build();
+        scope.server = server;
+        scope.updateReady(true);
+        if (scope.config.getMaxInFlight() <= 0 && scope.config.getMaxQueueDepth() <= 0) {
+            return;
+        }
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("grpc-actuator-%d").setDaemon(true).build());
+        }
+        scope.checkTask = this.scheduler.scheduleWithFixedDelay(scope::check, scope.config.getCheckIntervalMills(),
+                scope.config.getCheckIntervalMills(), TimeUnit.MILLISECONDS);
+    }
+
+    private ImmutableMap<String, ScopeHealth> put(ScopeHealth scopeHealth) {
+        final var builder = ImmutableMap.<String, ScopeHealth>builder();
+        for (var entry : this.scopes.entrySet()) {
+            if (!entry.getKey().equals(scopeHealth.scopeName)) {
+                builder.put(entry);
+            }
+        }
+        return builder.put(scopeHealth.scopeName, scopeHealth).build();
+    }
+
+    /**
+     * 所有 scope 切换为 NOT_SERVING 并且不再恢复
+     *
+     * @return 需要等待的最长 drain 时间
+     */
+    synchronized long drain() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        long drainMills = 0;
+        for (var scope : this.scopes.values()) {
+            scope.draining = true;
+            scope.updateReady(false);
+            if (scope.health != null) {
+                // 之后的 setStatus/clearStatus 都会被忽略
+                scope.health.enterTerminalState();
+            }
+            drainMills = Math.max(drainMills, scope.config.getDrainMills());
+        }
+        return drainMills;
+    }
+
+    synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        this.scopes = ImmutableMap.of();
+    }
+
+    /**
+     * @return 未启动或者已经停止时为空
+     */
+    public ImmutableMap<String, ScopeHealth> getScopes() {
+        return scopes;
+    }
+
+    public static final class ScopeHealth {
+        private final String scopeName;
+        private final GRpcServerProperties.HealthStatus config;
+        private final HealthStatusManager health;
+        private final ExecutorService executor;
+        private final AtomicLong inFlight = new AtomicLong();
+        private final ServerStreamTracer.Factory tracerFactory;
+
+        private volatile Server server;
+        private volatile boolean ready;
+        private volatile boolean draining;
+        private volatile ImmutableList<String> serviceNames = ImmutableList.of();
+        private ScheduledFuture<?> checkTask;
+
+        private ScopeHealth(String scopeName, GRpcServerProperties.HealthStatus config, HealthStatusManager health, ExecutorService executor) {
+            this.scopeName = scopeName;
+            this.config = config;
+            this.health = health;
+            this.executor = executor;
+            // 没有配置阈值时不统计 避免每个 stream 额外创建 tracer
+            this.tracerFactory = config.getMaxInFlight() <= 0 && config.getMaxQueueDepth() <= 0 ? null : new ServerStreamTracer.Factory() {
+                @Override
+                public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+                    inFlight.incrementAndGet();
+                    return new ServerStreamTracer() {
+                        @Override
+                        public void streamClosed(Status status) {
+                            // 每个 stream 只会调用一次
+                            inFlight.decrementAndGet();
+                        }
+                    };
+                }
+            };
+        }
+
+        /**
+         * @return maxInFlight/maxQueueDepth 都没有配置时为 null
+         */
+        ServerStreamTracer.Factory getTracerFactory() {
+            return tracerFactory;
+        }
+
+        public String getScopeName() {
+            return scopeName;
+        }
+
+        public boolean isLive() {
+            final var current = this.server;
+            return current != null && !current.isShutdown();
+        }
+
+        public boolean isReady() {
+            return ready && isLive();
+        }
+
+        public boolean isDraining() {
+            return draining;
+        }
+
+        /**
+         * maxInFlight/maxQueueDepth 都没有配置时不统计 返回 0
+         */
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * default/direct 线程池无法统计 返回 0
+         */
+        public long getQueueDepth() {
+            if (this.executor instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) this.executor).getQueue().size();
+            }
+            if (this.executor instanceof ForkJoinPool) {
+                return ((ForkJoinPool) this.executor).getQueuedSubmissionCount();
+            }
+            if (this.executor instanceof ScopeScheduler.Lane) {
+                return ((ScopeScheduler.Lane) this.executor).getQueueDepth();
+            }
+            return 0;
+        }
+
+        private void check() {
+            if (this.draining) {
+                return;
+            }
+            try {
+                final var inFlight = getInFlight();
+                final var queueDepth = getQueueDepth();
+                final var overloaded = (this.config.getMaxInFlight() > 0 && inFlight > this.config.getMaxInFlight())
+                        || (this.config.getMaxQueueDepth() > 0 && queueDepth > this.config.getMaxQueueDepth());
+                if (overloaded == this.ready) {
+                    log.warn("GRPC scope {} readiness {}, inFlight {} queueDepth {}", this.scopeName,
+                            overloaded ? "NOT_SERVING" : "SERVING", inFlight, queueDepth);
+                    updateReady(!overloaded);
+                }
+            } catch (RuntimeException e) {
+                // 异常会导致定时任务不再执行
+                log.error("GRPC scope {} health check error", this.scopeName, e);
+            }
+        }
+
+        private void updateReady(boolean ready) {
+            this.ready = ready;
+            if (this.health == null) {
+                return;
+            }
+            final var status = ready ? HealthCheckResponse.ServingStatus.SERVING : HealthCheckResponse.ServingStatus.NOT_SERVING;
+            this.health.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, status);
+            for (String serviceName : this.serviceNames) {
+                this.health.setStatus(serviceName, status);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应并发限制
+ * <p>
+ * aimd: 请求正常并且并发已经用到一半以上时 limit +1，超时或者下游过载时按 backoffRatio 缩小
+ * gradient: 维护长期平均延迟，当前延迟升高时按 长期/当前 的比值缩小 limit，并预留 sqrt(limit) 的排队空间用于探测
+ * <p>
+ * 获取许可是无锁的，只有请求结束更新 limit 时加锁
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ConcurrencyLimiter {
+
+    // 长期平均延迟的窗口 约等于最近 600 个请求
+    private static final double LONG_RTT_WINDOW = 600;
+    // 新的 limit 每次只生效 20% 避免抖动
+    private static final double SMOOTHING = 0.2;
+
+    private final GRpcServerProperties.ConcurrencyLimitConfig config;
+    private final long timeoutNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // 以下只在 onSample 中访问
+    private double estimatedLimit;
+    private double longRttNanos;
+
+    ConcurrencyLimiter(GRpcServerProperties.ConcurrencyLimitConfig config) {
+        this.config = config;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMills());
+        this.estimatedLimit = config.getInitialLimit();
+        this.limit = config.getInitialLimit();
+    }
+
+    boolean tryAcquire() {
+        for (; ; ) {
+            final var current = this.inFlight.get();
+            if (current >= this.limit) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 客户端取消等无法反映服务端负载的请求 只归还许可不参与计算
+     */
+    void release() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * @param dropped 请求超时或者下游过载
+     */
+    void release(long rttNanos, boolean dropped) {
+        final var current = this.inFlight.getAndDecrement();
+        onSample(rttNanos, current, dropped);
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        switch (this.config.getAlgorithm()) {
+            case AIMD:
+                if (dropped || rttNanos > this.timeoutNanos) {
+                    this.estimatedLimit = this.estimatedLimit * this.config.getBackoffRatio();
+                } else if (inFlight * 2 >= this.estimatedLimit) {
+                    // 并发没有用到一半 说明是请求量不足 不是容量足够 不增加
+                    this.estimatedLimit = this.estimatedLimit + 1;
+                }
+                break;
+            case GRADIENT:
+                if (dropped) {
+                    this.estimatedLimit = this.estimatedLimit * this.config.getBackoffRatio();
+                    break;
+                }
+                final var rtt = Math.max(1, rttNanos);
+                if (this.longRttNanos == 0) {
+                    this.longRttNanos = rtt;
+                } else {
+                    this.longRttNanos = this.longRttNanos + (rtt - this.longRttNanos) / LONG_RTT_WINDOW;
+                }
+                // 延迟已经恢复 长期平均值快速回落 否则 limit 会长时间偏高
+                if (this.longRttNanos / rtt > 2) {
+                    this.longRttNanos = this.longRttNanos * 0.95;
+                }
+                if (inFlight * 2 < this.estimatedLimit) {
+                    break;
+                }
+                final var gradient = Math.max(0.5, Math.min(1.0, this.config.getRttTolerance() * this.longRttNanos / rtt));
+                final var newLimit = this.estimatedLimit * gradient + Math.sqrt(this.estimatedLimit);
+                this.estimatedLimit = this.estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+                break;
+            default:
+                throw new IllegalArgumentException("Limit algorithm " + this.config.getAlgorithm() + " unsupported");
+        }
+        this.estimatedLimit = Math.max(this.config.getMinLimit(), Math.min(this.config.getMaxLimit(), this.estimatedLimit));
+        this.limit = (int) this.estimatedLimit;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过本机 agent 把 scope 注册到 consul，并注册 grpc health 检查
+ * <p>
+ * 健康状态由 agent 检查 scope 的 HealthStatusManager，drain/背压时 NOT_SERVING 的实例会被 client 过滤掉
+ * agent 不可用时不影响 server 启动，后台按 checkIntervalMills 重试直到注册成功
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ConsulScopeRegistration implements ScopeRegistration {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsulScopeRegistration.class);
+
+    private final String scopeName;
+    private final String id;
+    private final String service;
+    private final HostAndPort address;
+    private final DiscoveryConfig.Consul config;
+    private final ConsulClient client;
+    private final ScheduledThreadPoolExecutor registerExecutor;
+
+    // 只在 registerExecutor 里访问
+    private boolean registered;
+
+    ConsulScopeRegistration(String scopeName, DiscoveryConfig.Consul config, String address) {
+        this.scopeName = scopeName;
+        this.service = config.getService() != null && !config.getService().isEmpty() ? config.getService() : scopeName;
+        this.id = this.service + "-" + address;
+        this.address = HostAndPort.fromString(address);
+        this.config = config;
+        this.client = new ConsulClient(config.getAgent(), config.getTimeoutMills());
+        this.registerExecutor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("grpc-consul-" + scopeName + "-%d").setDaemon(true).build());
+        // 注销时丢弃还没有执行的重试
+        this.registerExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    void start() {
+        this.registerExecutor.execute(this::register);
+    }
+
+    private void register() {
+        try {
+            this.client.register(this.id, this.service, this.address.getHost(), this.address.getPort(),
+                    this.config.getCheckIntervalMills(), this.config.getDeregisterCriticalAfterMills());
+            // agent 会持久化 注册成功之后不需要续约
+            this.registered = true;
+            log.info("GRPC Server {} registered to consul {} as {}", this.scopeName, this.service, this.id);
+        } catch (IOException | RuntimeException e) {
+            log.warn("GRPC Server {} consul register failed, retry in {}ms", this.scopeName, this.config.getCheckIntervalMills(), e);
+            if (!this.registerExecutor.isShutdown()) {
+                this.registerExecutor.schedule(this::register, this.config.getCheckIntervalMills(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void deregister() {
+        // 不中断进行中的注册 请求可能已经到达 agent，等它结束之后 registered 才是准确的
+        this.registerExecutor.shutdown();
+        try {
+            this.registerExecutor.awaitTermination(this.config.getTimeoutMills(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!this.registered) {
+            return;
+        }
+        try {
+            this.client.deregister(this.id);
+            log.info("GRPC Server {} deregistered from consul {}", this.scopeName, this.id);
+        } catch (IOException | RuntimeException e) {
+            // 持续 critical 之后 agent 会自动注销
+            log.warn("GRPC Server {} consul deregister failed", this.scopeName, e);
+        }
+    }
+
+}
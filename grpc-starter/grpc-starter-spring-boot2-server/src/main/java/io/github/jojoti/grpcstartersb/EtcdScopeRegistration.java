@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 把 scope 注册到 etcd: key {prefix}/{service}/{host:port}，value 为 DiscoveryEndpoint
+ * <p>
+ * key 绑定 lease，每 ttl/3 续约一次，进程异常退出时 ttl 之后自动删除
+ * 续约时同步 scope 的 readiness，drain/背压时 healthy 为 false，client 会摘掉这个实例
+ * etcd 不可用时不影响 server 启动，后台一直重试，lease 过期之后重新注册
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class EtcdScopeRegistration implements ScopeRegistration {
+
+    private static final Logger log = LoggerFactory.getLogger(EtcdScopeRegistration.class);
+
+    private final String scopeName;
+    private final String key;
+    private final String address;
+    private final int ttlSeconds;
+    private final BooleanSupplier ready;
+    private final EtcdClient client;
+    private final ScheduledExecutorService keepAliveExecutor;
+
+    // 以下字段只在 keepAliveExecutor 里访问 0 表示还没有注册成功
+    private long leaseId;
+    private Boolean registeredHealthy;
+
+    EtcdScopeRegistration(String scopeName, DiscoveryConfig.Etcd config, String address, BooleanSupplier ready) {
+        this.scopeName = scopeName;
+        final var service = config.getService() != null && !config.getService().isEmpty() ? config.getService() : scopeName;
+        this.key = config.getServicePrefix(service) + address;
+        this.address = address;
+        this.ttlSeconds = config.getTtlSeconds();
+        this.ready = ready;
+        this.client = new EtcdClient(config.getEndpoints(), config.getTimeoutMills());
+        this.keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("grpc-etcd-" + scopeName + "-%d").setDaemon(true).build());
+    }
+
+    void start() {
+        final var intervalMills = Math.max(TimeUnit.SECONDS.toMillis(this.ttlSeconds) / 3, 1);
+        this.keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive, 0, intervalMills, TimeUnit.MILLISECONDS);
+    }
+
+    private void keepAlive() {
+        try {
+            if (this.leaseId != 0 && this.client.keepAlive(this.leaseId) <= 0) {
+                log.warn("GRPC Server {} etcd lease {} expired, register again", this.scopeName, this.leaseId);
+                this.leaseId = 0;
+            }
+            if (this.leaseId == 0) {
+                this.leaseId = this.client.grantLease(this.ttlSeconds);
+                this.registeredHealthy = null;
+            }
+            final var healthy = this.ready.getAsBoolean();
+            if (this.registeredHealthy == null || this.registeredHealthy != healthy) {
+                this.client.put(this.key, new DiscoveryEndpoint(this.scopeName, this.address, healthy).toJson(), this.leaseId);
+                this.registeredHealthy = healthy;
+                log.info("GRPC Server {} registered to etcd {}, healthy {}", this.scopeName, this.key, healthy);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("GRPC Server {} etcd keepalive failed", this.scopeName, e);
+        }
+    }
+
+    @Override
+    public void deregister() {
+        this.keepAliveExecutor.shutdownNow();
+        try {
+            this.keepAliveExecutor.awaitTermination(this.ttlSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.leaseId == 0) {
+            return;
+        }
+        try {
+            // 删除 lease 绑定的 key
+            this.client.revoke(this.leaseId);
+            log.info("GRPC Server {} deregistered from etcd {}", this.scopeName, this.key);
+        } catch (IOException | RuntimeException e) {
+            // ttl 之后 etcd 会自动删除
+            log.warn("GRPC Server {} etcd deregister failed", this.scopeName, e);
+        }
+    }
+
+}
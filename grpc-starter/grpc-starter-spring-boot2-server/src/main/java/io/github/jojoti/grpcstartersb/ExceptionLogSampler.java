@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.Maps;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按异常类型限流的堆栈日志
+ * <p>
+ * 故障时同一种异常每秒可能出现上万次，全部打印堆栈时日志本身会成为瓶颈
+ * 每个窗口最多打印 maxStackTraces 次，其余的只计数
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ExceptionLogSampler {
+
+    private static final Logger log = LoggerFactory.getLogger(GlobalExceptionInterceptor.class);
+
+    private final long intervalNanos;
+    private final int maxStackTraces;
+    // 异常类型是有限的 不需要淘汰
+    private final ConcurrentMap<Class<?>, Window> windows = Maps.newConcurrentMap();
+
+    ExceptionLogSampler(GRpcServerProperties.ExceptionLogConfig config) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getIntervalMills());
+        this.maxStackTraces = config.getMaxStackTraces();
+    }
+
+    void log(String fullMethodName, Throwable e) {
+        var window = this.windows.get(e.getClass());
+        if (window == null) {
+            window = this.windows.computeIfAbsent(e.getClass(), k -> new Window());
+        }
+        if (!window.tryAcquire(System.nanoTime())) {
+            window.suppressed.increment();
+            return;
+        }
+        final var suppressed = window.suppressed.sumThenReset();
+        if (suppressed > 0) {
+            log.error("GRPC {} failed, {} similar exceptions suppressed", fullMethodName, suppressed, e);
+        } else {
+            log.error("GRPC {} failed", fullMethodName, e);
+        }
+    }
+
+    private final class Window {
+        private final AtomicLong start = new AtomicLong(System.nanoTime());
+        private final AtomicInteger count = new AtomicInteger();
+        private final LongAdder suppressed = new LongAdder();
+
+        boolean tryAcquire(long now) {
+            final var current = this.start.get();
+            if (now - current >= intervalNanos && this.start.compareAndSet(current, now)) {
+                this.count.set(0);
+            }
+            // 超过之后只读 不再写共享变量
+            if (this.count.get() >= maxStackTraces) {
+                return false;
+            }
+            return this.count.incrementAndGet() <= maxStackTraces;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.protobuf.MessageLite;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.util.List;
+
+/**
+ * 每个 scope 每个 method 的响应压缩策略
+ * <p>
+ * 策略在 aware 时按 method 预先计算好，请求时只查找一次 method 并匹配一次 grpc-accept-encoding
+ * 小于 minMessageSize 的消息通过 setMessageCompression 跳过压缩，消息大小使用 protobuf memoized size 不会重复计算
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcCompressionInterceptor implements ScopeServerInterceptor {
+
+    // 客户端支持的压缩算法 逗号分隔
+    private static final Metadata.Key<String> ACCEPT_ENCODING_KEY = Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // MethodDescriptor 没有重写 hashCode 这里是 identity 查找 关闭压缩的 method 不在这里
+    private volatile ImmutableMap<MethodDescriptor<?, ?>, MethodPolicy> methods = ImmutableMap.of();
+
+    public GRpcCompressionInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var policy = this.methods.get(call.getMethodDescriptor());
+        if (policy == null) {
+            return next.startCall(call, headers);
+        }
+        final var codec = policy.select(headers.get(ACCEPT_ENCODING_KEY));
+        if (codec == null) {
+            // 客户端不支持 保持不压缩
+            return next.startCall(call, headers);
+        }
+        call.setCompression(codec);
+        if (policy.minMessageSize == 0) {
+            return next.startCall(call, headers);
+        }
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                if (message instanceof MessageLite) {
+                    // 序列化时会复用 memoized size
+                    super.setMessageCompression(((MessageLite) message).getSerializedSize() >= policy.minMessageSize);
+                }
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getCompression().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getCompression();
+        // 与 ram 模块一致 method 上的注解按 pb 方法名查找
+        final var methodAnnotations = ServiceDescriptorAnnotations.getAnnotationMaps(scopes, GRpcCompression.class, false);
+        final var builder = ImmutableMap.<MethodDescriptor<?, ?>, MethodPolicy>builder();
+        for (BindableService service : scopes) {
+            final var serviceAnnotation = AnnotationUtils.findAnnotation(service.getClass(), GRpcCompression.class);
+            for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                final var methodAnnotation = methodAnnotations.get(method.getMethodDescriptor());
+                final var found = methodAnnotation != null ? methodAnnotation : serviceAnnotation;
+                final var policy = newMethodPolicy(currentGRpcScope, method.getMethodDescriptor(), config, found);
+                if (policy != null) {
+                    builder.put(method.getMethodDescriptor(), policy);
+                }
+            }
+        }
+        this.methods = builder.build();
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MethodPolicy newMethodPolicy(GRpcScope scope, MethodDescriptor<?, ?> method, GRpcServerProperties.CompressionConfig config, GRpcCompression annotation) {
+        if (annotation == null) {
+            return new MethodPolicy(ImmutableList.copyOf(config.getCodecs()), config.getMinMessageSize());
+        }
+        if (annotation.disable()) {
+            return null;
+        }
+        final var codecs = annotation.codec().isEmpty() ? ImmutableList.copyOf(config.getCodecs()) : ImmutableList.of(annotation.codec());
+        Preconditions.checkArgument(config.getCodecs().containsAll(codecs),
+                "Scope " + scope.value() + " method " + method.getFullMethodName() + " codec " + annotation.codec() + " is not in scope codecs " + config.getCodecs());
+        return new MethodPolicy(codecs, annotation.minMessageSize() >= 0 ? annotation.minMessageSize() : config.getMinMessageSize());
+    }
+
+    private static final class MethodPolicy {
+        // 按优先级排列
+        private final ImmutableList<String> codecs;
+        private final int minMessageSize;
+
+        MethodPolicy(ImmutableList<String> codecs, int minMessageSize) {
+            this.codecs = codecs;
+            this.minMessageSize = minMessageSize;
+        }
+
+        String select(String acceptEncoding) {
+            if (acceptEncoding == null) {
+                return null;
+            }
+            for (String codec : this.codecs) {
+                if (accepts(acceptEncoding, codec)) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 不 split 避免每个请求都分配数组
+         */
+        private static boolean accepts(String acceptEncoding, String codec) {
+            var from = 0;
+            while (from <= acceptEncoding.length()) {
+                var end = acceptEncoding.indexOf(',', from);
+                if (end < 0) {
+                    end = acceptEncoding.length();
+                }
+                var begin = from;
+                while (begin < end && acceptEncoding.charAt(begin) == ' ') {
+                    begin++;
+                }
+                var last = end;
+                while (last > begin && acceptEncoding.charAt(last - 1) == ' ') {
+                    last--;
+                }
+                if (last - begin == codec.length() && acceptEncoding.regionMatches(begin, codec, 0, codec.length())) {
+                    return true;
+                }
+                from = end + 1;
+            }
+            return false;
+        }
+    }
+
+}
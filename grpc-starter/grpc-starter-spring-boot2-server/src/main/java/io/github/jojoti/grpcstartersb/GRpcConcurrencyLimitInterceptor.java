@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 每个 scope 或者每个 method 的自适应并发限制
+ * <p>
+ * 超过 limit 的请求不进入业务线程池，直接返回 RESOURCE_EXHAUSTED，并通过 trailer 带上重试时间
+ * 流量突增时排队长度有上限，尾延迟不会无限增长
+ * 只限制 unary，stream 的持续时间不是 rtt 也不应该长期占用许可，不经过 limiter
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcConcurrencyLimitInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // reload 时会重新 aware 进行中的请求继续使用之前的 limiter
+    private volatile GRpcServerProperties.ConcurrencyLimitConfig config;
+    // perMethod=false 时使用
+    private volatile ConcurrencyLimiter scopeLimiter;
+    // MethodDescriptor 没有重写 hashCode 这里是 identity 查找
+    private volatile ImmutableMap<MethodDescriptor<?, ?>, ConcurrencyLimiter> methodLimiters = ImmutableMap.of();
+
+    public GRpcConcurrencyLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        final var scopeLimiter = this.scopeLimiter;
+        final var limiter = scopeLimiter != null ? scopeLimiter : this.methodLimiters.get(call.getMethodDescriptor());
+        if (limiter == null) {
+            return next.startCall(call, headers);
+        }
+        if (!limiter.tryAcquire()) {
+            final var e = Trailers.newResourceExhausted("Concurrency limit " + limiter.getLimit() + " exceeded", this.config.getRetryAfterMills());
+            call.close(e.getStatus(), e.getTrailers());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        final var startNanos = System.nanoTime();
+        final var released = new AtomicBoolean();
+        final ServerCall.Listener<ReqT> delegate;
+        try {
+            delegate = next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.release(System.nanoTime() - startNanos, isDropped(status.getCode()));
+                    }
+                    super.close(status, trailers);
+                }
+            }, headers);
+        } catch (RuntimeException e) {
+            if (released.compareAndSet(false, true)) {
+                limiter.release();
+            }
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(delegate) {
+            @Override
+            public void onCancel() {
+                // 客户端取消 服务端可能不会再调用 close
+                if (released.compareAndSet(false, true)) {
+                    limiter.release();
+                }
+                super.onCancel();
+            }
+        };
+    }
+
+    private static boolean isDropped(Status.Code code) {
+        return code == Status.Code.DEADLINE_EXCEEDED || code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.UNAVAILABLE;
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getConcurrencyLimit().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getConcurrencyLimit();
+        this.config = config;
+        if (!config.isPerMethod()) {
+            this.scopeLimiter = new ConcurrencyLimiter(config);
+            this.methodLimiters = ImmutableMap.of();
+            return;
+        }
+        final var builder = ImmutableMap.<MethodDescriptor<?, ?>, ConcurrencyLimiter>builder();
+        for (BindableService service : scopes) {
+            for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                if (method.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+                    continue;
+                }
+                builder.put(method.getMethodDescriptor(), new ConcurrencyLimiter(config));
+            }
+        }
+        this.methodLimiters = builder.build();
+        this.scopeLimiter = null;
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
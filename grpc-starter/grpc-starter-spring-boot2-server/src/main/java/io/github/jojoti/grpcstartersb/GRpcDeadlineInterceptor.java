@@ -0,0 +1,328 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 服务端 deadline 以及取消传播
+ * <p>
+ * 客户端没有 deadline 时使用 defaultMills，超过 maxMills 的截断，到期之后取消 Context 并返回 DEADLINE_EXCEEDED
+ * 业务代码通过 Context.current().isCancelled() 或者传播 Context 的客户端感知取消，不再继续占用 DB/Redis
+ * <p>
+ * 同时统计 call 取消之后业务代码仍然在执行的次数和时间 (wasted)
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcDeadlineInterceptor implements ScopeServerInterceptor, AutoCloseable {
+
+    private final GRpcServerProperties gRpcServerProperties;
+    // clone 之后所有 scope 共用
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, ScopeDeadlineStats> stats;
+
+    private volatile GRpcServerProperties.DeadlineConfig config;
+    private volatile ScopeDeadlineStats scopeStats;
+
+    public GRpcDeadlineInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("grpc-deadline-%d").setDaemon(true).build());
+        this.stats = Maps.newConcurrentMap();
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var config = this.config;
+        final var stats = this.scopeStats;
+        if (config == null) {
+            return next.startCall(call, headers);
+        }
+        final var current = Context.current();
+        final var clientDeadline = current.getDeadline();
+        Deadline deadline = null;
+        if (clientDeadline == null) {
+            if (config.getDefaultMills() > 0) {
+                deadline = Deadline.after(config.getDefaultMills(), TimeUnit.MILLISECONDS);
+                stats.assigned();
+            }
+        } else if (config.getMaxMills() > 0 && clientDeadline.timeRemaining(TimeUnit.MILLISECONDS) > config.getMaxMills()) {
+            deadline = Deadline.after(config.getMaxMills(), TimeUnit.MILLISECONDS);
+            stats.capped();
+        }
+
+        if (deadline == null) {
+            // 客户端的 deadline 由 grpc 自己处理 这里只统计取消之后的 wasted
+            final var state = new DeadlineCall<>(call, stats, false);
+            current.addListener(state, MoreExecutors.directExecutor());
+            return new DeadlineListener<>(next.startCall(state, headers), current, null, state);
+        }
+
+        final var context = current.withDeadline(deadline, this.scheduler);
+        final var state = new DeadlineCall<>(call, stats, true);
+        context.addListener(state, MoreExecutors.directExecutor());
+        final var previous = context.attach();
+        try {
+            return new DeadlineListener<>(next.startCall(state, headers), context, context, state);
+        } catch (RuntimeException e) {
+            context.cancel(e);
+            throw e;
+        } finally {
+            context.detach(previous);
+        }
+    }
+
+    /**
+     * @return 没有开启 deadline 或者还没有启动的 scope 为 null
+     */
+    public ScopeDeadlineStats getStats(String scopeName) {
+        return this.stats.get(scopeName);
+    }
+
+    public ImmutableMap<String, ScopeDeadlineStats> getStats() {
+        return ImmutableMap.copyOf(this.stats);
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getDeadline().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getDeadline();
+        if (!config.isEnabled()) {
+            // @GRpcScopeGlobalInterceptor 声明在没有开启的 scope 上 或者 reload 之后关闭
+            this.config = null;
+            return;
+        }
+        // reload 之后统计继续累加
+        this.scopeStats = this.stats.computeIfAbsent(currentGRpcScope.value(), ScopeDeadlineStats::new);
+        this.config = config;
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 由 spring 在 bean 销毁时调用
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * deadline 到期时从 scheduler 线程关闭 call，ServerCall 不是线程安全的，发送和关闭都需要加锁
+     */
+    private static final class DeadlineCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>
+            implements Context.CancellationListener {
+
+        private final ScopeDeadlineStats stats;
+        // 只有服务端自己设置的 deadline 才需要主动关闭 call
+        private final boolean ownDeadline;
+
+        // 以下字段都在锁内访问
+        private long cancelledNanos;
+        private boolean closed;
+        private boolean wasted;
+        private long wastedMark;
+
+        DeadlineCall(ServerCall<ReqT, RespT> delegate, ScopeDeadlineStats stats, boolean ownDeadline) {
+            super(delegate);
+            this.stats = stats;
+            this.ownDeadline = ownDeadline;
+        }
+
+        @Override
+        public synchronized void cancelled(Context context) {
+            if (this.closed) {
+                // 正常结束之后 grpc 同样会取消 context
+                return;
+            }
+            this.cancelledNanos = System.nanoTime();
+            if (!this.ownDeadline || !(context.cancellationCause() instanceof TimeoutException)) {
+                // 客户端取消或者客户端 deadline 到期 传输层已经关闭
+                return;
+            }
+            this.closed = true;
+            this.stats.expired();
+            super.close(Status.DEADLINE_EXCEEDED.withDescription("Server deadline exceeded"), new Metadata());
+        }
+
+        @Override
+        public synchronized void sendHeaders(Metadata headers) {
+            checkWasted();
+            if (!this.closed) {
+                super.sendHeaders(headers);
+            }
+        }
+
+        @Override
+        public synchronized void sendMessage(RespT message) {
+            checkWasted();
+            // deadline 到期之后 业务代码的后续写入直接丢弃 不抛出 call already closed
+            if (!this.closed) {
+                super.sendMessage(message);
+            }
+        }
+
+        @Override
+        public synchronized void close(Status status, Metadata trailers) {
+            checkWasted();
+            if (!this.closed) {
+                this.closed = true;
+                super.close(status, trailers);
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return this.closed || super.isCancelled();
+        }
+
+        synchronized void checkWasted() {
+            final var cancelledNanos = this.cancelledNanos;
+            if (cancelledNanos == 0) {
+                return;
+            }
+            // 多次记录时只累加上次记录之后的时间
+            final var now = System.nanoTime();
+            final var from = Math.max(cancelledNanos, this.wastedMark);
+            this.stats.wasted(!this.wasted, Math.max(0, now - from));
+            this.wasted = true;
+            this.wastedMark = now;
+        }
+    }
+
+    /**
+     * 每个回调都在 deadline context 里执行，结束之后取消 context 释放 scheduler 里的定时任务
+     */
+    private static final class DeadlineListener<ReqT> extends ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+
+        private final Context listenOn;
+        // 没有设置服务端 deadline 时为 null 直接在 grpc 的 context 里执行
+        private final Context.CancellableContext context;
+        private final DeadlineCall<ReqT, ?> call;
+
+        DeadlineListener(ServerCall.Listener<ReqT> delegate, Context listenOn, Context.CancellableContext context, DeadlineCall<ReqT, ?> call) {
+            super(delegate);
+            this.listenOn = listenOn;
+            this.context = context;
+            this.call = call;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            final var previous = attach();
+            try {
+                super.onMessage(message);
+            } finally {
+                detach(previous);
+                this.call.checkWasted();
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            final var previous = attach();
+            try {
+                super.onHalfClose();
+            } finally {
+                detach(previous);
+                this.call.checkWasted();
+            }
+        }
+
+        @Override
+        public void onReady() {
+            final var previous = attach();
+            try {
+                super.onReady();
+            } finally {
+                detach(previous);
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            final var previous = attach();
+            try {
+                super.onCancel();
+            } finally {
+                detach(previous);
+                finish();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            final var previous = attach();
+            try {
+                super.onComplete();
+            } finally {
+                detach(previous);
+                finish();
+            }
+        }
+
+        private Context attach() {
+            return this.context == null ? null : this.context.attach();
+        }
+
+        private void detach(Context previous) {
+            if (this.context != null) {
+                this.context.detach(previous);
+            }
+        }
+
+        private void finish() {
+            this.listenOn.removeListener(this.call);
+            if (this.context != null) {
+                this.context.cancel(null);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * 开启了 deadline 的 scope
+ * grpc.server.deadline{scope, event=assigned/capped/expired} 以及取消之后仍然在执行的 grpc.server.cancelled.work{scope}
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcDeadlineMetrics implements MeterBinder {
+
+    private final GRpcDeadlineInterceptor grpcDeadlineInterceptor;
+    private final GRpcServerProperties gRpcServerProperties;
+
+    public GRpcDeadlineMetrics(GRpcDeadlineInterceptor grpcDeadlineInterceptor, GRpcServerProperties gRpcServerProperties) {
+        this.grpcDeadlineInterceptor = grpcDeadlineInterceptor;
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (this.gRpcServerProperties.getServers() == null) {
+            return;
+        }
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (!entry.getValue().getDeadline().isEnabled()) {
+                continue;
+            }
+            final var scopeName = entry.getKey();
+            register(registry, scopeName, "assigned", ScopeDeadlineStats::getAssigned);
+            register(registry, scopeName, "capped", ScopeDeadlineStats::getCapped);
+            register(registry, scopeName, "expired", ScopeDeadlineStats::getExpired);
+            FunctionTimer.builder("grpc.server.cancelled.work", this.grpcDeadlineInterceptor,
+                            interceptor -> get(interceptor, scopeName, ScopeDeadlineStats::getWastedCalls),
+                            interceptor -> get(interceptor, scopeName, ScopeDeadlineStats::getWastedNanos),
+                            TimeUnit.NANOSECONDS)
+                    .tag("scope", scopeName)
+                    .description("gRPC server work continued after the call was cancelled")
+                    .register(registry);
+        }
+    }
+
+    private void register(MeterRegistry registry, String scopeName, String event, ToLongFunction<ScopeDeadlineStats> getter) {
+        FunctionCounter.builder("grpc.server.deadline", this.grpcDeadlineInterceptor, interceptor -> get(interceptor, scopeName, getter))
+                .tag("scope", scopeName)
+                .tag("event", event)
+                .description("gRPC server deadlines assigned, capped and expired")
+                .register(registry);
+    }
+
+    private static long get(GRpcDeadlineInterceptor interceptor, String scopeName, ToLongFunction<ScopeDeadlineStats> getter) {
+        // 启动之前为 0
+        final var stats = interceptor.getStats(scopeName);
+        return stats == null ? 0 : getter.applyAsLong(stats);
+    }
+
+}
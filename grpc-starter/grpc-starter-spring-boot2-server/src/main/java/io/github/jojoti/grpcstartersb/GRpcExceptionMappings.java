@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import io.github.jojoti.utilguavaext.ErrorKey;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * 异常到 Status 的映射
+ * <p>
+ * 按异常类型注册，查找时沿父类向上找到最近的注册项，每个异常类型只查找一次之后缓存
+ * 固定 Status 和 ErrorKey 的映射在注册时就创建好 Status 与 trailers 模板，异常发生时只复制一次 trailers
+ * <p>
+ * 没有注册的异常返回 INTERNAL，不再把 exception message 拼接到 description，同时打印 (限流之后的) 堆栈
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class GRpcExceptionMappings {
+
+    // 业务代码主动返回的 status 原样透传 mapper 为 null 时使用异常自己的 status 和 trailers
+    private static final Mapping PASSTHROUGH = new Mapping(null, null, null, false);
+    private static final Mapping UNKNOWN = new Mapping(Status.INTERNAL.withDescription("Internal error"), null, null, true);
+
+    private final ImmutableMap<Class<?>, Mapping> registered;
+    private final ConcurrentMap<Class<?>, Mapping> resolved = Maps.newConcurrentMap();
+
+    private GRpcExceptionMappings(ImmutableMap<Class<?>, Mapping> registered) {
+        this.registered = registered;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    Mapping resolve(Class<? extends Throwable> type) {
+        // 命中时不进入 computeIfAbsent 的锁
+        final var found = this.resolved.get(type);
+        if (found != null) {
+            return found;
+        }
+        return this.resolved.computeIfAbsent(type, this::lookup);
+    }
+
+    private Mapping lookup(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            final var found = this.registered.get(current);
+            if (found != null) {
+                return found;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    static final class Mapping {
+        private final Status status;
+        private final Metadata template;
+        private final Function<Throwable, StatusException> mapper;
+        private final boolean logStackTrace;
+
+        private Mapping(Status status, Metadata template, Function<Throwable, StatusException> mapper, boolean logStackTrace) {
+            this.status = status;
+            this.template = template;
+            this.mapper = mapper;
+            this.logStackTrace = logStackTrace;
+        }
+
+        boolean isLogStackTrace() {
+            return logStackTrace;
+        }
+
+        void close(ServerCall<?, ?> call, Throwable e) {
+            if (this.status != null) {
+                call.close(this.status, this.template == null ? new Metadata() : Trailers.copyOf(this.template));
+                return;
+            }
+            final Status status;
+            final Metadata trailers;
+            if (this.mapper != null) {
+                final var mapped = this.mapper.apply(e);
+                status = mapped.getStatus();
+                trailers = mapped.getTrailers();
+            } else {
+                status = Status.fromThrowable(e);
+                trailers = Status.trailersFromThrowable(e);
+            }
+            call.close(status, trailers == null ? new Metadata() : trailers);
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<Class<?>, Mapping> mappings = Maps.newLinkedHashMap();
+
+        private Builder() {
+            this.mappings.put(StatusException.class, PASSTHROUGH);
+            this.mappings.put(StatusRuntimeException.class, PASSTHROUGH);
+        }
+
+        /**
+         * 固定的 status 例如 IllegalArgumentException -> INVALID_ARGUMENT
+         */
+        public <E extends Throwable> Builder map(Class<E> type, Status status) {
+            Preconditions.checkNotNull(status, "status must not be null");
+            return put(type, new Mapping(status, null, null, false));
+        }
+
+        /**
+         * 业务错误码 INTERNAL + x-err trailers
+         */
+        public <E extends Throwable, T extends Enum<T>> Builder map(Class<E> type, ErrorKey<T> error) {
+            return put(type, new Mapping(Status.INTERNAL, Trailers.newErrorTemplate(error.getValue()), null, false));
+        }
+
+        /**
+         * 需要从异常里读取错误码等信息时使用 每次异常都会调用
+         */
+        @SuppressWarnings("unchecked")
+        public <E extends Throwable> Builder map(Class<E> type, Function<? super E, StatusException> mapper) {
+            Preconditions.checkNotNull(mapper, "mapper must not be null");
+            return put(type, new Mapping(null, null, e -> mapper.apply((E) e), false));
+        }
+
+        /**
+         * 已经知道的异常 但仍然需要打印 (限流之后的) 堆栈
+         */
+        public <E extends Throwable> Builder mapAndLog(Class<E> type, Status status) {
+            Preconditions.checkNotNull(status, "status must not be null");
+            return put(type, new Mapping(status, null, null, true));
+        }
+
+        private Builder put(Class<?> type, Mapping mapping) {
+            Preconditions.checkNotNull(type, "exception type must not be null");
+            this.mappings.put(type, mapping);
+            return this;
+        }
+
+        public GRpcExceptionMappings build() {
+            return new GRpcExceptionMappings(ImmutableMap.copyOf(this.mappings));
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+/**
+ * 注册为 bean 之后 向全局异常拦截器添加异常映射，按 @Order 顺序执行，后注册的同类型映射覆盖之前的
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@FunctionalInterface
+public interface GRpcExceptionMappingsCustomizer {
+
+    void customize(GRpcExceptionMappings.Builder builder);
+
+}
@@ -22,6 +22,9 @@ import java.lang.annotation.*;
 
 /**
  * 全局 grpc  所有的 scope 都会添加上
+ * <p>
+ * 按 spring @Order 升序执行 值越小越先执行，没有 @Order 的排在最后
+ * 早期版本是后添加的先执行 升级时请显式声明 @Order
  *
  * @author JoJo Wang
  * @link github.com/jojoti
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.springframework.boot.actuate.health.*;
+
+import java.util.Iterator;
+
+/**
+ * 每个 scope 一个 spring boot health indicator
+ * <p>
+ * 未启动/drain/背压: OUT_OF_SERVICE，server 已经终止: DOWN
+ * 可以加入 readiness group: management.endpoint.health.group.readiness.include=readinessState,grpc
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcHealthContributor implements CompositeHealthContributor {
+
+    private final Actuator actuator;
+    private final ImmutableMap<String, HealthIndicator> indicators;
+
+    public GRpcHealthContributor(GRpcServers gRpcServers, GRpcServerProperties gRpcServerProperties) {
+        this.actuator = gRpcServers.getActuator();
+        final var builder = ImmutableMap.<String, HealthIndicator>builder();
+        for (String scopeName : gRpcServerProperties.getServers().keySet()) {
+            builder.put(scopeName, () -> health(scopeName));
+        }
+        this.indicators = builder.build();
+    }
+
+    private Health health(String scopeName) {
+        final var scope = this.actuator.getScopes().get(scopeName);
+        if (scope == null) {
+            return Health.outOfService().withDetail("state", "stopped").build();
+        }
+        final Health.Builder builder;
+        if (!scope.isLive()) {
+            builder = Health.down();
+        } else if (!scope.isReady()) {
+            builder = Health.outOfService();
+        } else {
+            builder = Health.up();
+        }
+        return builder.withDetail("live", scope.isLive())
+                .withDetail("ready", scope.isReady())
+                .withDetail("draining", scope.isDraining())
+                .withDetail("inFlight", scope.getInFlight())
+                .withDetail("queueDepth", scope.getQueueDepth())
+                .build();
+    }
+
+    @Override
+    public HealthContributor getContributor(String name) {
+        return this.indicators.get(name);
+    }
+
+    @Override
+    public Iterator<NamedContributor<HealthContributor>> iterator() {
+        return Iterators.transform(this.indicators.entrySet().iterator(),
+                entry -> NamedContributor.of(entry.getKey(), entry.getValue()));
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.protobuf.MessageLite;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import io.micrometer.core.instrument.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 每个 scope 每个 method 的请求数，状态码，进行中请求数，消息大小，耗时 histogram
+ * <p>
+ * meter 在 aware 时按 method 预先创建好，请求时只有一次 MethodDescriptor 的 identity 查找，不会拼接字符串和 tag
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcMetricsInterceptor implements ScopeServerInterceptor {
+
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final MeterRegistry registry;
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // MethodDescriptor 没有重写 hashCode 这里是 identity 查找
+    private volatile ImmutableMap<MethodDescriptor<?, ?>, MethodMeters> methods = ImmutableMap.of();
+
+    public GRpcMetricsInterceptor(MeterRegistry registry, GRpcServerProperties gRpcServerProperties) {
+        this.registry = registry;
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var meters = this.methods.get(call.getMethodDescriptor());
+        if (meters == null) {
+            return next.startCall(call, headers);
+        }
+        final var recorder = new CallRecorder(meters);
+        final var delegate = next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                if (message instanceof MessageLite) {
+                    // 序列化时会复用 memoized size
+                    meters.sentSize.record(((MessageLite) message).getSerializedSize());
+                }
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                recorder.finish(status.getCode());
+                super.close(status, trailers);
+            }
+        }, headers);
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(delegate) {
+            @Override
+            public void onMessage(ReqT message) {
+                if (message instanceof MessageLite) {
+                    meters.receivedSize.record(((MessageLite) message).getSerializedSize());
+                }
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                // 客户端取消 服务端可能不会再调用 close
+                recorder.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getMetrics().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getMetrics();
+        final var builder = ImmutableMap.<MethodDescriptor<?, ?>, MethodMeters>builder();
+        for (BindableService service : scopes) {
+            for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                // reload 时复用已经注册的 meter inflight gauge 只能绑定一个对象
+                final var existing = this.methods.get(method.getMethodDescriptor());
+                builder.put(method.getMethodDescriptor(), existing != null ? existing
+                        : new MethodMeters(this.registry, currentGRpcScope.value(), method.getMethodDescriptor(), config));
+            }
+        }
+        this.methods = builder.build();
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class CallRecorder {
+        private final MethodMeters meters;
+        private final long startNanos;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        CallRecorder(MethodMeters meters) {
+            this.meters = meters;
+            this.startNanos = System.nanoTime();
+            meters.started.increment();
+            meters.inFlight.incrementAndGet();
+        }
+
+        void finish(Status.Code code) {
+            // close 和 onCancel 可能都会触发 只记录一次
+            if (!this.finished.compareAndSet(false, true)) {
+                return;
+            }
+            this.meters.inFlight.decrementAndGet();
+            this.meters.duration.record(System.nanoTime() - this.startNanos, TimeUnit.NANOSECONDS);
+            this.meters.completed(code).increment();
+        }
+    }
+
+    private static final class MethodMeters {
+        private final MeterRegistry registry;
+        private final Tags tags;
+        private final Counter started;
+        private final AtomicLong inFlight = new AtomicLong();
+        private final Timer duration;
+        private final DistributionSummary receivedSize;
+        private final DistributionSummary sentSize;
+        // 按 Status.Code 下标缓存 非 OK 的状态码第一次出现时才注册
+        private final AtomicReferenceArray<Counter> completed = new AtomicReferenceArray<>(CODES.length);
+
+        MethodMeters(MeterRegistry registry, String scopeName, MethodDescriptor<?, ?> method, GRpcServerProperties.MetricsConfig config) {
+            this.registry = registry;
+            this.tags = Tags.of("scope", scopeName,
+                    "service", String.valueOf(method.getServiceName()),
+                    "method", String.valueOf(method.getBareMethodName()),
+                    "type", method.getType().name());
+            this.started = Counter.builder("grpc.server.calls.started")
+                    .tags(this.tags)
+                    .register(registry);
+            Gauge.builder("grpc.server.calls.inflight", this.inFlight, AtomicLong::get)
+                    .tags(this.tags)
+                    .register(registry);
+            this.duration = Timer.builder("grpc.server.calls.duration")
+                    .tags(this.tags)
+                    .publishPercentileHistogram(config.isPercentileHistogram())
+                    .register(registry);
+            this.receivedSize = DistributionSummary.builder("grpc.server.message.received.size")
+                    .baseUnit("bytes")
+                    .tags(this.tags)
+                    .register(registry);
+            this.sentSize = DistributionSummary.builder("grpc.server.message.sent.size")
+                    .baseUnit("bytes")
+                    .tags(this.tags)
+                    .register(registry);
+            this.completed.set(Status.Code.OK.value(), newCompleted(Status.Code.OK));
+        }
+
+        Counter completed(Status.Code code) {
+            final var found = this.completed.get(code.value());
+            if (found != null) {
+                return found;
+            }
+            final var counter = newCompleted(code);
+            this.completed.compareAndSet(code.value(), null, counter);
+            return counter;
+        }
+
+        private Counter newCompleted(Status.Code code) {
+            // registry 内部去重 并发注册拿到的是同一个 counter
+            return Counter.builder("grpc.server.calls.completed")
+                    .tags(this.tags)
+                    .tag("code", code.name())
+                    .register(this.registry);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import java.lang.annotation.*;
+
+/**
+ * 调度优先级，可以用在 service 类上，也可以用在 service 的 method 上，method 优先
+ * 只对 executor type 为 shared 的 scope 生效，LOW 的 method 在 scope 的低优先级队列执行
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface GRpcPriority {
+
+    Priority value();
+
+    enum Priority {
+        NORMAL,
+        // 批量 报表之类不关心延迟的调用
+        LOW,
+    }
+
+}
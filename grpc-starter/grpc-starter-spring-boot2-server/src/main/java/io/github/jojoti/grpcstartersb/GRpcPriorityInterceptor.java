@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 把 @GRpcPriority(LOW) method 的 listener 回调转到 scope 的低优先级队列
+ * <p>
+ * startCall 已经在 scheduler 线程上执行 这里只能从 onMessage 开始切换，handler 的业务代码都在 onMessage/onHalfClose 里面
+ * 同一个 call 的回调通过 sequential executor 保持顺序，回调时恢复切换之前的 Context (deadline 等)
+ * 需要在 globalException 之前 切换之后抛出的异常仍然由 globalException 处理
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcPriorityInterceptor implements ScopeServerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(GRpcPriorityInterceptor.class);
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // MethodDescriptor 没有重写 equals 这里是 identity 查找
+    private volatile ImmutableSet<MethodDescriptor<?, ?>> lowMethods = ImmutableSet.of();
+
+    public GRpcPriorityInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (!this.lowMethods.contains(call.getMethodDescriptor())) {
+            return next.startCall(call, headers);
+        }
+        final var lowPriority = ScopeScheduler.currentLowPriority();
+        if (lowPriority == null) {
+            // in-process direct 之类没有经过 scheduler 的调用
+            return next.startCall(call, headers);
+        }
+        return new LowPriorityListener<>(call, next.startCall(call, headers), MoreExecutors.newSequentialExecutor(lowPriority));
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getExecutor().getType() == GRpcServerProperties.ExecutorType.SHARED) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        // 与 ram 模块一致 method 上的注解按 pb 方法名查找
+        final var methodAnnotations = ServiceDescriptorAnnotations.getAnnotationMaps(scopes, GRpcPriority.class, false);
+        final var builder = ImmutableSet.<MethodDescriptor<?, ?>>builder();
+        for (BindableService service : scopes) {
+            final var serviceAnnotation = AnnotationUtils.findAnnotation(service.getClass(), GRpcPriority.class);
+            for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                final var methodAnnotation = methodAnnotations.get(method.getMethodDescriptor());
+                final var found = methodAnnotation != null ? methodAnnotation : serviceAnnotation;
+                if (found != null && found.value() == GRpcPriority.Priority.LOW) {
+                    builder.add(method.getMethodDescriptor());
+                }
+            }
+        }
+        this.lowMethods = builder.build();
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class LowPriorityListener<ReqT, RespT> extends ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+
+        private final ServerCall<ReqT, RespT> call;
+        private final Executor executor;
+
+        LowPriorityListener(ServerCall<ReqT, RespT> call, ServerCall.Listener<ReqT> delegate, Executor executor) {
+            super(delegate);
+            this.call = call;
+            this.executor = executor;
+        }
+
+        private void dispatch(Runnable runnable) {
+            final var context = Context.current();
+            this.executor.execute(() -> {
+                final var previous = context.attach();
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    // 已经不在 grpc 的回调栈里面 没有人会关闭这个 call
+                    log.error("GRPC low priority call {} error", this.call.getMethodDescriptor().getFullMethodName(), e);
+                    try {
+                        this.call.close(Status.fromThrowable(e), new Metadata());
+                    } catch (RuntimeException ignored) {
+                        // call 已经关闭
+                    }
+                } finally {
+                    context.detach(previous);
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            dispatch(() -> super.onMessage(message));
+        }
+
+        @Override
+        public void onHalfClose() {
+            dispatch(super::onHalfClose);
+        }
+
+        @Override
+        public void onCancel() {
+            dispatch(super::onCancel);
+        }
+
+        @Override
+        public void onComplete() {
+            dispatch(super::onComplete);
+        }
+
+        @Override
+        public void onReady() {
+            dispatch(super::onReady);
+        }
+    }
+
+}
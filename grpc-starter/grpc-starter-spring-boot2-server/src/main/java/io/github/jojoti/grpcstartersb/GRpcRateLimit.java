@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import java.lang.annotation.*;
+
+/**
+ * 覆盖 scope 的 rateLimit.perMethod 配置，可以用在 service 类上，也可以用在 service 的 method 上，method 优先
+ * 只对开启了 rateLimit 的 scope 生效
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface GRpcRateLimit {
+
+    /**
+     * 所有客户端共用 每秒发放的令牌 0 表示不限制
+     */
+    double permitsPerSecond();
+
+    /**
+     * 空闲之后允许的突发请求数 0 表示 1s 的量
+     */
+    int burst() default 0;
+
+}
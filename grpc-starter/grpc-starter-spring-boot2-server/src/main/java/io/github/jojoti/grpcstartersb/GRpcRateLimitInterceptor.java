@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按远端 ip 和 method 的令牌桶限流，保护面向终端的 scope 不被单个客户端打满
+ * <p>
+ * 在 concurrencyLimit 之前执行，被限流的请求不占用并发名额，也不进入 session 校验
+ * 内置为全局拦截器 只作用于开启了 rateLimit 的 scope，也可以通过 @GRpcScopeGlobalInterceptor 单独声明
+ * 按 uid 限流需要 session，由 ram 模块在 session 之后检查
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcRateLimitInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    // reload 时整体替换
+    private volatile ScopeLimits limits;
+
+    public GRpcRateLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        final var limits = this.limits;
+        if (limits == null) {
+            return next.startCall(call, headers);
+        }
+        if (limits.perIp != null) {
+            final var remote = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+            if (remote instanceof InetSocketAddress) {
+                final var address = ((InetSocketAddress) remote).getAddress();
+                if (address != null) {
+                    final var retryNanos = limits.perIp.tryAcquire(address);
+                    if (retryNanos > 0) {
+                        return reject(call, "Rate limit per ip exceeded", retryNanos);
+                    }
+                }
+            }
+        }
+        final var method = limits.perMethod.get(call.getMethodDescriptor());
+        if (method != null) {
+            final var retryNanos = method.bucket.tryAcquire(method.rate, System.nanoTime());
+            if (retryNanos > 0) {
+                return reject(call, "Rate limit per method exceeded", retryNanos);
+            }
+        }
+        return next.startCall(call, headers);
+    }
+
+    /**
+     * 重试时间向上取整到毫秒
+     */
+    private static <ReqT> ServerCall.Listener<ReqT> reject(ServerCall<ReqT, ?> call, String description, long retryNanos) {
+        final var e = Trailers.newResourceExhausted(description, TimeUnit.NANOSECONDS.toMillis(retryNanos + 999_999));
+        call.close(e.getStatus(), e.getTrailers());
+        return new ServerCall.Listener<>() {
+        };
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getRateLimit().isEnabled()) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        final var config = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getRateLimit();
+        if (!config.isEnabled()) {
+            // @GRpcScopeGlobalInterceptor 声明在没有开启的 scope 上
+            this.limits = null;
+            return;
+        }
+        final var perIp = config.getPerIp().isEnabled()
+                ? new TokenBuckets<InetAddress>(new TokenBucket.Rate(config.getPerIp().getPermitsPerSecond(), config.getPerIp().getBurst()),
+                config.getMaxEntries(), config.getIdleMills())
+                : null;
+        final var now = System.nanoTime();
+        // 与 ram 模块一致 method 上的注解按 pb 方法名查找
+        final var methodAnnotations = ServiceDescriptorAnnotations.getAnnotationMaps(scopes, GRpcRateLimit.class, false);
+        final var perMethod = ImmutableMap.<MethodDescriptor<?, ?>, MethodBucket>builder();
+        for (BindableService service : scopes) {
+            final var serviceAnnotation = AnnotationUtils.findAnnotation(service.getClass(), GRpcRateLimit.class);
+            for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                final var methodAnnotation = methodAnnotations.get(method.getMethodDescriptor());
+                final var found = methodAnnotation != null ? methodAnnotation : serviceAnnotation;
+                final TokenBucket.Rate rate;
+                if (found != null) {
+                    rate = found.permitsPerSecond() > 0 ? new TokenBucket.Rate(found.permitsPerSecond(), found.burst()) : null;
+                } else {
+                    rate = config.getPerMethod().isEnabled()
+                            ? new TokenBucket.Rate(config.getPerMethod().getPermitsPerSecond(), config.getPerMethod().getBurst())
+                            : null;
+                }
+                if (rate != null) {
+                    perMethod.put(method.getMethodDescriptor(), new MethodBucket(rate, new TokenBucket(now)));
+                }
+            }
+        }
+        this.limits = new ScopeLimits(perIp, perMethod.build());
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class ScopeLimits {
+        // 没有开启时为 null
+        private final TokenBuckets<InetAddress> perIp;
+        // MethodDescriptor 没有重写 hashCode 这里是 identity 查找 不限制的 method 不在这里
+        private final ImmutableMap<MethodDescriptor<?, ?>, MethodBucket> perMethod;
+
+        private ScopeLimits(TokenBuckets<InetAddress> perIp, ImmutableMap<MethodDescriptor<?, ?>, MethodBucket> perMethod) {
+            this.perIp = perIp;
+            this.perMethod = perMethod;
+        }
+    }
+
+    private static final class MethodBucket {
+        private final TokenBucket.Rate rate;
+        private final TokenBucket bucket;
+
+        private MethodBucket(TokenBucket.Rate rate, TokenBucket bucket) {
+            this.rate = rate;
+            this.bucket = bucket;
+        }
+    }
+
+}
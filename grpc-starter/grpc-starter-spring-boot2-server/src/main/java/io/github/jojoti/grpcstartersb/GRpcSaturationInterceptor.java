@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+
+import java.util.List;
+
+/**
+ * fixed 线程池饱和时快速拒绝新的 call: RESOURCE_EXHAUSTED + x-retry-after
+ * <p>
+ * 被线程池拒绝的新 call 由 ScopeExecutors 交给 overflow 线程执行，这里只判断当前线程是否为 overflow
+ * 已经接收的 call 的后续回调不会被拒绝 也就不会走到这里
+ * 在 metrics 之后执行 被拒绝的请求同样会被统计
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcSaturationInterceptor implements ScopeServerInterceptor {
+
+    private final GRpcServerProperties gRpcServerProperties;
+
+    private volatile long retryAfterMills;
+
+    public GRpcSaturationInterceptor(GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (!ScopeExecutors.isSaturated()) {
+            return next.startCall(call, headers);
+        }
+        final var e = Trailers.newResourceExhausted("Executor saturated", this.retryAfterMills);
+        call.close(e.getStatus(), e.getTrailers());
+        return new ServerCall.Listener<>() {
+        };
+    }
+
+    @Override
+    public List<String> getScopes() {
+        final var found = Lists.<String>newArrayList();
+        for (var entry : this.gRpcServerProperties.getServers().entrySet()) {
+            if (entry.getValue().getExecutor().getType() == GRpcServerProperties.ExecutorType.FIXED) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+        this.retryAfterMills = this.gRpcServerProperties.getServers().get(currentGRpcScope.value()).getExecutor().getRejectRetryAfterMills();
+    }
+
+    @Override
+    public ScopeServerInterceptor cloneThis() {
+        try {
+            return (ScopeServerInterceptor) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Empty;
+import com.google.protobuf.StringValue;
+import io.grpc.BindableService;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * admin scope 上的 reload 管理接口 没有 proto 文件，直接使用 protobuf 内置的 StringValue/Empty
+ * <p>
+ * grpcurl -plaintext -d '"primary"' 127.0.0.1:8102 io.github.jojoti.grpcstartersb.ScopeAdmin/Reload
+ * 请求为空字符串表示 reload 所有 scope
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcAdminService
+public class GRpcScopeAdminService implements BindableService {
+
+    private static final Logger log = LoggerFactory.getLogger(GRpcScopeAdminService.class);
+
+    public static final String SERVICE_NAME = "io.github.jojoti.grpcstartersb.ScopeAdmin";
+
+    public static final MethodDescriptor<StringValue, Empty> RELOAD_METHOD = MethodDescriptor.<StringValue, Empty>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "Reload"))
+            .setRequestMarshaller(ProtoUtils.marshaller(StringValue.getDefaultInstance()))
+            .setResponseMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+            .build();
+
+    private final GRpcScopeReloader reloader;
+
+    public GRpcScopeAdminService(GRpcScopeReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(SERVICE_NAME)
+                .addMethod(RELOAD_METHOD, ServerCalls.asyncUnaryCall(this::reload))
+                .build();
+    }
+
+    private void reload(StringValue request, StreamObserver<Empty> responseObserver) {
+        try {
+            this.reloader.reload(request.getValue().isEmpty() ? ImmutableList.of() : ImmutableList.of(request.getValue()));
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asException());
+            return;
+        } catch (RuntimeException e) {
+            log.error("GRPC scope {} reload error", request.getValue(), e);
+            responseObserver.onError(Status.FAILED_PRECONDITION.withDescription(e.getMessage()).asException());
+            return;
+        }
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+}
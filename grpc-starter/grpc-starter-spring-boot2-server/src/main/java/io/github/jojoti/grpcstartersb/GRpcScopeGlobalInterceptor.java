@@ -22,6 +22,8 @@ import java.lang.annotation.*;
 
 /**
  * 全局 grpc 拦截器 在某个作用域内
+ * <p>
+ * 在 @GRpcGlobalInterceptor 之后执行，同样按 spring @Order 升序执行
  *
  * @author JoJo Wang
  * @link github.com/jojoti
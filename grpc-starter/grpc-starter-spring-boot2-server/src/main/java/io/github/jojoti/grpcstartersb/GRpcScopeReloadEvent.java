@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 发布该事件重新读取 Environment 中的 grpcs 配置，只重建指定的 scope
+ * <p>
+ * 配置中心刷新 Environment 之后发布，例如 spring cloud 的 EnvironmentChangeEvent 监听器里面
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcScopeReloadEvent extends ApplicationEvent {
+
+    /**
+     * @param scopeNames 需要重建的 scope 为空表示所有 scope
+     */
+    public GRpcScopeReloadEvent(ImmutableList<String> scopeNames) {
+        super(scopeNames);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ImmutableList<String> getScopeNames() {
+        return (ImmutableList<String>) getSource();
+    }
+
+}
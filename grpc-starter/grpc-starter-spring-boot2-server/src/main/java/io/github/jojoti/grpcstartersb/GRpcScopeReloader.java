@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+
+/**
+ * 重新绑定 Environment 中的 grpcs 配置 逐个 reload scope
+ * <p>
+ * 只有每个 scope 的 ServerItem 会生效，startupTimeoutMills reload 等全局配置需要重启
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcScopeReloader implements ApplicationListener<GRpcScopeReloadEvent>, EnvironmentAware {
+
+    private final GRpcServers gRpcServers;
+    private Environment environment;
+
+    public GRpcScopeReloader(GRpcServers gRpcServers) {
+        this.gRpcServers = gRpcServers;
+    }
+
+    @Override
+    public void onApplicationEvent(GRpcScopeReloadEvent event) {
+        reload(event.getScopeNames());
+    }
+
+    /**
+     * @param scopeNames 为空表示所有 scope
+     */
+    public void reload(List<String> scopeNames) {
+        final var bound = Binder.get(this.environment).bind("grpcs", GRpcServerProperties.class)
+                .orElseThrow(() -> new IllegalArgumentException("Config grpcs not found"));
+        final var names = scopeNames.isEmpty() ? List.copyOf(bound.getServers().keySet()) : scopeNames;
+        for (String scopeName : names) {
+            final var config = bound.getServers().get(scopeName);
+            Preconditions.checkArgument(config != null, "ScopeName " + scopeName + " not found, please you check config");
+            this.gRpcServers.reload(scopeName, config);
+        }
+    }
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+}
@@ -18,13 +18,15 @@ package io.github.jojoti.grpcstartersb;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
 import io.github.jojoti.utildaemonthreads.DaemonThreads;
 import io.github.jojoti.utilguavaext.GetAddress;
 import io.grpc.*;
-import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.protobuf.services.HealthStatusManager;
+import io.netty.channel.unix.DomainSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -33,9 +35,13 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.core.annotation.AnnotationUtils;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 /**
@@ -56,33 +62,42 @@ public class GRpcServers implements SmartLifecycle, ApplicationContextAware {
 
     private final GRpcServerProperties gRpcServerProperties;
 
-    private ImmutableList<MultiServer> servers;
+    private volatile ImmutableList<MultiServer> servers;
     private ApplicationContext applicationContext;
 
     private volatile DaemonThreads daemonThreads;
+    // 配置了 nettySharedConfig 的 scope 共享 懒加载
+    private NettyShared nettyShared;
+    // executor type 为 shared 的 scope 共享 懒加载
+    private ScopeScheduler scheduler;
+    private volatile ImmutableMap<String, ScopeStartupTiming> startupTimings = ImmutableMap.of();
+    private final Actuator actuator = new Actuator();
+    // start 时解析出来的 handler 与拦截器 reload 时复用
+    private ScopeDiscovery discovery;
+    // reload 之后旧 server 的后台关闭任务 stop 时等待完成
+    private final List<CompletableFuture<Void>> handoffs = Lists.newCopyOnWriteArrayList();
+    // 已经注册到 etcd 等注册中心的 scope
+    private final Map<String, ScopeRegistration> registrations = Maps.newHashMap();
 
     public GRpcServers(GRpcServerProperties gRpcServerProperties) {
         this.gRpcServerProperties = gRpcServerProperties;
     }
 
     @Override
-    public void start() {
+    public synchronized void start() {
         Preconditions.checkArgument(this.gRpcServerProperties.getServers() != null && this.gRpcServerProperties.getServers().size() > 0, "Servers is not allow empty");
 
         log.info("Starting gRPC Server ...");
+        final var discoveryBegin = System.nanoTime();
         // 添加到所有 grpc server 的拦截器
-        // 拦截器先添加后执行的请 自行使用 spring @Order 注解排序
-        final var allGlobalInterceptors = applicationContext.getBeansWithAnnotation(GRpcGlobalInterceptor.class)
-                .values()
-                .stream()
-                .map(c -> (ServerInterceptor) c)
-                .collect(Collectors.toUnmodifiableList());
+        // 按 spring @Order 排序 值越小越先执行
+        final var allGlobalInterceptors = getOrderedInterceptors(GRpcGlobalInterceptor.class);
 
         // 所有 handler
         final var allScopeHandlers = applicationContext.getBeansWithAnnotation(GRpcScopeService.class);
 
         // 所有分组拦截器
-        final var scopeHandlers = Multimaps.<GRpcScope, BindableService>newMultimap(Maps.newHashMap(), Lists::newArrayList);
+        final var scopeHandlers = Multimaps.<GRpcScope, BindableService>newListMultimap(Maps.newHashMap(), Lists::newArrayList);
 
         for (Object value : allScopeHandlers.values()) {
             // check impl BindableService
@@ -94,177 +109,596 @@ public class GRpcServers implements SmartLifecycle, ApplicationContextAware {
             scopeHandlers.put(foundScope, (BindableService) value);
         }
 
-        // 所有分组拦截器
-        final var scopeInterceptors = Multimaps.<GRpcScope, ServerInterceptor>newMultimap(Maps.newHashMap(), Lists::newArrayList);
+        // 所有分组拦截器 同样按 @Order 排序
+        final var scopeInterceptors = Multimaps.<GRpcScope, ServerInterceptor>newListMultimap(Maps.newHashMap(), Lists::newArrayList);
 
-        final var allScopeInterceptors = applicationContext.getBeansWithAnnotation(GRpcScopeGlobalInterceptor.class);
-        for (Object value : allScopeInterceptors.values()) {
-            Preconditions.checkArgument(value instanceof ServerInterceptor, "Annotation @GRpcScopeService class must be instance of io.grpc.ServerInterceptor");
+        for (ServerInterceptor value : getOrderedInterceptors(GRpcScopeGlobalInterceptor.class)) {
             // 肯定能找到
             final var foundScope = AnnotationUtils.findAnnotation(value.getClass(), GRpcScopeGlobalInterceptor.class).scope();
-            scopeInterceptors.put(foundScope, (ServerInterceptor) value);
+            scopeInterceptors.put(foundScope, value);
         }
 
-        final var serverBuilders = Lists.<ServerBuilders>newArrayList();
+        // 先校验配置 避免创建了线程池 event loop 之后再报错
+        for (var server : this.gRpcServerProperties.getServers().entrySet()) {
+            var exists = false;
+            for (GRpcScope scope : scopeHandlers.keySet()) {
+                if (server.getKey().equals(scope.value())) {
+                    exists = true;
+                    break;
+                }
+            }
+            if (!exists) {
+                throw new IllegalArgumentException("Scope " + server.getKey() + " exists, but no handler is configured");
+            }
+        }
 
-        final var services = Multimaps.<GRpcScope, BindableService>newListMultimap(Maps.newHashMap(), Lists::newArrayList);
+        if (scopeHandlers.keySet().size() != this.gRpcServerProperties.getServers().size()) {
+            // 启动的server与配置的 或者 bean注解的个数不匹配
+            throw new IllegalArgumentException("Config error, please check config or annotation");
+        }
+        // 内置 gzip 以及 io.grpc.Codec bean 扩展的 snappy/zstd/lz4 等
+        final var availableCodecs = ScopeCompressors.availableCodecs(this.applicationContext.getBeansOfType(Codec.class).values());
         // 一个作用域之下 存在 多个 拦截器
+        final var discovery = new ScopeDiscovery(allGlobalInterceptors, scopeHandlers, scopeInterceptors, availableCodecs);
+        final var discoveryNanos = System.nanoTime() - discoveryBegin;
 
-        final var scopeInterceptorUtils = new DynamicScopeFilterUtils();
+        final var serverBuilders = Lists.<ServerBuilders>newArrayList();
 
-        for (Map.Entry<GRpcScope, Collection<BindableService>> entry : scopeHandlers.asMap().entrySet()) {
-            // 根据 scopeName 读取配置
-            final var config = getServerConfigByScopeName(entry.getKey().value());
-            final var newServerBuilder = getServerBuilder(config);
+        try {
+            for (GRpcScope scope : scopeHandlers.keySet()) {
+                // 根据 scopeName 读取配置
+                final var config = getServerConfigByScopeName(scope.value());
+                final var timing = new ScopeStartupTiming(scope.value());
+                timing.setDiscoveryNanos(discoveryNanos);
+                final var serverBuilder = newScopeBuilder(discovery, scope, config, timing, serverBuilders);
+                this.actuator.register(serverBuilder.scopeHealth);
+            }
+            awareScopes(discovery, serverBuilders);
+        } catch (RuntimeException e) {
+            rollback(serverBuilders, ImmutableList.of());
+            throw e;
+        }
 
-            // 可以使用 此 api 动态的 扩展 grpc 配置
-            // 参考用法: io/github/jojoti/grpcstartersbram/SessionInterceptor.java:72
-            this.applicationContext.publishEvent(new GrpcServerBuilderCreateEvent(new GrpcServerBuilderCreate(entry.getKey(), newServerBuilder)));
-            // newServerBuilder
+        final var startedServers = startAll(serverBuilders);
+        // 全部启动成功之后才切换为 SERVING
+        final var startedByScope = ImmutableMap.<String, Server>builder();
+        for (MultiServer startedServer : startedServers) {
+            startedByScope.put(startedServer.scopeName, startedServer.server);
+        }
+        this.actuator.started(startedByScope.build());
+        // SERVING 之后再注册 client 发现的实例都可以直接接收请求
+        try {
+            for (MultiServer startedServer : startedServers) {
+                register(startedServer);
+            }
+        } catch (RuntimeException e) {
+            // 例如 advertiseAddress 无法解析 与 startAll 失败一样回滚已经启动的 server
+            deregisterAll();
+            rollback(serverBuilders, startedServers);
+            throw e;
+        }
+
+        final var daemon = DaemonThreads.newDaemonThreads(this.gRpcServerProperties.getServers().size(),
+                "Multi grpc server awaiter", (handler, e) -> {
+                    log.error("E: {}", handler, e);
+                });
+
+        final var timings = ImmutableMap.<String, ScopeStartupTiming>builder();
+        for (ServerBuilders serverBuilder : serverBuilders) {
+            log.info("GRPC Server startup {}", serverBuilder.timing);
+            timings.put(serverBuilder.scopeName, serverBuilder.timing);
+        }
+        log.info("GRPC Server all started in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - discoveryBegin));
+
+        this.startupTimings = timings.build();
+        this.daemonThreads = daemon;
+        this.discovery = discovery;
+        this.servers = startedServers;
+
+        // fixme 暂无需要使用的场景
+//        this.applicationContext.publishEvent(new ScopeServicesEvent(new ScopeServicesEventEntities(discovery.scopeHandlers)));
+    }
+
+    /**
+     * 创建单个 scope 的 server builder 以及预先计算好的拦截器链，创建成功之后登记到 created 用于出错时回滚
+     */
+    private ServerBuilders newScopeBuilder(ScopeDiscovery discovery, GRpcScope scope, GRpcServerProperties.ServerItem config,
+                                           ScopeStartupTiming timing, List<ServerBuilders> created) {
+        final var interceptorBegin = System.nanoTime();
+        final var nettyShared = getNettyShared(scope.value(), config);
+        final ServerBuilder<?> newServerBuilder;
+        final ImmutableList<ServerBuilder<?>> newServerBuilders;
+        ExecutorService executor = null;
+        final ServerBuilders serverBuilder;
+        try {
+            newServerBuilder = getServerBuilder(scope.value(), config, nettyShared);
+            // 同一个 scope 额外暴露一个 in-process server 共用线程池 拦截器链以及健康状态
+            newServerBuilders = config.getInProcess() == GRpcServerProperties.InProcessMode.ALSO
+                    ? ImmutableList.of(newServerBuilder, InProcessServerBuilder.forName(scope.value()))
+                    : ImmutableList.of(newServerBuilder);
+            for (ServerBuilder<?> builder : newServerBuilders) {
+                // codec 找不到时在创建线程池之前报错
+                ScopeCompressors.applyCompression(scope.value(), config.getCompression(), discovery.availableCodecs, builder);
+            }
+            // 每个 scope 独立的业务线程池
+            executor = ScopeExecutors.applyExecutor(scope.value(), config.getExecutor(), getScheduler(config), newServerBuilder);
 
             final HealthStatusManager health = config.getHealthStatus().isEnabled() ? new HealthStatusManager() : null;
+            final var scopeHealth = this.actuator.newScopeHealth(scope.value(), config.getHealthStatus(), health, executor);
+            serverBuilder = new ServerBuilders(newServerBuilders, health, scopeHealth, executor, nettyShared, scope, config, timing);
+        } catch (RuntimeException e) {
+            // 还没有登记到 created 回滚时不会释放 这里释放已经创建的 event loop 和线程池
+            releaseBuilder(scope.value(), config, executor, nettyShared);
+            throw e;
+        }
+        // 先登记 后续出错可以回滚已经创建的资源
+        created.add(serverBuilder);
 
-            if (health != null) {
-                log.info("GRPC scopeName {} add health service", entry.getKey().value());
-                // 添加健康 检查 service
-                newServerBuilder.addService(health.getHealthService());
+        for (ServerBuilder<?> builder : newServerBuilders) {
+            if (builder != newServerBuilder) {
+                ScopeExecutors.shareExecutor(config.getExecutor(), serverBuilder.executor, builder);
+            }
+            // 传输层统计进行中的请求 用于 readiness 背压判断
+            if (serverBuilder.scopeHealth.getTracerFactory() != null) {
+                builder.addStreamTracerFactory(serverBuilder.scopeHealth.getTracerFactory());
             }
 
-            // 遍历添加每个 service
-            for (BindableService bindableService : entry.getValue()) {
-                final var foundGRpcServiceInterceptors = bindableService.getClass().getAnnotation(GRpcServiceInterceptors.class);
+            // 可以使用 此 api 动态的 扩展 grpc 配置
+            // 参考用法: io/github/jojoti/grpcstartersbram/SessionInterceptor.java:72
+            this.applicationContext.publishEvent(new GrpcServerBuilderCreateEvent(new GrpcServerBuilderCreate(scope, builder)));
 
-                // 拦截器先添加，后执行的
+            if (serverBuilder.healthStatusManager != null) {
+                log.info("GRPC scopeName {} add health service", scope.value());
+                // 添加健康 检查 service
+                builder.addService(serverBuilder.healthStatusManager.getHealthService());
+            }
+        }
 
-                // 添加每个 service 特有的拦截器
-                if (foundGRpcServiceInterceptors != null && foundGRpcServiceInterceptors.interceptors().length > 0) {
-                    final var foundInterceptors = Lists.<ServerInterceptor>newArrayList();
-                    for (var interceptor : foundGRpcServiceInterceptors.interceptors()) {
-                        final var findDefinedInterceptorBean = applicationContext.getBean(interceptor);
-                        // 拦截器定义的 bean 没有找到
-                        Preconditions.checkNotNull(findDefinedInterceptorBean, "Class " + interceptor + " ioc bean not found");
-                        foundInterceptors.add(scopeInterceptorUtils.addCheck(entry.getKey(), findDefinedInterceptorBean));
-                    }
-                    ServerInterceptors.intercept(bindableService, foundInterceptors);
+        // 每个 scope 只解析一次 同一个拦截器在 scope 内只有一个实例
+        final var globalChain = Lists.<ServerInterceptor>newArrayList();
+        for (ServerInterceptor globalInterceptor : discovery.allGlobalInterceptors) {
+            if (globalInterceptor instanceof ScopeServerInterceptor) {
+                // 只有超全局拦截器才会用到 动态 tag
+                Preconditions.checkNotNull(((ScopeServerInterceptor) globalInterceptor).getScopes());
+                if (!((ScopeServerInterceptor) globalInterceptor).getScopes().contains(scope.value())) {
+                    continue;
                 }
+            }
+            globalChain.add(discovery.scopeInterceptorUtils.addCheck(scope, globalInterceptor));
+        }
+        final var scopeChain = Lists.<ServerInterceptor>newArrayList();
+        for (ServerInterceptor foundScopeInterceptor : discovery.scopeInterceptors.get(scope)) {
+            scopeChain.add(discovery.scopeInterceptorUtils.addCheck(scope, foundScopeInterceptor));
+        }
 
-                if (foundGRpcServiceInterceptors == null || foundGRpcServiceInterceptors.applyScopeGlobalInterceptors()) {
-                    // 添加局部拦截器
-                    final var foundScopeInterceptors = scopeInterceptors.get(entry.getKey());
-                    if (foundScopeInterceptors != null && foundScopeInterceptors.size() > 0) {
-                        for (ServerInterceptor foundScopeInterceptor : foundScopeInterceptors) {
-                            // grpc 拦截器是先添加的后执行
-                            newServerBuilder.intercept(scopeInterceptorUtils.addCheck(entry.getKey(), foundScopeInterceptor));
-                        }
-                    }
+        // 每个 service 的执行顺序: 全局 -> scope 全局 -> service 特有
+        // 不再挂到 server builder 上 拦截器个数与 service 个数无关
+        for (BindableService bindableService : discovery.scopeHandlers.get(scope)) {
+            final var foundGRpcServiceInterceptors = bindableService.getClass().getAnnotation(GRpcServiceInterceptors.class);
+            final var chain = new InterceptorChainBuilder();
+            if (foundGRpcServiceInterceptors == null || foundGRpcServiceInterceptors.applyGlobalInterceptors()) {
+                chain.addAll(globalChain);
+            }
+            if (foundGRpcServiceInterceptors == null || foundGRpcServiceInterceptors.applyScopeGlobalInterceptors()) {
+                chain.addAll(scopeChain);
+            }
+            if (foundGRpcServiceInterceptors != null) {
+                for (var interceptor : foundGRpcServiceInterceptors.interceptors()) {
+                    final var findDefinedInterceptorBean = applicationContext.getBean(interceptor);
+                    // 拦截器定义的 bean 没有找到
+                    Preconditions.checkNotNull(findDefinedInterceptorBean, "Class " + interceptor + " ioc bean not found");
+                    chain.add(discovery.scopeInterceptorUtils.addCheck(scope, findDefinedInterceptorBean));
                 }
+            }
+            serverBuilder.chains.add(new ServiceChain(bindableService, chain.build()));
+        }
 
-                if (foundGRpcServiceInterceptors == null || foundGRpcServiceInterceptors.applyGlobalInterceptors()) {
-                    for (ServerInterceptor allGlobalInterceptor : allGlobalInterceptors) {
-                        if (allGlobalInterceptor instanceof ScopeServerInterceptor) {
-                            // 比较两个注解的 scope 是否是同一个里面
-                            // 只有超全局拦截器才会用到 动态 tag
-                            Preconditions.checkNotNull(((ScopeServerInterceptor) allGlobalInterceptor).getScopes());
-                            for (String scope : ((ScopeServerInterceptor) allGlobalInterceptor).getScopes()) {
-                                if (entry.getKey().value().equals(scope)) {
-                                    newServerBuilder.intercept(scopeInterceptorUtils.addCheck(entry.getKey(), allGlobalInterceptor));
-                                    break;
-                                }
-                            }
-                        } else {
-                            // 先添加全局拦截器
-                            // grpc 拦截器是先添加的后执行
-                            newServerBuilder.intercept(scopeInterceptorUtils.addCheck(entry.getKey(), allGlobalInterceptor));
-                        }
-                    }
+        timing.setInterceptorNanos(System.nanoTime() - interceptorBegin);
+        log.info("GRPC scopeName {} add new builder", scope.value());
+        return serverBuilder;
+    }
+
+    /**
+     * 通知到 bean 注册成功的消息 拦截器在这里按当前配置初始化
+     */
+    private static void awareScopes(ScopeDiscovery discovery, List<ServerBuilders> serverBuilders) {
+        for (ServerBuilders serverBuilder : serverBuilders) {
+            final var awareBegin = System.nanoTime();
+            awareScope(discovery, serverBuilder.scope);
+            // aware 属于拦截器解析的一部分
+            serverBuilder.timing.setInterceptorNanos(serverBuilder.timing.getInterceptorNanos() + System.nanoTime() - awareBegin);
+        }
+    }
+
+    private static void awareScope(ScopeDiscovery discovery, GRpcScope scope) {
+        final var found = ImmutableList.copyOf(discovery.scopeHandlers.get(scope));
+        for (ScopeServerInterceptor scopeServerInterceptor : discovery.scopeInterceptorUtils.getRef().get(scope)) {
+            scopeServerInterceptor.aware(scope, found);
+        }
+    }
+
+    /**
+     * 只重建一个 scope，重新读取传输层 业务线程池 限流 压缩等配置，其它 scope 不受影响
+     * <p>
+     * 地址不变或者新旧都使用 in-process 时旧 server 先停止 listen，进行中的请求继续处理，客户端收到 GOAWAY 之后重连到新 server
+     * 地址变化时新 server 先启动，旧 server 切换为 NOT_SERVING 之后继续服务 handoffMills 让负载均衡切换
+     * 旧 server 在后台关闭 不阻塞调用方 也就可以在 admin scope 的请求里面 reload admin 自己
+     */
+    public synchronized void reload(String scopeName, GRpcServerProperties.ServerItem newConfig) {
+        Preconditions.checkState(this.servers != null, "GRPC Server is not running");
+        MultiServer old = null;
+        for (MultiServer server : this.servers) {
+            if (server.scopeName.equals(scopeName)) {
+                old = server;
+            }
+        }
+        Preconditions.checkArgument(old != null, "ScopeName " + scopeName + " not found");
+
+        log.info("GRPC Server {} reloading ...", scopeName);
+        final var begin = System.nanoTime();
+        final var previousConfig = this.gRpcServerProperties.replaceServer(scopeName, newConfig);
+        final var created = Lists.<ServerBuilders>newArrayListWithCapacity(1);
+        final var conflict = old.conflicts(newConfig);
+        final MultiServer next;
+        try {
+            final var serverBuilder = newScopeBuilder(this.discovery, old.scope, newConfig, new ScopeStartupTiming(scopeName), created);
+            // 复用该 scope 已有的拦截器实例 按新的配置重新初始化
+            awareScopes(this.discovery, created);
+            if (conflict) {
+                // 同一个地址 同一个 in-process 名字不能同时 listen
+                old.shutdown();
+            }
+            next = startScope(serverBuilder);
+        } catch (Exception e) {
+            for (ServerBuilders serverBuilder : created) {
+                releaseBuilder(serverBuilder, ImmutableList.of());
+            }
+            if (!conflict || !old.server.isShutdown()) {
+                // 旧 server 没有受影响 恢复旧配置即可
+                this.gRpcServerProperties.replaceServer(scopeName, previousConfig);
+                awareScope(this.discovery, old.scope);
+                throw new IllegalStateException("GRPC Server " + scopeName + " reload failed, keep previous server", e);
+            }
+            // 旧 server 已经停止 listen 使用旧配置重新启动
+            log.error("GRPC Server {} reload failed, restart with previous config", scopeName, e);
+            reload(scopeName, previousConfig);
+            throw new IllegalStateException("GRPC Server " + scopeName + " reload failed, restarted with previous config", e);
+        }
+
+        final var servers = ImmutableList.<MultiServer>builder();
+        for (MultiServer server : this.servers) {
+            servers.add(server == old ? next : server);
+        }
+        this.servers = servers.build();
+        this.actuator.replace(created.get(0).scopeHealth, next.server);
+        ScopeRegistration previousRegistration;
+        RuntimeException registerError = null;
+        try {
+            previousRegistration = register(next);
+        } catch (RuntimeException e) {
+            // 新 server 已经接管流量 旧 server 仍然需要 handoff 旧地址同样需要注销
+            previousRegistration = this.registrations.remove(scopeName);
+            registerError = e;
+        }
+        final var timings = ImmutableMap.<String, ScopeStartupTiming>builder();
+        this.startupTimings.forEach((name, timing) -> timings.put(name, name.equals(scopeName) ? created.get(0).timing : timing));
+        this.startupTimings = timings.build();
+        handoff(old, conflict, previousRegistration);
+        if (registerError != null) {
+            throw new IllegalStateException("GRPC Server " + scopeName + " reloaded, but register failed", registerError);
+        }
+        log.info("GRPC Server {} reloaded in {}ms, listening on port {}", scopeName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), next.server.getPort());
+    }
+
+    /**
+     * 后台关闭 reload 之前的 server
+     */
+    private void handoff(MultiServer old, boolean alreadyShutdown, ScopeRegistration previousRegistration) {
+        final var handoffMills = this.gRpcServerProperties.getReload().getHandoffMills();
+        final var threadFactory = new ThreadFactoryBuilder().setNameFormat("grpc-handoff-" + old.scopeName + "-%d").setDaemon(true).build();
+        final var future = CompletableFuture.runAsync(() -> {
+            try {
+                if (previousRegistration != null) {
+                    // 新地址已经注册 先摘掉旧地址 同一个地址时 key 已经绑定到新的 lease 不会被删除
+                    deregister(old.scopeName, previousRegistration);
                 }
-                newServerBuilder.addService(bindableService);
-                if (health != null) {
-                    health.setStatus(bindableService.bindService().getServiceDescriptor().getName(), HealthCheckResponse.ServingStatus.SERVING);
+                if (!alreadyShutdown) {
+                    // 等待负载均衡把流量切到新地址
+                    Thread.sleep(handoffMills);
+                    old.shutdown();
                 }
-                // 保存所有的 apis
-                services.put(entry.getKey(), bindableService);
+                if (!old.awaitTermination(Math.max(handoffMills, old.config.getShutdownGracefullyMills()))) {
+                    old.shutdownNow();
+                }
+                releaseServer(old);
+                log.info("GRPC Server {} previous server stopped", old.scopeName);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                old.shutdownNow();
+            } catch (Exception e) {
+                log.error("GRPC Server {} previous server stop error", old.scopeName, e);
             }
+        }, command -> threadFactory.newThread(command).start());
+        this.handoffs.add(future);
+        future.whenComplete((v, e) -> this.handoffs.remove(future));
+    }
 
-            serverBuilders.add(new ServerBuilders(newServerBuilder, health, entry.getKey().value(), config));
-            log.info("GRPC scopeName {} add new builder", entry.getKey().value());
+    /**
+     * 所有 scope 并行 bind + listen，单个 barrier 等待全部完成
+     * 任意一个 scope 失败或者超时，回滚已经启动的 server
+     */
+    private ImmutableList<MultiServer> startAll(List<ServerBuilders> serverBuilders) {
+        final var startupExecutor = Executors.newFixedThreadPool(serverBuilders.size(),
+                new ThreadFactoryBuilder().setNameFormat("grpc-startup-%d").setDaemon(true).build());
+        final var completion = new ExecutorCompletionService<MultiServer>(startupExecutor);
+        final var started = new ConcurrentLinkedQueue<MultiServer>();
+        final var futures = Lists.<Future<MultiServer>>newArrayList();
+
+        for (var serverBuilder : serverBuilders) {
+            futures.add(completion.submit(() -> {
+                final var multiServer = startScope(serverBuilder);
+                started.add(multiServer);
+                return multiServer;
+            }));
         }
 
-        for (var server : this.gRpcServerProperties.getServers().entrySet()) {
-            var exists = false;
-            for (ServerBuilders serverBuilder : serverBuilders) {
-                if (server.getKey().equals(serverBuilder.scopeName)) {
-                    exists = true;
-                    break;
+        final var timeoutNanos = TimeUnit.MILLISECONDS.toNanos(this.gRpcServerProperties.getStartupTimeoutMills());
+        final var deadline = System.nanoTime() + timeoutNanos;
+        try {
+            for (int i = 0; i < serverBuilders.size(); i++) {
+                final var done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    throw new TimeoutException("GRPC Server startup timeout " + this.gRpcServerProperties.getStartupTimeoutMills() + "ms");
                 }
+                // 失败立即抛出 不等待其它 scope
+                done.get();
             }
-            if (!exists) {
-                throw new IllegalArgumentException("Scope " + server.getKey() + " exists, but no handler is configured");
+            final var builder = ImmutableList.<MultiServer>builder();
+            for (Future<MultiServer> future : futures) {
+                builder.add(future.get());
+            }
+            return builder.build();
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            startupExecutor.shutdownNow();
+            try {
+                // 等待还在运行的 scope 结束 保证 started 里面是完整的
+                startupExecutor.awaitTermination(this.gRpcServerProperties.getStartupTimeoutMills(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
             }
+            rollback(serverBuilders, ImmutableList.copyOf(started));
+            throw new IllegalStateException("GRPC Server start failed, all scopes rolled back", e instanceof ExecutionException ? e.getCause() : e);
+        } finally {
+            startupExecutor.shutdown();
         }
+    }
 
-        if (serverBuilders.size() != scopeHandlers.asMap().size() || serverBuilders.size() != this.gRpcServerProperties.getServers().size()) {
-            // 启动的server与配置的 或者 bean注解的个数不匹配
-            throw new IllegalArgumentException("Config error, please check config or annotation");
+    private MultiServer startScope(ServerBuilders serverBuilder) throws IOException {
+        final var bindBegin = System.nanoTime();
+        for (ServiceChain serviceChain : serverBuilder.chains) {
+            // bindService 每次调用都会重新构建 definition 只调用一次
+            final var definition = serviceChain.service.bindService();
+            // 零拷贝释放 buffer 的 listener 需要在拦截器链的最外层
+            final var intercepted = ZeroCopyMarshallers.apply(ServerInterceptors.interceptForward(definition, serviceChain.interceptors),
+                    serverBuilder.config.getZeroCopy());
+            for (ServerBuilder<?> builder : serverBuilder.serverBuilders) {
+                builder.addService(intercepted);
+            }
+            dumpChain(serverBuilder.scopeName, definition, serviceChain.interceptors);
         }
+        serverBuilder.timing.setBindNanos(System.nanoTime() - bindBegin);
 
-        // 发送 message 到 对应的 拦截器 通知到 bean 注册成功的消息
-        for (var entry : scopeInterceptorUtils.getRef().asMap().entrySet()) {
-            var found = services.get(entry.getKey());
-            Preconditions.checkNotNull(found);
-            for (ScopeServerInterceptor scopeServerInterceptor : entry.getValue()) {
-                scopeServerInterceptor.aware(entry.getKey(), ImmutableList.copyOf(found));
+        final var listenBegin = System.nanoTime();
+        final var server = serverBuilder.serverBuilders.get(0).build().start();
+        Server inProcessServer = null;
+        if (serverBuilder.serverBuilders.size() > 1) {
+            try {
+                inProcessServer = serverBuilder.serverBuilders.get(1).build().start();
+            } catch (IOException | RuntimeException e) {
+                server.shutdownNow();
+                throw e;
             }
         }
+        final var multiServer = new MultiServer(server, inProcessServer, serverBuilder.healthStatusManager, serverBuilder.executor, serverBuilder.nettyShared,
+                serverBuilder.scope, serverBuilder.config);
+        serverBuilder.timing.setListenNanos(System.nanoTime() - listenBegin);
+        // 如需要注册的 consul 等 在这里发布 event
+        log.info("GRPC Server {} started, listening on port {}", serverBuilder.scopeName, server.getPort());
+        return multiServer;
+    }
 
-        final var daemon = DaemonThreads.newDaemonThreads(this.gRpcServerProperties.getServers().size(),
-                "Multi grpc server awaiter", (handler, e) -> {
-                    log.error("E: {}", handler, e);
-                });
+    /**
+     * 启动失败时关闭已经启动的 server 以及已经创建的线程池 event loop
+     */
+    private void rollback(List<ServerBuilders> serverBuilders, ImmutableList<MultiServer> started) {
+        for (MultiServer multiServer : started) {
+            log.warn("GRPC Server {} rollback", multiServer.scopeName);
+            multiServer.shutdownNow();
+        }
+        for (ServerBuilders serverBuilder : serverBuilders) {
+            releaseBuilder(serverBuilder, started);
+        }
+        this.actuator.stop();
+        if (this.nettyShared != null) {
+            // 所有 scope 释放之后已经关闭 兜底关闭遗漏的引用 避免 event loop 的线程泄漏
+            try {
+                this.nettyShared.releaseAll(serverBuilders.stream().mapToInt(serverBuilder -> serverBuilder.config.getShutdownGracefullyMills()).max().orElse(0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.nettyShared = null;
+        }
+        this.scheduler = null;
+    }
 
-        final var serversBuilder = ImmutableList.<MultiServer>builder();
+    /**
+     * newScopeBuilder 中途失败时调用
+     */
+    private static void releaseBuilder(String scopeName, GRpcServerProperties.ServerItem config, ExecutorService executor, NettyShared nettyShared) {
+        try {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (nettyShared != null) {
+                nettyShared.release(config.getShutdownGracefullyMills());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("GRPC Server {} rollback error", scopeName, e);
+        }
+    }
 
-        for (var serverBuilder : serverBuilders) {
-            try {
-                daemon.startThreads(serverBuilder.scopeName, () -> {
-                    final var server = serverBuilder.serverBuilder.build().start();
-                    // 如需要注册的 consul 等 在这里发布 event
-                    log.info("GRPC Server {} started, listening on port {}", serverBuilder.scopeName, server.getPort());
-                    serversBuilder.add(new MultiServer(server, serverBuilder.healthStatusManager, serverBuilder.scopeName, serverBuilder.config));
-                });
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+    private static void releaseBuilder(ServerBuilders serverBuilder, List<MultiServer> started) {
+        try {
+            for (MultiServer multiServer : started) {
+                if (multiServer.scopeName.equals(serverBuilder.scopeName)) {
+                    multiServer.awaitTermination(serverBuilder.config.getShutdownGracefullyMills());
+                }
+            }
+            if (serverBuilder.executor != null) {
+                serverBuilder.executor.shutdownNow();
             }
+            if (serverBuilder.nettyShared != null) {
+                serverBuilder.nettyShared.release(serverBuilder.config.getShutdownGracefullyMills());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("GRPC Server {} rollback error", serverBuilder.scopeName, e);
         }
+    }
 
-        this.daemonThreads = daemon;
-        this.servers = serversBuilder.build();
+    /**
+     * server 已经停止之后 回收该 scope 的线程池和共享的 event loop
+     */
+    private static void releaseServer(MultiServer server) throws InterruptedException {
+        if (server.executor != null) {
+            // server 已经停止 排空业务线程池里剩余的任务
+            ScopeExecutors.shutdown(server.executor, server.config.getShutdownGracefullyMills());
+        }
+        if (server.nettyShared != null) {
+            // 最后一个 scope 停止才会真正关闭 event loop
+            server.nettyShared.release(server.config.getShutdownGracefullyMills());
+        }
+    }
 
-        // fixme 暂无需要使用的场景
-//        this.applicationContext.publishEvent(new ScopeServicesEvent(new ScopeServicesEventEntities(services)));
+    /**
+     * 按 @Order 排序 同时识别类上和 @Bean 方法上的 @Order 没有 @Order 的保持注册顺序
+     */
+    private ImmutableList<ServerInterceptor> getOrderedInterceptors(Class<? extends Annotation> annotation) {
+        final var found = Sets.newIdentityHashSet();
+        for (Object value : this.applicationContext.getBeansWithAnnotation(annotation).values()) {
+            Preconditions.checkArgument(value instanceof ServerInterceptor, "Annotation @" + annotation.getSimpleName() + " class must be instance of io.grpc.ServerInterceptor");
+            found.add(value);
+        }
+        return this.applicationContext.getBeanProvider(ServerInterceptor.class)
+                .orderedStream()
+                .filter(found::contains)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private static void dumpChain(String scopeName, ServerServiceDefinition definition, ImmutableList<ServerInterceptor> interceptors) {
+        final var chain = interceptors.stream()
+                .map(c -> c.getClass().getSimpleName().isEmpty() ? c.getClass().getName() : c.getClass().getSimpleName())
+                .collect(Collectors.joining(" -> "));
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            log.info("GRPC scopeName {} method {} interceptors [{}]", scopeName, method.getMethodDescriptor().getFullMethodName(), chain);
+        }
     }
 
     @Override
-    public void stop() {
+    public synchronized void stop() {
         log.info("grpc server stopping...");
         if (this.servers != null) {
+            // 先从注册中心注销 与 NOT_SERVING 一起在 drain 期间让 client 摘掉流量
+            deregisterAll();
+            // 先切换为 NOT_SERVING 等负载均衡摘掉流量之后再断开连接
+            final var drainMills = this.actuator.drain();
+            if (drainMills > 0) {
+                log.info("gRPC server draining {}ms", drainMills);
+                try {
+                    Thread.sleep(drainMills);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             for (var server : this.servers) {
                 this.daemonThreads.downThreads(server.scopeName, () -> {
-                    if (server.healthStatusManager != null) {
-                        for (ServerServiceDefinition service : server.server.getServices()) {
-                            server.healthStatusManager.clearStatus(service.getServiceDescriptor().getName());
-                        }
-                    }
-                    server.server.shutdown();
-                    server.server.awaitTermination(server.config.getShutdownGracefullyMills(), TimeUnit.MILLISECONDS);
+                    server.shutdown();
+                    server.awaitTermination(server.config.getShutdownGracefullyMills());
+                    releaseServer(server);
                     log.info("gRPC server {} stopped", server.scopeName);
                 });
             }
+            // reload 之前的 server 还在 handoff
+            for (CompletableFuture<Void> handoff : this.handoffs) {
+                try {
+                    handoff.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    log.error("gRPC server handoff error", e.getCause());
+                }
+            }
             this.servers = null;
+            this.discovery = null;
+            this.nettyShared = null;
+            this.scheduler = null;
+            this.actuator.stop();
             log.info("gRPC server all stopped");
         }
     }
 
+    /**
+     * 按 scope 的 discovery 配置注册 readiness 变化时同步到注册中心
+     *
+     * @return 该 scope 之前的注册 reload 时由调用方注销
+     */
+    private ScopeRegistration register(MultiServer server) {
+        final var scopeName = server.scopeName;
+        final var registration = ScopeRegistrations.register(scopeName, server.config, server.server.getPort(), () -> {
+            final var scope = this.actuator.getScopes().get(scopeName);
+            return scope != null && scope.isReady();
+        });
+        return registration != null ? this.registrations.put(scopeName, registration) : this.registrations.remove(scopeName);
+    }
+
+    /**
+     * 注销失败不影响其它 scope 以及 server 的关闭，注册中心在 ttl 之后会自动删除
+     */
+    private void deregisterAll() {
+        for (var entry : this.registrations.entrySet()) {
+            deregister(entry.getKey(), entry.getValue());
+        }
+        this.registrations.clear();
+    }
+
+    private static void deregister(String scopeName, ScopeRegistration registration) {
+        try {
+            registration.deregister();
+        } catch (RuntimeException e) {
+            log.warn("GRPC Server {} deregister failed", scopeName, e);
+        }
+    }
+
+    /**
+     * 各 scope 启动耗时 未启动时为空
+     */
+    public ImmutableMap<String, ScopeStartupTiming> getStartupTimings() {
+        return startupTimings;
+    }
+
+    /**
+     * 各 scope 的 liveness/readiness
+     */
+    public Actuator getActuator() {
+        return actuator;
+    }
+
     @Override
     public boolean isRunning() {
         return this.daemonThreads != null && this.daemonThreads.isHealth();
@@ -284,36 +718,219 @@ public class GRpcServers implements SmartLifecycle, ApplicationContextAware {
         this.applicationContext = applicationContext;
     }
 
-    private ServerBuilder<?> getServerBuilder(GRpcServerProperties.ServerItem serverItem) {
-        // fixme 处理 netty netty shared
-        return NettyServerBuilder.forAddress(GetAddress.getSocketAddress(serverItem.getAddress()));
+    /**
+     * @return 配置了 nettySharedConfig 时为共享的 event loop，没有配置的 unix domain socket scope 单独创建，其它为 null 返回之前已经 retain
+     */
+    private NettyShared getNettyShared(String scopeName, GRpcServerProperties.ServerItem serverItem) {
+        if (serverItem.getInProcess() == GRpcServerProperties.InProcessMode.ONLY) {
+            return null;
+        }
+        final var sharedConfig = serverItem.getNettySharedConfig();
+        if (sharedConfig != null) {
+            // 第一个 shared scope 决定 event loop 的创建参数 reload 之后可能已经全部释放
+            if (this.nettyShared == null || this.nettyShared.isReleased()) {
+                this.nettyShared = NettyShared.newNettyShared(sharedConfig);
+            }
+            return this.nettyShared.retain();
+        }
+        if (GetAddress.isDomainSocket(serverItem.getAddress())) {
+            return NettyShared.newDomainSocket(scopeName).retain();
+        }
+        return null;
+    }
+
+    /**
+     * @return executor type 为 shared 时为共享的 scheduler，其它为 null
+     */
+    private ScopeScheduler getScheduler(GRpcServerProperties.ServerItem serverItem) {
+        if (serverItem.getExecutor().getType() != GRpcServerProperties.ExecutorType.SHARED) {
+            return null;
+        }
+        // reload 之后可能所有 lane 已经关闭
+        if (this.scheduler == null || this.scheduler.isReleased()) {
+            this.scheduler = ScopeScheduler.newScopeScheduler(this.gRpcServerProperties.getScheduler());
+        }
+        return this.scheduler;
+    }
+
+    private static ServerBuilder<?> getServerBuilder(String scopeName, GRpcServerProperties.ServerItem serverItem, NettyShared nettyShared) {
+        if (serverItem.getInProcess() == GRpcServerProperties.InProcessMode.ONLY) {
+            // 不监听端口 只能在同一个 jvm 内通过 scopeName 访问
+            return InProcessServerBuilder.forName(scopeName);
+        }
+        final var domainSocket = GetAddress.isDomainSocket(serverItem.getAddress());
+        // 本机 sidecar 代理通过 unix domain socket 转发 省掉 loopback tcp
+        final var builder = domainSocket
+                ? NettyServerBuilder.forAddress(new DomainSocketAddress(GetAddress.getDomainSocketPath(serverItem.getAddress())))
+                : NettyServerBuilder.forAddress(GetAddress.getSocketAddress(serverItem.getAddress()));
+        applyNettyConfig(serverItem.checkOrGetNettyConfig(), builder);
+        if (nettyShared == null) {
+            return builder;
+        }
+        nettyShared.apply(serverItem.getNettySharedConfig() != null ? serverItem.getNettySharedConfig() : nettyShared.getConfig(), builder);
+        return domainSocket ? nettyShared.domainSocket(builder) : builder;
+    }
+
+    private static void applyNettyConfig(GRpcServerProperties.NettyConfig nettyConfig, NettyServerBuilder builder) {
+        builder.maxInboundMessageSize(nettyConfig.getMaxInboundSize())
+                .maxInboundMetadataSize(nettyConfig.getMaxInboundMetadataSize())
+                .flowControlWindow(nettyConfig.getFlowControlWindow())
+                .maxConcurrentCallsPerConnection(nettyConfig.getMaxConcurrentCallsPerConnection())
+                .keepAliveTime(nettyConfig.getKeepAliveTimeMills(), TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(nettyConfig.getKeepAliveTimeoutMills(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveTime(nettyConfig.getPermitKeepAliveTimeMills(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveWithoutCalls(nettyConfig.isPermitKeepAliveWithoutCalls());
+        // 0 表示不限制 使用 grpc 默认值
+        if (nettyConfig.getMaxConnectionIdleMills() > 0) {
+            builder.maxConnectionIdle(nettyConfig.getMaxConnectionIdleMills(), TimeUnit.MILLISECONDS);
+        }
+        if (nettyConfig.getMaxConnectionAgeMills() > 0) {
+            builder.maxConnectionAge(nettyConfig.getMaxConnectionAgeMills(), TimeUnit.MILLISECONDS);
+        }
+        if (nettyConfig.getMaxConnectionAgeGraceMills() > 0) {
+            builder.maxConnectionAgeGrace(nettyConfig.getMaxConnectionAgeGraceMills(), TimeUnit.MILLISECONDS);
+        }
     }
 
     private static final class MultiServer {
+        // inProcess=ONLY 时为 in-process server
         final Server server;
+        // inProcess=ALSO 时额外的 in-process server 否则为 null
+        final Server inProcessServer;
         final HealthStatusManager healthStatusManager;
+        final ExecutorService executor;
+        // 没有使用共享 event loop 时为 null
+        final NettyShared nettyShared;
+        final GRpcScope scope;
         final String scopeName;
         final GRpcServerProperties.ServerItem config;
 
-        MultiServer(Server server, HealthStatusManager healthStatusManager, String scopeName, GRpcServerProperties.ServerItem config) {
+        MultiServer(Server server, Server inProcessServer, HealthStatusManager healthStatusManager, ExecutorService executor, NettyShared nettyShared,
+                    GRpcScope scope, GRpcServerProperties.ServerItem config) {
             this.server = server;
+            this.inProcessServer = inProcessServer;
             this.healthStatusManager = healthStatusManager;
-            this.scopeName = scopeName;
+            this.executor = executor;
+            this.nettyShared = nettyShared;
+            this.scope = scope;
+            this.scopeName = scope.value();
             this.config = config;
         }
+
+        void shutdown() {
+            this.server.shutdown();
+            if (this.inProcessServer != null) {
+                this.inProcessServer.shutdown();
+            }
+        }
+
+        void shutdownNow() {
+            this.server.shutdownNow();
+            if (this.inProcessServer != null) {
+                this.inProcessServer.shutdownNow();
+            }
+        }
+
+        boolean awaitTermination(long timeoutMills) throws InterruptedException {
+            final var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMills);
+            if (!this.server.awaitTermination(timeoutMills, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            return this.inProcessServer == null || this.inProcessServer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * reload 时新 server 是否需要等旧 server 停止 listen 之后才能启动
+         */
+        boolean conflicts(GRpcServerProperties.ServerItem newConfig) {
+            final var oldMode = this.config.getInProcess();
+            final var newMode = newConfig.getInProcess();
+            final var tcp = oldMode != GRpcServerProperties.InProcessMode.ONLY && newMode != GRpcServerProperties.InProcessMode.ONLY
+                    && Objects.equals(newConfig.getAddress(), this.config.getAddress());
+            final var inProcess = oldMode != GRpcServerProperties.InProcessMode.NONE && newMode != GRpcServerProperties.InProcessMode.NONE;
+            return tcp || inProcess;
+        }
     }
 
     private static final class ServerBuilders {
-        final ServerBuilder<?> serverBuilder;
+        // 第一个是主 server inProcess=ALSO 时第二个是 in-process server
+        final ImmutableList<ServerBuilder<?>> serverBuilders;
         final HealthStatusManager healthStatusManager;
+        final Actuator.ScopeHealth scopeHealth;
+        final ExecutorService executor;
+        final NettyShared nettyShared;
+        final GRpcScope scope;
         final String scopeName;
         final GRpcServerProperties.ServerItem config;
-
-        ServerBuilders(ServerBuilder<?> serverBuilder, HealthStatusManager healthStatusManager, String scopeName, GRpcServerProperties.ServerItem config) {
-            this.serverBuilder = serverBuilder;
+        final ScopeStartupTiming timing;
+        // 每个 service 预先计算好的拦截器链
+        final List<ServiceChain> chains = Lists.newArrayList();
+
+        ServerBuilders(ImmutableList<ServerBuilder<?>> serverBuilders, HealthStatusManager healthStatusManager, Actuator.ScopeHealth scopeHealth,
+                       ExecutorService executor, NettyShared nettyShared, GRpcScope scope,
+                       GRpcServerProperties.ServerItem config, ScopeStartupTiming timing) {
+            this.serverBuilders = serverBuilders;
             this.healthStatusManager = healthStatusManager;
-            this.scopeName = scopeName;
+            this.scopeHealth = scopeHealth;
+            this.executor = executor;
+            this.nettyShared = nettyShared;
+            this.scope = scope;
+            this.scopeName = scope.value();
             this.config = config;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * start 时解析出来的 handler 与拦截器，reload 时复用
+     */
+    private static final class ScopeDiscovery {
+        final ImmutableList<ServerInterceptor> allGlobalInterceptors;
+        final ListMultimap<GRpcScope, BindableService> scopeHandlers;
+        final ListMultimap<GRpcScope, ServerInterceptor> scopeInterceptors;
+        final ImmutableMap<String, Codec> availableCodecs;
+        // reload 的 scope 继续使用之前的拦截器实例
+        final DynamicScopeFilterUtils scopeInterceptorUtils = new DynamicScopeFilterUtils();
+
+        ScopeDiscovery(ImmutableList<ServerInterceptor> allGlobalInterceptors, ListMultimap<GRpcScope, BindableService> scopeHandlers,
+                       ListMultimap<GRpcScope, ServerInterceptor> scopeInterceptors, ImmutableMap<String, Codec> availableCodecs) {
+            this.allGlobalInterceptors = allGlobalInterceptors;
+            this.scopeHandlers = scopeHandlers;
+            this.scopeInterceptors = scopeInterceptors;
+            this.availableCodecs = availableCodecs;
+        }
+    }
+
+    private static final class ServiceChain {
+        final BindableService service;
+        // 执行顺序 第一个最先执行
+        final ImmutableList<ServerInterceptor> interceptors;
+
+        ServiceChain(BindableService service, ImmutableList<ServerInterceptor> interceptors) {
+            this.service = service;
+            this.interceptors = interceptors;
+        }
+    }
+
+    /**
+     * 去重 同一个实例只保留第一次出现的位置
+     */
+    private static final class InterceptorChainBuilder {
+        private final Set<ServerInterceptor> added = Sets.newIdentityHashSet();
+        private final ImmutableList.Builder<ServerInterceptor> chain = ImmutableList.builder();
+
+        void add(ServerInterceptor interceptor) {
+            if (this.added.add(interceptor)) {
+                this.chain.add(interceptor);
+            }
+        }
+
+        void addAll(List<ServerInterceptor> interceptors) {
+            interceptors.forEach(this::add);
+        }
+
+        ImmutableList<ServerInterceptor> build() {
+            return this.chain.build();
         }
     }
 
@@ -322,34 +939,25 @@ public class GRpcServers implements SmartLifecycle, ApplicationContextAware {
      */
     private static final class DynamicScopeFilterUtils {
 
-        // 拦截器对应了 多个 scope
-        private final Multimap<ScopeServerInterceptor, GRpcScope> ref = Multimaps.newSetMultimap(Maps.newHashMap(), Sets::newHashSet);
-        private final Multimap<GRpcScope, ScopeServerInterceptor> newRef = Multimaps.newSetMultimap(Maps.newHashMap(), Sets::newHashSet);
-
-        // a -> B inter
-        // b -> B inter
-        // c -> B inter
-        // d -> C inter
-        // f -> C inter
+        // 拦截器实例 -> scope -> 该 scope 使用的实例 第一个 scope 使用原实例 其它 scope 使用 clone
+        private final Map<ScopeServerInterceptor, Map<GRpcScope, ScopeServerInterceptor>> ref = Maps.newIdentityHashMap();
+        private final Multimap<GRpcScope, ScopeServerInterceptor> newRef = Multimaps.newSetMultimap(Maps.newHashMap(), Sets::newIdentityHashSet);
 
-        // =>
-        //
         public ServerInterceptor addCheck(GRpcScope scope, ServerInterceptor object) {
             if (object instanceof ScopeServerInterceptor) {
                 var serverInterceptor = (ScopeServerInterceptor) object;
                 // 该 scope 被启用
                 if (serverInterceptor.getScopes().contains(scope.value())) {
-                    // 这个作用域下 同一个 拦截器实例
-                    var founds = ref.get(serverInterceptor);
-                    if (founds == null || founds.size() == 0) {
-                        newRef.put(scope, serverInterceptor);
-                        ref.put(serverInterceptor, scope);
-                    } else if (!founds.contains(scope)) {
-                        var newObject = serverInterceptor.cloneThis();
-                        newRef.put(scope, newObject);
-                        ref.put(serverInterceptor, scope);
-                        return newObject;
+                    final var founds = ref.computeIfAbsent(serverInterceptor, k -> Maps.newHashMap());
+                    // 同一个 scope 下多个 service 复用同一个实例
+                    final var found = founds.get(scope);
+                    if (found != null) {
+                        return found;
                     }
+                    final var newObject = founds.isEmpty() ? serverInterceptor : serverInterceptor.cloneThis();
+                    founds.put(scope, newObject);
+                    newRef.put(scope, newObject);
+                    return newObject;
                 }
             }
             return object;
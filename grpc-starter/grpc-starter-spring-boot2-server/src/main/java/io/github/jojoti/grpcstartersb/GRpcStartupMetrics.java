@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * 各 scope 启动阶段耗时 grpc.server.startup{scope, phase}
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcStartupMetrics implements MeterBinder {
+
+    private final GRpcServers gRpcServers;
+    private final GRpcServerProperties gRpcServerProperties;
+
+    public GRpcStartupMetrics(GRpcServers gRpcServers, GRpcServerProperties gRpcServerProperties) {
+        this.gRpcServers = gRpcServers;
+        this.gRpcServerProperties = gRpcServerProperties;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (this.gRpcServerProperties.getServers() == null) {
+            return;
+        }
+        for (String scopeName : this.gRpcServerProperties.getServers().keySet()) {
+            register(registry, scopeName, "discovery", ScopeStartupTiming::getDiscoveryNanos);
+            register(registry, scopeName, "interceptor", ScopeStartupTiming::getInterceptorNanos);
+            register(registry, scopeName, "bind", ScopeStartupTiming::getBindNanos);
+            register(registry, scopeName, "listen", ScopeStartupTiming::getListenNanos);
+        }
+    }
+
+    private void register(MeterRegistry registry, String scopeName, String phase, ToLongFunction<ScopeStartupTiming> getter) {
+        TimeGauge.builder("grpc.server.startup", this.gRpcServers, TimeUnit.NANOSECONDS, servers -> {
+                    // 启动之前为 0
+                    final var timing = servers.getStartupTimings().get(scopeName);
+                    return timing == null ? 0 : getter.applyAsLong(timing);
+                })
+                .tag("scope", scopeName)
+                .tag("phase", phase)
+                .description("gRPC server startup phase duration")
+                .register(registry);
+    }
+
+}
@@ -16,12 +16,17 @@
 
 package io.github.jojoti.grpcstartersb;
 
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
 import io.grpc.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * 全局异常处理
+ * <p>
+ * onMessage/onHalfClose/onReady 抛出的异常按 GRpcExceptionMappings 转换成 Status 关闭 call
+ * onComplete/onCancel 时 call 已经结束 只记录日志
+ * 只有未映射的异常才打印堆栈，并且按异常类型限流
  *
  * <p>
  * https://stackoverflow.com/questions/39797142/how-to-add-global-exception-interceptor-in-grpc-server
@@ -39,29 +44,99 @@ public final class GlobalExceptionInterceptor implements ServerInterceptor {
 
     private static final Logger log = LoggerFactory.getLogger(GlobalExceptionInterceptor.class);
 
-    GlobalExceptionInterceptor() {
+    private final GRpcExceptionMappings mappings;
+    private final ExceptionLogSampler sampler;
+
+    GlobalExceptionInterceptor(GRpcExceptionMappings mappings, ExceptionLogSampler sampler) {
+        this.mappings = mappings;
+        this.sampler = sampler;
     }
 
     public static GlobalExceptionInterceptor newGlobalExceptionInterceptor() {
-        return new GlobalExceptionInterceptor();
+        return newGlobalExceptionInterceptor(GRpcExceptionMappings.newBuilder().build(), new GRpcServerProperties.ExceptionLogConfig());
+    }
+
+    public static GlobalExceptionInterceptor newGlobalExceptionInterceptor(GRpcExceptionMappings mappings, GRpcServerProperties.ExceptionLogConfig config) {
+        return new GlobalExceptionInterceptor(mappings, new ExceptionLogSampler(config));
     }
 
     @Override
     public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata requestHeaders, ServerCallHandler<ReqT, RespT> next) {
-        ServerCall.Listener<ReqT> delegate = next.startCall(call, requestHeaders);
+        final ServerCall.Listener<ReqT> delegate;
+        try {
+            delegate = next.startCall(call, requestHeaders);
+        } catch (Exception e) {
+            closeCall(call, e);
+            return new ServerCall.Listener<>() {
+            };
+        }
         return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(delegate) {
 
+            @Override
+            public void onMessage(ReqT message) {
+                try {
+                    super.onMessage(message);
+                } catch (Exception e) {
+                    closeCall(call, e);
+                }
+            }
+
             @Override
             public void onHalfClose() {
                 try {
                     super.onHalfClose();
                 } catch (Exception e) {
                     // 异常处理项目抛出异常才会走到这里
-                    call.close(Status.INTERNAL.withDescription("info: " + e.getMessage()), new Metadata());
-                    log.error("grpc close: ", e);
+                    closeCall(call, e);
+                }
+            }
+
+            @Override
+            public void onReady() {
+                try {
+                    super.onReady();
+                } catch (Exception e) {
+                    closeCall(call, e);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                try {
+                    super.onComplete();
+                } catch (Exception e) {
+                    logException(call, e);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                try {
+                    super.onCancel();
+                } catch (Exception e) {
+                    logException(call, e);
                 }
             }
         };
     }
 
-}
\ No newline at end of file
+    private void closeCall(ServerCall<?, ?> call, Exception e) {
+        final var mapping = this.mappings.resolve(e.getClass());
+        try {
+            mapping.close(call, e);
+        } catch (IllegalStateException closed) {
+            // 业务代码已经 close 之后再抛出异常
+            log.debug("GRPC {} already closed", call.getMethodDescriptor().getFullMethodName());
+        }
+        if (mapping.isLogStackTrace()) {
+            this.sampler.log(call.getMethodDescriptor().getFullMethodName(), e);
+        }
+    }
+
+    private void logException(ServerCall<?, ?> call, Exception e) {
+        if (this.mappings.resolve(e.getClass()).isLogStackTrace()) {
+            this.sampler.log(call.getMethodDescriptor().getFullMethodName(), e);
+        }
+    }
+
+}
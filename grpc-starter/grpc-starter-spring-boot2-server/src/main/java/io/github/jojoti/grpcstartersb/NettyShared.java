@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个 scope 共享的 netty 传输层
+ * <p>
+ * 每个 scope 默认会创建自己的 boss/worker event loop，scope 多的时候线程数和上下文切换都会翻倍
+ * 配置了 nettySharedConfig 的 scope 共用同一组 event loop 与 allocator，引用计数归零后统一关闭
+ * <p>
+ * grpc 对外部传入的 event loop 不负责关闭，需要自己 release
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class NettyShared {
+
+    private static final Logger log = LoggerFactory.getLogger(NettyShared.class);
+
+    private final GRpcServerProperties.NettySharedConfig config;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Class<? extends ServerChannel> channelType;
+    private final PooledByteBufAllocator allocator;
+
+    private int refCount = 0;
+
+    private NettyShared(GRpcServerProperties.NettySharedConfig config, String namePrefix) {
+        this.config = config;
+        final var bossFactory = newThreadFactory(namePrefix + "-boss-%d");
+        final var workerFactory = newThreadFactory(namePrefix + "-worker-%d");
+        if (config.isEpoll() && Epoll.isAvailable()) {
+            this.bossGroup = new EpollEventLoopGroup(config.getBossThreads(), bossFactory);
+            this.workerGroup = new EpollEventLoopGroup(config.getWorkerThreads(), workerFactory);
+            this.channelType = EpollServerSocketChannel.class;
+        } else {
+            this.bossGroup = new NioEventLoopGroup(config.getBossThreads(), bossFactory);
+            this.workerGroup = new NioEventLoopGroup(config.getWorkerThreads(), workerFactory);
+            this.channelType = NioServerSocketChannel.class;
+        }
+        this.allocator = new PooledByteBufAllocator(config.isPreferDirect());
+        log.info("GRPC netty shared transport {} created, boss {} worker {}", this.channelType.getSimpleName(),
+                config.getBossThreads(), config.getWorkerThreads());
+    }
+
+    static NettyShared newNettyShared(GRpcServerProperties.NettySharedConfig config) {
+        return new NettyShared(config, "grpc-shared");
+    }
+
+    /**
+     * unix domain socket 只支持 epoll，没有配置 nettySharedConfig 的 scope 单独创建一组 epoll event loop
+     */
+    static NettyShared newDomainSocket(String scopeName) {
+        Preconditions.checkArgument(Epoll.isAvailable(), "Unix domain socket requires epoll, scope " + scopeName);
+        return new NettyShared(new GRpcServerProperties.NettySharedConfig(), "grpc-" + scopeName);
+    }
+
+    GRpcServerProperties.NettySharedConfig getConfig() {
+        return config;
+    }
+
+    private static ThreadFactory newThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * 每个使用的 scope 调用一次 引用计数 +1，之后不管 scope 是否创建成功都需要 release
+     */
+    synchronized NettyShared retain() {
+        Preconditions.checkState(this.refCount >= 0, "Netty shared already released");
+        this.refCount++;
+        return this;
+    }
+
+    /**
+     * 把共享的 event loop 挂到 builder 上，需要先 retain
+     */
+    synchronized NettyServerBuilder apply(GRpcServerProperties.NettySharedConfig scopeConfig, NettyServerBuilder builder) {
+        // 同一组 event loop 只能按一份配置创建
+        Preconditions.checkArgument(this.config.equals(scopeConfig), "nettySharedConfig must be identical across scopes");
+        Preconditions.checkState(this.refCount > 0, "Netty shared not retained");
+        return builder.bossEventLoopGroup(this.bossGroup)
+                .workerEventLoopGroup(this.workerGroup)
+                .channelType(this.channelType)
+                .withOption(ChannelOption.ALLOCATOR, this.allocator)
+                .withChildOption(ChannelOption.ALLOCATOR, this.allocator);
+    }
+
+    /**
+     * 在 apply 之后调用 把监听 tcp 换成监听 unix domain socket
+     */
+    NettyServerBuilder domainSocket(NettyServerBuilder builder) {
+        Preconditions.checkArgument(this.channelType == EpollServerSocketChannel.class, "Unix domain socket requires epoll, set nettySharedConfig.epoll=true on linux");
+        return builder.channelType(EpollServerDomainSocketChannel.class);
+    }
+
+    /**
+     * 最后一个 scope 停止之后不能再使用，reload 时需要重新创建
+     */
+    synchronized boolean isReleased() {
+        return this.refCount < 0;
+    }
+
+    /**
+     * scope 停止之后调用，最后一个 scope 停止时关闭 event loop
+     */
+    void release(long timeoutMills) throws InterruptedException {
+        synchronized (this) {
+            Preconditions.checkState(this.refCount > 0, "Netty shared release more than retained");
+            if (--this.refCount > 0) {
+                return;
+            }
+            // 防止再次被引用
+            this.refCount = -1;
+        }
+        shutdownGracefully(timeoutMills);
+    }
+
+    /**
+     * 启动回滚时兜底 不管剩余的引用直接关闭，已经关闭时不做任何事
+     */
+    void releaseAll(long timeoutMills) throws InterruptedException {
+        synchronized (this) {
+            if (this.refCount < 0) {
+                return;
+            }
+            this.refCount = -1;
+        }
+        shutdownGracefully(timeoutMills);
+    }
+
+    private void shutdownGracefully(long timeoutMills) throws InterruptedException {
+        final var boss = this.bossGroup.shutdownGracefully(0, timeoutMills, TimeUnit.MILLISECONDS);
+        final var worker = this.workerGroup.shutdownGracefully(0, timeoutMills, TimeUnit.MILLISECONDS);
+        boss.await(timeoutMills, TimeUnit.MILLISECONDS);
+        worker.await(timeoutMills, TimeUnit.MILLISECONDS);
+        log.info("GRPC netty shared transport stopped");
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ServerBuilder;
+
+import java.util.Collection;
+
+/**
+ * 按 scope 注册 compressor/decompressor
+ * <p>
+ * compressor 只注册 scope 配置的 codecs，响应只会使用这个 scope 允许的算法
+ * decompressor 在 grpc 默认的 registry 上追加，客户端用内置的 gzip 等发送的请求依然可以解压
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ScopeCompressors {
+
+    private ScopeCompressors() {
+    }
+
+    /**
+     * 内置 gzip，io.grpc.Codec bean 可以覆盖同名的内置实现
+     */
+    static ImmutableMap<String, Codec> availableCodecs(Collection<Codec> codecBeans) {
+        final var found = Maps.<String, Codec>newLinkedHashMap();
+        found.put(new Codec.Gzip().getMessageEncoding(), new Codec.Gzip());
+        for (Codec codec : codecBeans) {
+            found.put(codec.getMessageEncoding(), codec);
+        }
+        return ImmutableMap.copyOf(found);
+    }
+
+    /**
+     * 没有开启 compression 的 scope 保持 grpc 默认的 registry
+     */
+    static void applyCompression(String scopeName, GRpcServerProperties.CompressionConfig config, ImmutableMap<String, Codec> availableCodecs, ServerBuilder<?> builder) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        final var compressors = CompressorRegistry.newEmptyInstance();
+        compressors.register(Codec.Identity.NONE);
+        var decompressors = DecompressorRegistry.getDefaultInstance();
+        for (String name : config.getCodecs()) {
+            final var codec = availableCodecs.get(name);
+            if (codec == null) {
+                throw new IllegalArgumentException("Scope " + scopeName + " compression codec " + name + " not found, available " + availableCodecs.keySet());
+            }
+            compressors.register(codec);
+            decompressors = decompressors.with(codec, true);
+        }
+        builder.compressorRegistry(compressors).decompressorRegistry(decompressors);
+    }
+
+}
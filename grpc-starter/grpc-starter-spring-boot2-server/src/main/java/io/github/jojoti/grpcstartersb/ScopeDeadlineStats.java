@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个 scope 的 deadline 统计，reload 之后继续累加
+ * <p>
+ * wasted 是 call 被取消 (客户端取消或者 deadline 到期) 之后业务代码仍然在执行的次数和时间
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class ScopeDeadlineStats {
+
+    private final String scopeName;
+    private final LongAdder assigned = new LongAdder();
+    private final LongAdder capped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder wastedCalls = new LongAdder();
+    private final LongAdder wastedNanos = new LongAdder();
+
+    ScopeDeadlineStats(String scopeName) {
+        this.scopeName = scopeName;
+    }
+
+    public String getScopeName() {
+        return scopeName;
+    }
+
+    /**
+     * 客户端没有 deadline 使用 defaultMills 的次数
+     */
+    public long getAssigned() {
+        return assigned.sum();
+    }
+
+    /**
+     * 客户端 deadline 超过 maxMills 被截断的次数
+     */
+    public long getCapped() {
+        return capped.sum();
+    }
+
+    /**
+     * 服务端设置的 deadline 到期 返回 DEADLINE_EXCEEDED 的次数
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getWastedCalls() {
+        return wastedCalls.sum();
+    }
+
+    public long getWastedNanos() {
+        return wastedNanos.sum();
+    }
+
+    void assigned() {
+        this.assigned.increment();
+    }
+
+    void capped() {
+        this.capped.increment();
+    }
+
+    void expired() {
+        this.expired.increment();
+    }
+
+    void wasted(boolean firstTime, long nanos) {
+        if (firstTime) {
+            this.wastedCalls.increment();
+        }
+        this.wastedNanos.add(nanos);
+    }
+
+}
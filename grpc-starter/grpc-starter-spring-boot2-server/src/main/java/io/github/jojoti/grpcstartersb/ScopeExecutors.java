@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.ServerBuilder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * 按 scope 创建业务线程池
+ * <p>
+ * grpc 默认每个 server 使用无上限的 cached 线程池，admin/3rd 这类慢 scope 突发的时候会把 primary 的线程一起拖垮
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ScopeExecutors {
+
+    // 当前线程是否在执行 fixed 线程池饱和时被拒绝的任务
+    private static final ThreadLocal<Boolean> SATURATED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    // overflow 线程只负责关闭新的 call
+    static final int OVERFLOW_CAPACITY = 1024;
+
+    private ScopeExecutors() {
+    }
+
+    /**
+     * 为 true 时新的 call 应该直接拒绝 见 GRpcSaturationInterceptor
+     */
+    static boolean isSaturated() {
+        return SATURATED.get();
+    }
+
+    /**
+     * @param scheduler 仅 shared 使用
+     * @return 需要在 stop 时回收的线程池，default/direct 返回 null
+     */
+    static ExecutorService applyExecutor(String scopeName, GRpcServerProperties.ExecutorConfig config, ScopeScheduler scheduler, ServerBuilder<?> builder) {
+        final ExecutorService executor;
+        switch (config.getType()) {
+            case DEFAULT:
+                return null;
+            case DIRECT:
+                builder.directExecutor();
+                return null;
+            case FIXED:
+                executor = newFixedExecutor(scopeName, config);
+                break;
+            case FORK_JOIN:
+                executor = new ForkJoinPool(config.getCoreSize(), pool -> {
+                    final var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("grpc-" + scopeName + "-" + thread.getPoolIndex());
+                    return thread;
+                }, null, true);
+                break;
+            case VIRTUAL:
+                executor = newVirtualThreadPerTaskExecutor();
+                break;
+            case SHARED:
+                // 关闭的是该 scope 的 lane 最后一个 lane 关闭之后 scheduler 的线程退出
+                executor = scheduler.newLane(scopeName, config);
+                break;
+            default:
+                throw new IllegalArgumentException("Executor type " + config.getType() + " unsupported");
+        }
+        builder.executor(executor);
+        return executor;
+    }
+
+    /**
+     * 默认的 AbortPolicy 会在 grpc 传输层抛出 RejectedExecutionException，client 只能收到 INTERNAL/RST_STREAM
+     * <p>
+     * queueCapacity 只限制新的 call，已经接收的 call 的后续回调 (onMessage/onHalfClose 等) 总是进入队列由 worker 执行 见 AdmissionQueue
+     * 饱和时被拒绝的新 call 交给该 scope 的单个 overflow 线程，在 GRpcSaturationInterceptor 里立即返回 RESOURCE_EXHAUSTED + x-retry-after
+     * overflow 的队列也是有界的，连拒绝都处理不过来的时候只能退回到传输层失败
+     */
+    private static ExecutorService newFixedExecutor(String scopeName, GRpcServerProperties.ExecutorConfig config) {
+        final var overflow = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(OVERFLOW_CAPACITY),
+                new ThreadFactoryBuilder().setNameFormat("grpc-" + scopeName + "-overflow-%d").setDaemon(true).build(),
+                (command, pool) -> {
+                    throw new RejectedExecutionException("GRPC scope " + scopeName + " executor saturated, overflow queue full");
+                });
+        final RejectedExecutionHandler policy = (command, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("GRPC scope " + scopeName + " executor shutdown");
+            }
+            // AdmissionQueue 不会拒绝已经接收的 call 走到这里的只有新的 call
+            overflow.execute(() -> {
+                SATURATED.set(Boolean.TRUE);
+                try {
+                    command.run();
+                } finally {
+                    SATURATED.set(Boolean.FALSE);
+                }
+            });
+        };
+        final var queue = new AdmissionQueue(Math.max(config.getQueueCapacity(), 0));
+        final var executor = new ThreadPoolExecutor(config.getCoreSize(), config.getMaxSize(),
+                config.getKeepAliveMills(), TimeUnit.MILLISECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("grpc-" + scopeName + "-%d").setDaemon(true).build(),
+                policy) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                queue.accept(r);
+                super.beforeExecute(t, r);
+            }
+
+            @Override
+            protected void terminated() {
+                // 已经交给 overflow 的任务继续执行完
+                overflow.shutdown();
+                super.terminated();
+            }
+        };
+        queue.pool = executor;
+        return executor;
+    }
+
+    /**
+     * grpc 给每个 call 一个 SerializingExecutor，call 的每一批回调都是把同一个实例重新提交到业务线程池
+     * <p>
+     * 被 worker 执行过的实例就是已经接收的 call，后续提交不受 capacity 限制，否则饱和时会被当成新的 call 拒绝掉
+     * 这部分超出的数量受已经接收的 call 数量限制，每个 call 同一时刻最多在队列里出现一次
+     * capacity 为 0 时等价于 SynchronousQueue，新的 call 只能直接交给空闲或者新建的线程
+     */
+    private static final class AdmissionQueue extends LinkedBlockingQueue<Runnable> {
+
+        private final int capacity;
+        // 按 identity 比较的弱引用 call 结束之后自动回收
+        private final Set<Runnable> accepted = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+        private ThreadPoolExecutor pool;
+
+        AdmissionQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void accept(Runnable command) {
+            this.accepted.add(command);
+        }
+
+        @Override
+        public boolean offer(Runnable command) {
+            if (size() >= this.capacity && !this.accepted.contains(command) && !hasIdleWorker()) {
+                return false;
+            }
+            return super.offer(command);
+        }
+
+        /**
+         * 有空闲的 worker 在等待时 新的 call 入队之后会被立即取走
+         */
+        private boolean hasIdleWorker() {
+            return this.pool.getActiveCount() + size() < this.pool.getPoolSize();
+        }
+
+    }
+
+    /**
+     * 同一个 scope 的 in-process server 使用同一个线程池
+     */
+    static void shareExecutor(GRpcServerProperties.ExecutorConfig config, ExecutorService executor, ServerBuilder<?> builder) {
+        if (config.getType() == GRpcServerProperties.ExecutorType.DIRECT) {
+            builder.directExecutor();
+        } else if (executor != null) {
+            builder.executor(executor);
+        }
+    }
+
+    static void shutdown(ExecutorService executor, long timeoutMills) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeoutMills, TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 编译目标是 jdk 11 这里使用反射调用 jdk 21 的 api
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final var handle = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) handle.invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Executor type VIRTUAL requires jdk 21+, current " + Runtime.version(), e);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
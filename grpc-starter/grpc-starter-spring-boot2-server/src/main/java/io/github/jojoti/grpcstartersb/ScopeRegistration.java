@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+/**
+ * scope 在注册中心里的一次注册 stop/reload 时注销
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+interface ScopeRegistration {
+
+    /**
+     * 从注册中心移除 client 不再把请求发到这个实例，不抛出异常
+     */
+    void deregister();
+
+}
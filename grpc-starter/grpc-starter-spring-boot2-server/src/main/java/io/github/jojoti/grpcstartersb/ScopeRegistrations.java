@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.github.jojoti.utilguavaext.GetAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 按 scope 的 discovery 配置选择注册中心
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ScopeRegistrations {
+
+    private static final Logger log = LoggerFactory.getLogger(ScopeRegistrations.class);
+
+    private ScopeRegistrations() {
+    }
+
+    /**
+     * @param port  实际监听的端口
+     * @param ready scope 当前是否可以接收流量
+     * @return 没有配置注册中心时为 null
+     */
+    static ScopeRegistration register(String scopeName, GRpcServerProperties.ServerItem config, int port, BooleanSupplier ready) {
+        final var discovery = config.getDiscovery();
+        if (discovery == null || (discovery.getEtcd() == null && discovery.getConsul() == null)) {
+            return null;
+        }
+        if (config.getInProcess() == GRpcServerProperties.InProcessMode.ONLY || GetAddress.isDomainSocket(config.getAddress())) {
+            log.info("GRPC Server {} listens on {}, skip registration", scopeName, config.getInProcess() == GRpcServerProperties.InProcessMode.ONLY ? "in-process" : config.getAddress());
+            return null;
+        }
+        if (discovery.getEtcd() != null) {
+            final var etcd = discovery.getEtcd();
+            final var registration = new EtcdScopeRegistration(scopeName, etcd, advertiseAddress(etcd.getAdvertiseAddress(), config.getAddress(), port), ready);
+            registration.start();
+            return registration;
+        }
+        // consul 的健康状态由 agent 通过 grpc health 检查 不需要 ready
+        final var consul = discovery.getConsul();
+        final var registration = new ConsulScopeRegistration(scopeName, consul, advertiseAddress(consul.getAdvertiseAddress(), config.getAddress(), port));
+        registration.start();
+        return registration;
+    }
+
+    /**
+     * 监听 0.0.0.0/:: 时注册本机地址
+     */
+    static String advertiseAddress(String advertiseAddress, String listenAddress, int port) {
+        if (advertiseAddress != null && !advertiseAddress.isEmpty()) {
+            return HostAndPort.fromString(advertiseAddress).withDefaultPort(port).toString();
+        }
+        var host = HostAndPort.fromString(listenAddress).getHost();
+        if (InetAddresses.isInetAddress(host) && InetAddresses.forString(host).isAnyLocalAddress()) {
+            try {
+                host = InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("Can not get local address, please config advertiseAddress", e);
+            }
+        }
+        return HostAndPort.fromParts(host, port).toString();
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多个 scope 共享的业务线程
+ * <p>
+ * 每个 scope 独立的线程池在竞争时只能靠操作系统调度，无法表达 primary 比 2rd/3rd 更重要
+ * executor type 为 shared 的 scope 各自一个 lane，所有 lane 共用同一组线程，按 weight 做 stride 调度 (加权公平队列)
+ * 每个 lane 还有一个低优先级队列，@GRpcPriority(LOW) 的 method 在这里执行，权重为 weight * lowPriorityRatio
+ * <p>
+ * latencySensitive 的 lane 排队时间 (EWMA) 超过 latencyTargetMills 时，其它队列的权重乘以 throttleRatio，降到一半以下之后恢复
+ * <p>
+ * 所有 lane 关闭之后线程退出，reload 时需要重新创建
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ScopeScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ScopeScheduler.class);
+
+    // 正在执行的 lane 优先级拦截器通过它找到当前 scope 的低优先级队列
+    private static final ThreadLocal<Lane> CURRENT = new ThreadLocal<>();
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final GRpcServerProperties.SchedulerConfig config;
+    private final long latencyTargetNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition laneTerminated = this.lock.newCondition();
+    // 以下字段都由 lock 保护
+    private final List<Queue> queues = Lists.newArrayList();
+    private int lanes = 0;
+    private boolean released = false;
+    private long pending = 0;
+    // 最近一次调度的 pass 新变为非空的队列从这里开始 不能用空闲时攒下的额度插队
+    private double virtualTime = 0;
+    private double sensitiveWaitNanos = 0;
+    private boolean throttled = false;
+
+    private ScopeScheduler(GRpcServerProperties.SchedulerConfig config) {
+        this.config = config;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(config.getLatencyTargetMills());
+        final var threadFactory = new ThreadFactoryBuilder().setNameFormat("grpc-scheduler-%d").setDaemon(true).build();
+        for (int i = 0; i < config.getThreads(); i++) {
+            threadFactory.newThread(this::work).start();
+        }
+        log.info("GRPC scheduler created, threads {} latencyTargetMills {}", config.getThreads(), config.getLatencyTargetMills());
+    }
+
+    static ScopeScheduler newScopeScheduler(GRpcServerProperties.SchedulerConfig config) {
+        return new ScopeScheduler(config);
+    }
+
+    /**
+     * @return 当前线程正在执行的 shared scope 的低优先级队列，不在 scheduler 线程上时为 null
+     */
+    static Executor currentLowPriority() {
+        final var lane = CURRENT.get();
+        return lane == null ? null : lane.lowPriority;
+    }
+
+    /**
+     * 创建 scope 的 lane，每个 lane 引用计数 +1，lane 终止之后 -1
+     */
+    Lane newLane(String scopeName, GRpcServerProperties.ExecutorConfig executorConfig) {
+        this.lock.lock();
+        try {
+            Preconditions.checkState(!this.released, "GRPC scheduler already released");
+            final var lane = new Lane(scopeName, executorConfig);
+            this.queues.add(lane.normal);
+            this.queues.add(lane.low);
+            this.lanes++;
+            return lane;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    boolean isReleased() {
+        this.lock.lock();
+        try {
+            return this.released;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 延迟敏感的 scope 排队超过 latencyTargetMills 时为 true
+     */
+    boolean isThrottled() {
+        this.lock.lock();
+        try {
+            return this.throttled;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Queue queue;
+            final Task task;
+            this.lock.lock();
+            try {
+                while (this.pending == 0 && !this.released) {
+                    this.notEmpty.await();
+                }
+                if (this.pending == 0) {
+                    return;
+                }
+                queue = pick();
+                task = queue.tasks.poll();
+                this.pending--;
+                queue.lane.queued--;
+                queue.lane.running++;
+                account(queue, task);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+            CURRENT.set(queue.lane);
+            try {
+                task.command.run();
+            } catch (Throwable e) {
+                log.error("GRPC scope {} task error", queue.lane.scopeName, e);
+            } finally {
+                CURRENT.remove();
+                this.lock.lock();
+                try {
+                    queue.lane.running--;
+                    queue.lane.tryTerminate();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * pass 最小的非空队列，scope 个数有限 线性查找即可
+     */
+    private Queue pick() {
+        Queue found = null;
+        for (Queue queue : this.queues) {
+            if (!queue.tasks.isEmpty() && (found == null || queue.pass < found.pass)) {
+                found = queue;
+            }
+        }
+        return found;
+    }
+
+    private void account(Queue queue, Task task) {
+        this.virtualTime = queue.pass;
+        final var weight = this.throttled && !queue.latencySensitive ? queue.weight * this.config.getThrottleRatio() : queue.weight;
+        queue.pass += 1 / weight;
+        if (this.latencyTargetNanos <= 0) {
+            return;
+        }
+        if (queue.latencySensitive) {
+            sample(System.nanoTime() - task.enqueuedNanos);
+        } else if (this.throttled && !hasSensitivePending()) {
+            // 延迟敏感的 scope 已经没有排队 逐渐恢复
+            sample(0);
+        }
+    }
+
+    private boolean hasSensitivePending() {
+        for (Queue queue : this.queues) {
+            if (queue.latencySensitive && !queue.tasks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sample(long waitNanos) {
+        this.sensitiveWaitNanos += (waitNanos - this.sensitiveWaitNanos) * EWMA_ALPHA;
+        if (!this.throttled && this.sensitiveWaitNanos > this.latencyTargetNanos) {
+            this.throttled = true;
+            log.warn("GRPC scheduler throttle non latency sensitive scopes, queue wait {}us", (long) this.sensitiveWaitNanos / 1000);
+        } else if (this.throttled && this.sensitiveWaitNanos < this.latencyTargetNanos / 2.0) {
+            // 迟滞 避免在阈值附近来回切换
+            this.throttled = false;
+            log.info("GRPC scheduler throttle cancelled, queue wait {}us", (long) this.sensitiveWaitNanos / 1000);
+        }
+    }
+
+    private static final class Task {
+        private final Runnable command;
+        private final long enqueuedNanos;
+
+        private Task(Runnable command, long enqueuedNanos) {
+            this.command = command;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final class Queue {
+        private final Lane lane;
+        private final double weight;
+        private final boolean latencySensitive;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private double pass;
+
+        private Queue(Lane lane, double weight, boolean latencySensitive) {
+            this.lane = lane;
+            this.weight = weight;
+            this.latencySensitive = latencySensitive;
+        }
+    }
+
+    /**
+     * 单个 scope 的业务线程池，关闭语义与 ThreadPoolExecutor 相同
+     */
+    final class Lane extends AbstractExecutorService {
+
+        private final String scopeName;
+        private final int queueCapacity;
+        private final Queue normal;
+        private final Queue low;
+        private final Executor lowPriority;
+        // 以下字段都由 ScopeScheduler.lock 保护
+        private int queued;
+        private int running;
+        private boolean shutdown;
+        private boolean terminated;
+
+        private Lane(String scopeName, GRpcServerProperties.ExecutorConfig executorConfig) {
+            this.scopeName = scopeName;
+            this.queueCapacity = executorConfig.getQueueCapacity();
+            this.normal = new Queue(this, executorConfig.getWeight(), executorConfig.isLatencySensitive());
+            this.low = new Queue(this, executorConfig.getWeight() * config.getLowPriorityRatio(), false);
+            this.lowPriority = command -> enqueue(this.low, command);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            enqueue(this.normal, command);
+        }
+
+        private void enqueue(Queue queue, Runnable command) {
+            Preconditions.checkNotNull(command);
+            lock.lock();
+            try {
+                if (this.shutdown) {
+                    throw new RejectedExecutionException("GRPC scope " + this.scopeName + " executor shutdown");
+                }
+                if (this.queueCapacity > 0 && this.queued >= this.queueCapacity) {
+                    throw new RejectedExecutionException("GRPC scope " + this.scopeName + " executor queue full " + this.queueCapacity);
+                }
+                if (queue.tasks.isEmpty()) {
+                    queue.pass = Math.max(queue.pass, virtualTime);
+                }
+                queue.tasks.add(new Task(command, System.nanoTime()));
+                this.queued++;
+                pending++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getQueueDepth() {
+            lock.lock();
+            try {
+                return this.queued;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 调用方持有 lock
+         */
+        private void tryTerminate() {
+            if (!this.shutdown || this.terminated || this.queued > 0 || this.running > 0) {
+                return;
+            }
+            this.terminated = true;
+            queues.remove(this.normal);
+            queues.remove(this.low);
+            if (--lanes == 0) {
+                // 最后一个 lane 终止 线程退出
+                released = true;
+                notEmpty.signalAll();
+                log.info("GRPC scheduler released");
+            }
+            laneTerminated.signalAll();
+        }
+
+        @Override
+        public void shutdown() {
+            lock.lock();
+            try {
+                this.shutdown = true;
+                tryTerminate();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            lock.lock();
+            try {
+                this.shutdown = true;
+                final var dropped = Lists.<Runnable>newArrayListWithCapacity(this.queued);
+                for (Queue queue : List.of(this.normal, this.low)) {
+                    for (Task task : queue.tasks) {
+                        dropped.add(task.command);
+                    }
+                    pending -= queue.tasks.size();
+                    queue.tasks.clear();
+                }
+                this.queued = 0;
+                tryTerminate();
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            lock.lock();
+            try {
+                return this.shutdown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            lock.lock();
+            try {
+                return this.terminated;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            var nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!this.terminated) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = laneTerminated.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个 scope 启动各阶段耗时，用于衡量冷启动优化
+ * <p>
+ * discovery 是所有 scope 共享的 bean 扫描耗时
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class ScopeStartupTiming {
+
+    private final String scopeName;
+    private long discoveryNanos;
+    private long interceptorNanos;
+    private long bindNanos;
+    private long listenNanos;
+
+    ScopeStartupTiming(String scopeName) {
+        this.scopeName = scopeName;
+    }
+
+    public String getScopeName() {
+        return scopeName;
+    }
+
+    public long getDiscoveryNanos() {
+        return discoveryNanos;
+    }
+
+    void setDiscoveryNanos(long discoveryNanos) {
+        this.discoveryNanos = discoveryNanos;
+    }
+
+    public long getInterceptorNanos() {
+        return interceptorNanos;
+    }
+
+    void setInterceptorNanos(long interceptorNanos) {
+        this.interceptorNanos = interceptorNanos;
+    }
+
+    public long getBindNanos() {
+        return bindNanos;
+    }
+
+    void setBindNanos(long bindNanos) {
+        this.bindNanos = bindNanos;
+    }
+
+    public long getListenNanos() {
+        return listenNanos;
+    }
+
+    void setListenNanos(long listenNanos) {
+        this.listenNanos = listenNanos;
+    }
+
+    public long getTotalNanos() {
+        return discoveryNanos + interceptorNanos + bindNanos + listenNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "scope " + scopeName
+                + " discovery " + TimeUnit.NANOSECONDS.toMillis(discoveryNanos) + "ms"
+                + " interceptor " + TimeUnit.NANOSECONDS.toMillis(interceptorNanos) + "ms"
+                + " bind " + TimeUnit.NANOSECONDS.toMillis(bindNanos) + "ms"
+                + " listen " + TimeUnit.NANOSECONDS.toMillis(listenNanos) + "ms";
+    }
+
+}
@@ -1,4 +1,4 @@
-package io.github.jojoti.grpcstartersbram;
+package io.github.jojoti.grpcstartersb;
 
 import com.google.common.collect.ImmutableMap;
 import io.grpc.BindableService;
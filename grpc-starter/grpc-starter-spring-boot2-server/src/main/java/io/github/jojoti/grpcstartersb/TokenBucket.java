@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶 (GCRA)
+ * <p>
+ * 只保存一个理论到达时间 tat，每次请求 tat 前进一个发放间隔，tat 超过 now + burst 个间隔时拒绝
+ * tat 不晚于 now 表示桶是满的，与新建的桶等价，可以随时淘汰
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class TokenBucket extends AtomicLong {
+
+    TokenBucket(long nowNanos) {
+        super(nowNanos);
+    }
+
+    /**
+     * @return 0 表示通过，否则为建议的重试等待纳秒
+     */
+    long tryAcquire(Rate rate, long nowNanos) {
+        while (true) {
+            final var tat = get();
+            final var next = Math.max(tat, nowNanos) + rate.intervalNanos;
+            final var overNanos = next - nowNanos - rate.burstNanos;
+            if (overNanos > 0) {
+                return overNanos;
+            }
+            if (compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 超过 idleNanos 没有请求
+     */
+    boolean isIdle(long nowNanos, long idleNanos) {
+        return nowNanos - get() > idleNanos;
+    }
+
+    /**
+     * 发放速率 多个桶共用
+     */
+    public static final class Rate {
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        /**
+         * @param burst 空闲之后允许的突发请求数 0 表示 1s 的量
+         */
+        public Rate(double permitsPerSecond, int burst) {
+            Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond must be > 0");
+            Preconditions.checkArgument(burst >= 0, "burst must be >= 0");
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+            this.burstNanos = this.intervalNanos * (burst > 0 ? burst : Math.max(1, (long) Math.ceil(permitsPerSecond)));
+        }
+    }
+
+}
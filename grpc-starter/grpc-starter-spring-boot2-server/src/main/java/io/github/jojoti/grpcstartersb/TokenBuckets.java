@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 key 分桶的令牌桶表，例如每个 ip 每个 uid 一个桶
+ * <p>
+ * 按 hash 分成多个 stripe，每个 stripe 一个 ConcurrentMap，命中的请求只有一次 get 加一次 CAS
+ * 新建桶时按 stripe 淘汰空闲超过 idleMills 的桶 (空闲的桶是满的 淘汰之后重建没有区别)
+ * 淘汰之后仍然超过 maxEntries 的新 key 共用 stripe 的溢出桶，伪造大量 ip 也只能拿到一个桶的速率
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class TokenBuckets<K> {
+
+    private final TokenBucket.Rate rate;
+    private final long idleNanos;
+    private final int maxEntriesPerStripe;
+    private final Stripe<K>[] stripes;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    public TokenBuckets(TokenBucket.Rate rate, int maxEntries, long idleMills) {
+        Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be >= 1");
+        this.rate = rate;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMills);
+        // 2 的幂 不小于 cpu 数的 4 倍
+        final var size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.stripes = new Stripe[size];
+        this.mask = size - 1;
+        this.maxEntriesPerStripe = Math.max(1, maxEntries / size);
+        final var now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe<>(now);
+        }
+    }
+
+    /**
+     * @return 0 表示通过，否则为建议的重试等待纳秒
+     */
+    public long tryAcquire(K key) {
+        final var now = System.nanoTime();
+        final var hash = key.hashCode();
+        // 高位参与 避免 InetAddress 之类低位相同的 hash 集中在一个 stripe
+        final var stripe = this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+        var bucket = stripe.buckets.get(key);
+        if (bucket == null) {
+            bucket = stripe.insert(key, now, this);
+        }
+        return bucket.tryAcquire(this.rate, now);
+    }
+
+    public int size() {
+        var size = 0;
+        for (Stripe<K> stripe : this.stripes) {
+            size += stripe.buckets.size();
+        }
+        return size;
+    }
+
+    private static final class Stripe<K> {
+        private final ConcurrentMap<K, TokenBucket> buckets = Maps.newConcurrentMap();
+        private final TokenBucket overflow;
+        private volatile long lastSweepNanos;
+
+        private Stripe(long nowNanos) {
+            this.overflow = new TokenBucket(nowNanos);
+            this.lastSweepNanos = nowNanos;
+        }
+
+        private TokenBucket insert(K key, long nowNanos, TokenBuckets<K> table) {
+            // 满了或者距离上一次淘汰超过 idle 时间 并发时多扫一次没有影响
+            if (this.buckets.size() >= table.maxEntriesPerStripe || nowNanos - this.lastSweepNanos > table.idleNanos) {
+                this.lastSweepNanos = nowNanos;
+                this.buckets.values().removeIf(bucket -> bucket.isIdle(nowNanos, table.idleNanos));
+                if (this.buckets.size() >= table.maxEntriesPerStripe) {
+                    return this.overflow;
+                }
+            }
+            final var created = new TokenBucket(nowNanos);
+            final var existing = this.buckets.putIfAbsent(key, created);
+            return existing != null ? existing : created;
+        }
+    }
+
+}
@@ -39,6 +39,9 @@ public interface Trailers {
     // 使用 此方法可以传递更多的 头信息给客户端
     Metadata.Key<String> X_ERROR_METADATA_KEY = Metadata.Key.of("x-err", Metadata.ASCII_STRING_MARSHALLER);
 
+    // 服务端过载拒绝时 建议客户端多少毫秒之后重试
+    Metadata.Key<String> X_RETRY_AFTER_METADATA_KEY = Metadata.Key.of("x-retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
     static StatusException newErrorCode(int error) {
         var trailers = new Metadata();
         trailers.put(X_ERROR_METADATA_KEY, String.valueOf(error));
@@ -60,6 +63,26 @@ public interface Trailers {
         return newErrorCode(error.getValue(), mergeTrailers);
     }
 
+    /**
+     * 预先序列化好的 x-err trailers，同一个错误码只创建一次
+     * <p>
+     * close 时 grpc 会往 trailers 里写入 status，模板不能直接传给 call.close，需要 copyOf
+     */
+    static Metadata newErrorTemplate(int error) {
+        var template = new Metadata();
+        template.put(X_ERROR_METADATA_KEY, String.valueOf(error));
+        return template;
+    }
+
+    /**
+     * merge 只复制已经序列化的 key/value 引用，不会重新序列化
+     */
+    static Metadata copyOf(Metadata template) {
+        var trailers = new Metadata();
+        trailers.merge(template);
+        return trailers;
+    }
+
     static StatusException newErrorTraces(Exception exception) {
         return Status.fromCode(Status.INTERNAL.getCode())
                 .withDescription(exception.getMessage())
@@ -71,4 +94,10 @@ public interface Trailers {
         return Status.INVALID_ARGUMENT.asException();
     }
 
+    static StatusException newResourceExhausted(String description, long retryAfterMills) {
+        var trailers = new Metadata();
+        trailers.put(X_RETRY_AFTER_METADATA_KEY, String.valueOf(retryAfterMills));
+        return new StatusException(Status.RESOURCE_EXHAUSTED.withDescription(description), trailers);
+    }
+
 }
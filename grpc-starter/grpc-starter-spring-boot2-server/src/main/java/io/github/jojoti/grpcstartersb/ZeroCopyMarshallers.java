@@ -0,0 +1,251 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.*;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 大消息请求的零拷贝解析
+ * <p>
+ * 默认的 protobuf marshaller 会把整个消息从 netty buffer 拷贝到 byte[] 再解析，bytes 字段还会再拷贝一次
+ * 开启之后 detach 出 netty buffer，bytes 字段直接引用 buffer 不再产生堆上的拷贝
+ * <p>
+ * 引用的 buffer 需要在请求结束之后释放，所以 message 的生命周期有限制:
+ * unary/server streaming 请求在 call 结束之前有效，client/bidi streaming 请求只在 onMessage 内有效，需要保存的数据自己拷贝
+ * <p>
+ * 传输层不支持 ByteBuffer (例如 in-process) 或者消息小于 minMessageSize 时退回默认 marshaller
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+final class ZeroCopyMarshallers {
+
+    private static final Logger log = LoggerFactory.getLogger(ZeroCopyMarshallers.class);
+
+    // parse 与 listener.onMessage 在同一个线程里紧挨着执行 用于把 detach 出来的 buffer 交给当前 call
+    private static final ThreadLocal<List<InputStream>> PENDING = ThreadLocal.withInitial(Lists::newArrayList);
+
+    private ZeroCopyMarshallers() {
+    }
+
+    /**
+     * 需要在 interceptForward 之后调用，释放 buffer 的 listener 必须在最外层，拦截器提前结束的 call 同样可以释放
+     */
+    static ServerServiceDefinition apply(ServerServiceDefinition definition, GRpcServerProperties.ZeroCopyConfig config) {
+        if (!config.isEnabled()) {
+            return definition;
+        }
+        final var serviceDescriptor = definition.getServiceDescriptor();
+        final var methods = Lists.<ServerMethodDefinition<?, ?>>newArrayList();
+        final var descriptorBuilder = ServiceDescriptor.newBuilder(serviceDescriptor.getName())
+                .setSchemaDescriptor(serviceDescriptor.getSchemaDescriptor());
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            final var zeroCopy = zeroCopy(method, config.getMinMessageSize());
+            descriptorBuilder.addMethod(zeroCopy.getMethodDescriptor());
+            methods.add(zeroCopy);
+        }
+        final var builder = ServerServiceDefinition.builder(descriptorBuilder.build());
+        for (ServerMethodDefinition<?, ?> method : methods) {
+            builder.addMethod(method);
+        }
+        return builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <ReqT, RespT> ServerMethodDefinition<ReqT, RespT> zeroCopy(ServerMethodDefinition<ReqT, RespT> method, int minMessageSize) {
+        final var descriptor = method.getMethodDescriptor();
+        if (!(descriptor.getRequestMarshaller() instanceof MethodDescriptor.PrototypeMarshaller)) {
+            return method;
+        }
+        final var marshaller = (MethodDescriptor.PrototypeMarshaller<ReqT>) descriptor.getRequestMarshaller();
+        if (!(marshaller.getMessagePrototype() instanceof MessageLite)) {
+            return method;
+        }
+        final var parser = (Parser<ReqT>) ((MessageLite) marshaller.getMessagePrototype()).getParserForType();
+        final var newDescriptor = descriptor.toBuilder(new ZeroCopyMarshaller<>(marshaller, parser, minMessageSize), descriptor.getResponseMarshaller())
+                .build();
+        // client 会发送多个消息的 method 每个消息处理完立即释放 否则整个 stream 的 buffer 都会被持有
+        final var releaseEachMessage = !descriptor.getType().clientSendsOneMessage();
+        final var handler = method.getServerCallHandler();
+        // 只有传输层使用新的 descriptor 解析请求
+        // 拦截器看到的仍然是 bindService 返回的 descriptor，按 descriptor 初始化的 map 都可以直接命中
+        return ServerMethodDefinition.create(newDescriptor,
+                (call, headers) -> new ReleaseListener<>(handler.startCall(new DescriptorServerCall<>(call, descriptor), headers), releaseEachMessage));
+    }
+
+    private static void close(List<InputStream> streams) {
+        for (InputStream stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.warn("GRPC zero copy buffer release failed", e);
+            }
+        }
+        streams.clear();
+    }
+
+    private static final class ZeroCopyMarshaller<T> implements MethodDescriptor.PrototypeMarshaller<T> {
+
+        private final MethodDescriptor.PrototypeMarshaller<T> delegate;
+        private final Parser<T> parser;
+        private final int minMessageSize;
+
+        ZeroCopyMarshaller(MethodDescriptor.PrototypeMarshaller<T> delegate, Parser<T> parser, int minMessageSize) {
+            this.delegate = delegate;
+            this.parser = parser;
+            this.minMessageSize = minMessageSize;
+        }
+
+        @Override
+        public T getMessagePrototype() {
+            return this.delegate.getMessagePrototype();
+        }
+
+        @Override
+        public Class<T> getMessageClass() {
+            return this.delegate.getMessageClass();
+        }
+
+        @Override
+        public InputStream stream(T value) {
+            // 响应由 protobuf 直接写入 netty buffer 本身没有多余的拷贝
+            return this.delegate.stream(value);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            if (!(stream instanceof Detachable) || !(stream instanceof HasByteBuffer) || !((HasByteBuffer) stream).byteBufferSupported()) {
+                return this.delegate.parse(stream);
+            }
+            final InputStream detached;
+            try {
+                // KnownLength 的 available 就是消息大小
+                if (stream.available() < this.minMessageSize) {
+                    return this.delegate.parse(stream);
+                }
+                detached = ((Detachable) stream).detach();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Read request failed").withCause(e).asRuntimeException();
+            }
+            var held = false;
+            try {
+                final var message = parseDetached(detached);
+                PENDING.get().add(detached);
+                held = true;
+                return message;
+            } finally {
+                if (!held) {
+                    close(Lists.newArrayList(detached));
+                }
+            }
+        }
+
+        private T parseDetached(InputStream detached) {
+            try {
+                var bytes = ByteString.EMPTY;
+                while (detached.available() > 0) {
+                    final ByteBuffer buffer = ((HasByteBuffer) detached).getByteBuffer();
+                    final var size = buffer.remaining();
+                    // 只是包装 不拷贝 生命周期与 detached 相同
+                    bytes = bytes.concat(UnsafeByteOperations.unsafeWrap(buffer));
+                    detached.skip(size);
+                }
+                final var input = bytes.newCodedInput();
+                input.enableAliasing(true);
+                // 消息大小已经由 maxInboundSize 限制
+                input.setSizeLimit(Integer.MAX_VALUE);
+                final var message = this.parser.parseFrom(input, ExtensionRegistryLite.getEmptyRegistry());
+                input.checkLastTagWas(0);
+                return message;
+            } catch (InvalidProtocolBufferException e) {
+                throw Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Read request failed").withCause(e).asRuntimeException();
+            }
+        }
+    }
+
+    private static final class DescriptorServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+
+        private final MethodDescriptor<ReqT, RespT> descriptor;
+
+        DescriptorServerCall(ServerCall<ReqT, RespT> delegate, MethodDescriptor<ReqT, RespT> descriptor) {
+            super(delegate);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+            return this.descriptor;
+        }
+    }
+
+    private static final class ReleaseListener<ReqT> extends ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+
+        private final boolean releaseEachMessage;
+        // 只在 call 的串行执行器里访问
+        private final List<InputStream> held = Lists.newArrayList();
+
+        ReleaseListener(ServerCall.Listener<ReqT> delegate, boolean releaseEachMessage) {
+            super(delegate);
+            this.releaseEachMessage = releaseEachMessage;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            final var pending = PENDING.get();
+            this.held.addAll(pending);
+            pending.clear();
+            try {
+                super.onMessage(message);
+            } finally {
+                if (this.releaseEachMessage) {
+                    close(this.held);
+                }
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            try {
+                super.onCancel();
+            } finally {
+                close(this.held);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                super.onComplete();
+            } finally {
+                close(this.held);
+            }
+        }
+    }
+
+}
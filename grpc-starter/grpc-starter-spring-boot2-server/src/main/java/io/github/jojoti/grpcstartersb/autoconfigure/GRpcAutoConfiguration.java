@@ -16,18 +16,43 @@
 
 package io.github.jojoti.grpcstartersb.autoconfigure;
 
+import io.github.jojoti.grpcstartersb.GRpcCompressionInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcConcurrencyLimitInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcDeadlineInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcDeadlineMetrics;
+import io.github.jojoti.grpcstartersb.GRpcExceptionMappings;
+import io.github.jojoti.grpcstartersb.GRpcExceptionMappingsCustomizer;
 import io.github.jojoti.grpcstartersb.GRpcGlobalInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcHealthContributor;
+import io.github.jojoti.grpcstartersb.GRpcMetricsInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcPriorityInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcRateLimitInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcSaturationInterceptor;
+import io.github.jojoti.grpcstartersb.GRpcScopeAdminService;
+import io.github.jojoti.grpcstartersb.GRpcScopeReloader;
 import io.github.jojoti.grpcstartersb.GRpcScopeService;
 import io.github.jojoti.grpcstartersb.GRpcServers;
+import io.github.jojoti.grpcstartersb.GRpcStartupMetrics;
 import io.github.jojoti.grpcstartersb.GlobalExceptionInterceptor;
 import io.grpc.ServerInterceptor;
 import io.grpc.util.TransmitStatusRuntimeExceptionInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.HealthContributor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 
 /**
+ * 内置全局拦截器的执行顺序: metrics -> saturation -> rateLimit -> concurrencyLimit -> deadline -> priority -> globalException -> transmitStatus -> compression -> 业务拦截器
+ * <p>
  * rfs:
  * https://github.com/spring-projects/spring-boot/blob/v2.5.1/spring-boot-project/spring-boot-autoconfigure/src/main/java/org/springframework/boot/autoconfigure/web/embedded/EmbeddedWebServerFactoryCustomizerAutoConfiguration.java
  * https://github.com/spring-projects/spring-boot/blob/v2.5.1/spring-boot-project/spring-boot/src/main/java/org/springframework/boot/web/reactive/context/WebServerStartStopLifecycle.java
@@ -46,16 +71,152 @@ public class GRpcAutoConfiguration {
         return new GRpcServers(gRpcServerProperties);
     }
 
+    /**
+     * 收到 GRpcScopeReloadEvent 之后重新绑定配置 逐个 reload scope
+     */
+    @Bean
+    public GRpcScopeReloader grpcScopeReloader(GRpcServers gRpcServers) {
+        return new GRpcScopeReloader(gRpcServers);
+    }
+
+    /**
+     * 需要配置 admin scope
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "grpcs.reload", name = "adminService", havingValue = "true")
+    public GRpcScopeAdminService grpcScopeAdminService(GRpcScopeReloader grpcScopeReloader) {
+        return new GRpcScopeAdminService(grpcScopeReloader);
+    }
+
     @Bean
     @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 400)
     public ServerInterceptor transmitStatusRuntimeExceptionInterceptor() {
         return TransmitStatusRuntimeExceptionInterceptor.instance();
     }
 
+    /**
+     * 通过 GRpcExceptionMappingsCustomizer bean 添加异常映射
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public GRpcExceptionMappings grpcExceptionMappings(ObjectProvider<GRpcExceptionMappingsCustomizer> customizers) {
+        final var builder = GRpcExceptionMappings.newBuilder();
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return builder.build();
+    }
+
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 300)
+    public ServerInterceptor globalExceptionInterceptor(GRpcExceptionMappings grpcExceptionMappings, GRpcServerProperties gRpcServerProperties) {
+        return GlobalExceptionInterceptor.newGlobalExceptionInterceptor(grpcExceptionMappings, gRpcServerProperties.getExceptionLog());
+    }
+
+    /**
+     * 只作用于开启了 compression 的 scope
+     */
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 500)
+    public GRpcCompressionInterceptor grpcCompressionInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcCompressionInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 只作用于 fixed 线程池的 scope 线程池饱和时返回 RESOURCE_EXHAUSTED
+     */
     @Bean
     @GRpcGlobalInterceptor
-    public ServerInterceptor globalExceptionInterceptor() {
-        return GlobalExceptionInterceptor.newGlobalExceptionInterceptor();
+    @Order(Ordered.HIGHEST_PRECEDENCE + 120)
+    public GRpcSaturationInterceptor grpcSaturationInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcSaturationInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 只作用于开启了 rateLimit 的 scope
+     * 在 concurrencyLimit 之前 被限流的请求不占用并发名额
+     */
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 150)
+    public GRpcRateLimitInterceptor grpcRateLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcRateLimitInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 只作用于开启了 concurrencyLimit 的 scope
+     */
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 200)
+    public GRpcConcurrencyLimitInterceptor grpcConcurrencyLimitInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcConcurrencyLimitInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 只作用于开启了 deadline 的 scope
+     * 在 concurrencyLimit 之后 服务端 deadline 到期关闭 call 时 limiter 同样可以释放
+     */
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 250)
+    public GRpcDeadlineInterceptor grpcDeadlineInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcDeadlineInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 只作用于 executor type 为 shared 的 scope
+     * 在 deadline 之后 切换线程时带上 deadline 的 Context，在 globalException 之前 切换之后的异常仍然可以映射
+     */
+    @Bean
+    @GRpcGlobalInterceptor
+    @Order(Ordered.HIGHEST_PRECEDENCE + 280)
+    public GRpcPriorityInterceptor grpcPriorityInterceptor(GRpcServerProperties gRpcServerProperties) {
+        return new GRpcPriorityInterceptor(gRpcServerProperties);
+    }
+
+    /**
+     * 存在 micrometer 时导出指标
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class GRpcMetricsConfiguration {
+
+        @Bean
+        public GRpcStartupMetrics grpcStartupMetrics(GRpcServers gRpcServers, GRpcServerProperties gRpcServerProperties) {
+            return new GRpcStartupMetrics(gRpcServers, gRpcServerProperties);
+        }
+
+        @Bean
+        public GRpcDeadlineMetrics grpcDeadlineMetrics(GRpcDeadlineInterceptor grpcDeadlineInterceptor, GRpcServerProperties gRpcServerProperties) {
+            return new GRpcDeadlineMetrics(grpcDeadlineInterceptor, gRpcServerProperties);
+        }
+
+        /**
+         * 没有引入 actuator 时注册到 micrometer 全局 registry
+         */
+        @Bean
+        @GRpcGlobalInterceptor
+        @Order(Ordered.HIGHEST_PRECEDENCE + 100)
+        public GRpcMetricsInterceptor grpcMetricsInterceptor(ObjectProvider<MeterRegistry> meterRegistry, GRpcServerProperties gRpcServerProperties) {
+            return new GRpcMetricsInterceptor(meterRegistry.getIfUnique(() -> Metrics.globalRegistry), gRpcServerProperties);
+        }
+
+    }
+
+    /**
+     * 存在 actuator 时导出每个 scope 的健康状态 endpoint 中的名字为 grpc
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(HealthContributor.class)
+    static class GRpcHealthConfiguration {
+
+        @Bean
+        public GRpcHealthContributor grpcHealthContributor(GRpcServers gRpcServers, GRpcServerProperties gRpcServerProperties) {
+            return new GRpcHealthContributor(gRpcServers, gRpcServerProperties);
+        }
+
     }
 
 }
@@ -17,9 +17,14 @@
 package io.github.jojoti.grpcstartersb.autoconfigure;
 
 import com.google.common.base.Preconditions;
+import io.github.jojoti.grpcstartersb.DiscoveryConfig;
+import io.github.jojoti.utilguavaext.GetAddress;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author JoJo Wang
@@ -29,21 +34,266 @@ import java.util.Map;
 public class GRpcServerProperties {
 
     private Map<String, ServerItem> servers;
+    // 所有 scope 并行启动 超过该时间没有全部启动成功则回滚 默认 30s
+    private int startupTimeoutMills = 30000;
+    // 单个 scope 热更新配置
+    private ReloadConfig reload = new ReloadConfig();
+    // 未映射的异常 堆栈日志限流
+    private ExceptionLogConfig exceptionLog = new ExceptionLogConfig();
+    // executor type 为 shared 的 scope 共用的调度线程
+    private SchedulerConfig scheduler = new SchedulerConfig();
 
     public Map<String, ServerItem> getServers() {
         return servers;
     }
 
     public void setServers(Map<String, ServerItem> servers) {
-        servers.values().forEach(c -> {
-            // 至少设置为 1s
-            Preconditions.checkArgument(c.shutdownGracefullyMills >= 1000);
-        });
+        servers.values().forEach(GRpcServerProperties::checkServerItem);
         this.servers = servers;
     }
 
+    /**
+     * reload 时替换单个 scope 的配置
+     *
+     * @return 替换之前的配置
+     */
+    public ServerItem replaceServer(String scopeName, ServerItem serverItem) {
+        Preconditions.checkArgument(this.servers != null && this.servers.containsKey(scopeName), "Scope " + scopeName + " not found");
+        checkServerItem(serverItem);
+        return this.servers.put(scopeName, serverItem);
+    }
+
+    private static void checkServerItem(ServerItem c) {
+        // 至少设置为 1s
+        Preconditions.checkArgument(c.shutdownGracefullyMills >= 1000);
+        Preconditions.checkArgument(c.inProcess == InProcessMode.ONLY || (c.address != null && !c.address.isEmpty()),
+                "address is required unless inProcess is ONLY");
+        if (c.inProcess != InProcessMode.ONLY && GetAddress.isDomainSocket(c.address)) {
+            // unix:///path 提前校验 避免启动到一半才失败
+            GetAddress.getDomainSocketPath(c.address);
+        }
+        Preconditions.checkArgument(c.executor.maxSize >= c.executor.coreSize, "Executor maxSize must be >= coreSize");
+        final var limit = c.concurrencyLimit;
+        Preconditions.checkArgument(limit.minLimit <= limit.initialLimit && limit.initialLimit <= limit.maxLimit,
+                "concurrencyLimit must be minLimit <= initialLimit <= maxLimit");
+        Preconditions.checkArgument(!c.compression.enabled || !c.compression.codecs.isEmpty(), "compression codecs must not be empty");
+        Preconditions.checkArgument(c.deadline.maxMills == 0 || c.deadline.defaultMills <= c.deadline.maxMills,
+                "deadline defaultMills must be <= maxMills");
+        if (c.discovery != null && c.discovery.getEtcd() != null) {
+            final var etcd = c.discovery.getEtcd();
+            Preconditions.checkArgument(etcd.getEndpoints() != null && !etcd.getEndpoints().isEmpty(), "discovery.etcd.endpoints must not be empty");
+            Preconditions.checkArgument(etcd.getTtlSeconds() >= 1, "discovery.etcd.ttlSeconds must be >= 1");
+        }
+        if (c.discovery != null && c.discovery.getConsul() != null) {
+            final var consul = c.discovery.getConsul();
+            Preconditions.checkArgument(c.discovery.getEtcd() == null, "discovery etcd and consul can not be both configured");
+            Preconditions.checkArgument(consul.getAgent() != null && !consul.getAgent().isEmpty(), "discovery.consul.agent is required");
+            // agent 通过 grpc health 检查实例
+            Preconditions.checkArgument(c.healthStatus.enabled, "discovery.consul requires healthStatus.enabled");
+            Preconditions.checkArgument(consul.getCheckIntervalMills() >= 1000, "discovery.consul.checkIntervalMills must be >= 1000");
+        }
+        final var netty = c.checkOrGetNettyConfig();
+        // grace 只有在 maxConnectionAge 生效时才有意义
+        Preconditions.checkArgument(netty.maxConnectionAgeGraceMills == 0 || netty.maxConnectionAgeMills > 0,
+                "maxConnectionAgeGraceMills requires maxConnectionAgeMills");
+    }
+
+    public int getStartupTimeoutMills() {
+        return startupTimeoutMills;
+    }
+
+    public void setStartupTimeoutMills(int startupTimeoutMills) {
+        Preconditions.checkArgument(startupTimeoutMills >= 1000, "startupTimeoutMills must be >= 1000");
+        this.startupTimeoutMills = startupTimeoutMills;
+    }
+
+    public ReloadConfig getReload() {
+        return reload;
+    }
+
+    public void setReload(ReloadConfig reload) {
+        this.reload = reload;
+    }
+
+    public ExceptionLogConfig getExceptionLog() {
+        return exceptionLog;
+    }
+
+    public void setExceptionLog(ExceptionLogConfig exceptionLog) {
+        this.exceptionLog = exceptionLog;
+    }
+
+    public SchedulerConfig getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(SchedulerConfig scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 多个 scope 共用一组线程，按 scope 的 weight 加权公平调度
+     * 延迟敏感的 scope 排队时间超过 latencyTargetMills 时，其它 scope 的权重乘以 throttleRatio，恢复到一半以下之后取消
+     */
+    public static final class SchedulerConfig {
+        private int threads = Runtime.getRuntime().availableProcessors() * 2;
+        // 延迟敏感 scope 排队时间的目标 0 表示不自动降级
+        private int latencyTargetMills = 0;
+        // 降级时其它 scope 的权重比例
+        private double throttleRatio = 0.1;
+        // @GRpcPriority(LOW) method 的权重相对所在 scope 的比例
+        private double lowPriorityRatio = 0.1;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            Preconditions.checkArgument(threads >= 1, "scheduler threads must be >= 1");
+            this.threads = threads;
+        }
+
+        public int getLatencyTargetMills() {
+            return latencyTargetMills;
+        }
+
+        public void setLatencyTargetMills(int latencyTargetMills) {
+            Preconditions.checkArgument(latencyTargetMills >= 0, "scheduler latencyTargetMills must be >= 0");
+            this.latencyTargetMills = latencyTargetMills;
+        }
+
+        public double getThrottleRatio() {
+            return throttleRatio;
+        }
+
+        public void setThrottleRatio(double throttleRatio) {
+            Preconditions.checkArgument(throttleRatio > 0 && throttleRatio <= 1, "scheduler throttleRatio must be in (0, 1]");
+            this.throttleRatio = throttleRatio;
+        }
+
+        public double getLowPriorityRatio() {
+            return lowPriorityRatio;
+        }
+
+        public void setLowPriorityRatio(double lowPriorityRatio) {
+            Preconditions.checkArgument(lowPriorityRatio > 0 && lowPriorityRatio <= 1, "scheduler lowPriorityRatio must be in (0, 1]");
+            this.lowPriorityRatio = lowPriorityRatio;
+        }
+    }
+
+    /**
+     * 同一种异常在 intervalMills 内最多打印 maxStackTraces 次完整堆栈，其余的只计数，下一次打印时带上被忽略的次数
+     */
+    public static final class ExceptionLogConfig {
+        private int intervalMills = 10000;
+        private int maxStackTraces = 5;
+
+        public int getIntervalMills() {
+            return intervalMills;
+        }
+
+        public void setIntervalMills(int intervalMills) {
+            Preconditions.checkArgument(intervalMills >= 1, "exceptionLog intervalMills must be >= 1");
+            this.intervalMills = intervalMills;
+        }
+
+        public int getMaxStackTraces() {
+            return maxStackTraces;
+        }
+
+        public void setMaxStackTraces(int maxStackTraces) {
+            Preconditions.checkArgument(maxStackTraces >= 0, "exceptionLog maxStackTraces must be >= 0");
+            this.maxStackTraces = maxStackTraces;
+        }
+    }
+
+    /**
+     * 单个 scope 热更新 传输层 业务线程池 限流等配置，不需要重启 jvm
+     */
+    public static final class ReloadConfig {
+        // 在 admin scope 注册 reload 管理接口
+        private boolean adminService = false;
+        // 新 server 启动之后 旧 server 继续处理进行中请求的时间 超过之后强制关闭
+        private int handoffMills = 5000;
+
+        public boolean isAdminService() {
+            return adminService;
+        }
+
+        public void setAdminService(boolean adminService) {
+            this.adminService = adminService;
+        }
+
+        public int getHandoffMills() {
+            return handoffMills;
+        }
+
+        public void setHandoffMills(int handoffMills) {
+            Preconditions.checkArgument(handoffMills >= 0, "handoffMills must be >= 0");
+            this.handoffMills = handoffMills;
+        }
+    }
+
     public static final class HealthStatus {
         private boolean enabled = false;
+        // 进行中的请求数超过该值 readiness 切换为 NOT_SERVING 0 表示不检查
+        private int maxInFlight = 0;
+        // 业务线程池排队任务数超过该值 readiness 切换为 NOT_SERVING 0 表示不检查 default/direct 线程池无法统计
+        private int maxQueueDepth = 0;
+        // 背压检查间隔 默认 1s
+        private int checkIntervalMills = 1000;
+        // stop 时先切换为 NOT_SERVING 等待该时间再 shutdown 让负载均衡先摘掉流量 0 表示不等待
+        private int drainMills = 0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            Preconditions.checkArgument(maxInFlight >= 0, "maxInFlight must be >= 0");
+            this.maxInFlight = maxInFlight;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public void setMaxQueueDepth(int maxQueueDepth) {
+            Preconditions.checkArgument(maxQueueDepth >= 0, "maxQueueDepth must be >= 0");
+            this.maxQueueDepth = maxQueueDepth;
+        }
+
+        public int getCheckIntervalMills() {
+            return checkIntervalMills;
+        }
+
+        public void setCheckIntervalMills(int checkIntervalMills) {
+            Preconditions.checkArgument(checkIntervalMills >= 10, "checkIntervalMills must be >= 10");
+            this.checkIntervalMills = checkIntervalMills;
+        }
+
+        public int getDrainMills() {
+            return drainMills;
+        }
+
+        public void setDrainMills(int drainMills) {
+            Preconditions.checkArgument(drainMills >= 0, "drainMills must be >= 0");
+            this.drainMills = drainMills;
+        }
+    }
+
+    public static final class MetricsConfig {
+        private boolean enabled = true;
+        // 导出 histogram bucket 用于 prometheus 计算分位数
+        private boolean percentileHistogram = true;
 
         public boolean isEnabled() {
             return enabled;
@@ -52,6 +302,14 @@ public class GRpcServerProperties {
         public void setEnabled(boolean enabled) {
             this.enabled = enabled;
         }
+
+        public boolean isPercentileHistogram() {
+            return percentileHistogram;
+        }
+
+        public void setPercentileHistogram(boolean percentileHistogram) {
+            this.percentileHistogram = percentileHistogram;
+        }
     }
 
     public static final class ServerItem {
@@ -63,6 +321,24 @@ public class GRpcServerProperties {
         private HealthStatus healthStatus = new HealthStatus();
         private NettyConfig nettyConfig = null;
         private NettySharedConfig nettySharedConfig = null;
+        // 业务线程池 默认使用 grpc 自带的 cached 线程池
+        private ExecutorConfig executor = new ExecutorConfig();
+        // 存在 micrometer 时默认开启
+        private MetricsConfig metrics = new MetricsConfig();
+        // 自适应并发限制 默认关闭
+        private ConcurrencyLimitConfig concurrencyLimit = new ConcurrencyLimitConfig();
+        // 响应压缩 默认关闭
+        private CompressionConfig compression = new CompressionConfig();
+        // 大消息请求解析时直接引用 netty 的 buffer 默认关闭
+        private ZeroCopyConfig zeroCopy = new ZeroCopyConfig();
+        // 服务端 deadline 默认关闭
+        private DeadlineConfig deadline = new DeadlineConfig();
+        // 按 ip/uid/method 的令牌桶限流 默认关闭
+        private RateLimitConfig rateLimit = new RateLimitConfig();
+        // 同一个 jvm 内的调用 以及不需要网络的测试 in-process 名字为 scopeName
+        private InProcessMode inProcess = InProcessMode.NONE;
+        // 启动之后注册到 etcd 等注册中心 stop 时注销 默认不注册
+        private DiscoveryConfig discovery = null;
 
         public String getAddress() {
             return address;
@@ -112,41 +388,696 @@ public class GRpcServerProperties {
             this.nettySharedConfig = nettySharedConfig;
         }
 
+        public MetricsConfig getMetrics() {
+            return metrics;
+        }
+
+        public void setMetrics(MetricsConfig metrics) {
+            this.metrics = metrics;
+        }
+
+        public ExecutorConfig getExecutor() {
+            return executor;
+        }
+
+        public void setExecutor(ExecutorConfig executor) {
+            this.executor = executor;
+        }
+
+        public ConcurrencyLimitConfig getConcurrencyLimit() {
+            return concurrencyLimit;
+        }
+
+        public void setConcurrencyLimit(ConcurrencyLimitConfig concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+        }
+
+        public InProcessMode getInProcess() {
+            return inProcess;
+        }
+
+        public void setInProcess(InProcessMode inProcess) {
+            this.inProcess = inProcess;
+        }
+
+        public DiscoveryConfig getDiscovery() {
+            return discovery;
+        }
+
+        public void setDiscovery(DiscoveryConfig discovery) {
+            this.discovery = discovery;
+        }
+
+        public CompressionConfig getCompression() {
+            return compression;
+        }
+
+        public void setCompression(CompressionConfig compression) {
+            this.compression = compression;
+        }
+
+        public ZeroCopyConfig getZeroCopy() {
+            return zeroCopy;
+        }
+
+        public void setZeroCopy(ZeroCopyConfig zeroCopy) {
+            this.zeroCopy = zeroCopy;
+        }
+
+        public DeadlineConfig getDeadline() {
+            return deadline;
+        }
+
+        public void setDeadline(DeadlineConfig deadline) {
+            this.deadline = deadline;
+        }
+
+        public RateLimitConfig getRateLimit() {
+            return rateLimit;
+        }
+
+        public void setRateLimit(RateLimitConfig rateLimit) {
+            this.rateLimit = rateLimit;
+        }
+
+        /**
+         * nettyConfig 是每个 scope 独立的传输层调优，共享 event loop 的 scope 同样生效
+         */
         public NettyConfig checkOrGetNettyConfig() {
-            if (this.nettyConfig != null) {
-                return this.nettyConfig;
-            }
-            if (this.nettySharedConfig == null) {
+            if (this.nettyConfig == null) {
                 this.nettyConfig = new NettyConfig();
-                return this.nettyConfig;
             }
-            // netty shared 配置存在
-            return null;
+            return this.nettyConfig;
+        }
+
+    }
+
+    /**
+     * 根据观察到的延迟动态调整允许的并发数，超过的请求直接返回 RESOURCE_EXHAUSTED
+     */
+    public static final class ConcurrencyLimitConfig {
+        private boolean enabled = false;
+        private LimitAlgorithm algorithm = LimitAlgorithm.GRADIENT;
+        // true 每个 method 独立限制，false 整个 scope 共用一个限制
+        private boolean perMethod = false;
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+        // aimd: 超过该耗时视为过载 按 backoffRatio 缩小
+        private int timeoutMills = 1000;
+        // aimd: 过载时 limit 乘以该值
+        private double backoffRatio = 0.9;
+        // gradient: 允许当前延迟超过长期平均延迟的倍数
+        private double rttTolerance = 1.5;
+        // 拒绝时通过 trailer 告诉客户端多久之后重试
+        private int retryAfterMills = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public LimitAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(LimitAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public boolean isPerMethod() {
+            return perMethod;
+        }
+
+        public void setPerMethod(boolean perMethod) {
+            this.perMethod = perMethod;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            Preconditions.checkArgument(initialLimit >= 1, "initialLimit must be >= 1");
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            Preconditions.checkArgument(minLimit >= 1, "minLimit must be >= 1");
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            Preconditions.checkArgument(maxLimit >= 1, "maxLimit must be >= 1");
+            this.maxLimit = maxLimit;
+        }
+
+        public int getTimeoutMills() {
+            return timeoutMills;
+        }
+
+        public void setTimeoutMills(int timeoutMills) {
+            Preconditions.checkArgument(timeoutMills >= 1, "timeoutMills must be >= 1");
+            this.timeoutMills = timeoutMills;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            Preconditions.checkArgument(backoffRatio >= 0.5 && backoffRatio < 1, "backoffRatio must be in [0.5, 1)");
+            this.backoffRatio = backoffRatio;
+        }
+
+        public double getRttTolerance() {
+            return rttTolerance;
+        }
+
+        public void setRttTolerance(double rttTolerance) {
+            Preconditions.checkArgument(rttTolerance >= 1, "rttTolerance must be >= 1");
+            this.rttTolerance = rttTolerance;
+        }
+
+        public int getRetryAfterMills() {
+            return retryAfterMills;
+        }
+
+        public void setRetryAfterMills(int retryAfterMills) {
+            Preconditions.checkArgument(retryAfterMills >= 0, "retryAfterMills must be >= 0");
+            this.retryAfterMills = retryAfterMills;
+        }
+    }
+
+    /**
+     * 响应压缩，内网大 payload 的 scope 开启，对延迟敏感的 scope 保持关闭
+     * 除了内置的 gzip，snappy/zstd/lz4 等通过注册 io.grpc.Codec bean 扩展，名字为 Codec#getMessageEncoding
+     */
+    public static final class CompressionConfig {
+        private boolean enabled = false;
+        // 按优先级排列 使用第一个客户端 grpc-accept-encoding 支持的 codec
+        private List<String> codecs = List.of("gzip");
+        // 小于该字节数的消息不压缩 压缩小消息得不偿失
+        private int minMessageSize = 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getCodecs() {
+            return codecs;
+        }
+
+        public void setCodecs(List<String> codecs) {
+            Preconditions.checkNotNull(codecs, "compression codecs must not be null");
+            this.codecs = codecs;
+        }
+
+        public int getMinMessageSize() {
+            return minMessageSize;
+        }
+
+        public void setMinMessageSize(int minMessageSize) {
+            Preconditions.checkArgument(minMessageSize >= 0, "minMessageSize must be >= 0");
+            this.minMessageSize = minMessageSize;
+        }
+    }
+
+    /**
+     * 令牌桶限流，超过的请求返回 RESOURCE_EXHAUSTED 并通过 trailer 带上重试时间
+     * perIp/perMethod 在 session 之前检查，perUser 需要 ram 模块 在 session 之后检查
+     */
+    public static final class RateLimitConfig {
+        private boolean enabled = false;
+        // 每个远端 ip 一个桶 unix domain socket/in-process 不检查
+        private BucketConfig perIp = new BucketConfig();
+        // 每个登录用户一个桶 匿名用户只受 perIp 限制
+        private BucketConfig perUser = new BucketConfig();
+        // 每个 method 一个桶 所有客户端共用 method 上可以使用 @GRpcRateLimit 覆盖
+        private BucketConfig perMethod = new BucketConfig();
+        // perIp/perUser 最多保存的桶数 超过之后新的 key 共用溢出桶
+        private int maxEntries = 100000;
+        // 超过该时间没有请求的桶被淘汰
+        private int idleMills = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public BucketConfig getPerIp() {
+            return perIp;
+        }
+
+        public void setPerIp(BucketConfig perIp) {
+            this.perIp = perIp;
+        }
+
+        public BucketConfig getPerUser() {
+            return perUser;
+        }
+
+        public void setPerUser(BucketConfig perUser) {
+            this.perUser = perUser;
+        }
+
+        public BucketConfig getPerMethod() {
+            return perMethod;
+        }
+
+        public void setPerMethod(BucketConfig perMethod) {
+            this.perMethod = perMethod;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            Preconditions.checkArgument(maxEntries >= 1, "rateLimit maxEntries must be >= 1");
+            this.maxEntries = maxEntries;
+        }
+
+        public int getIdleMills() {
+            return idleMills;
+        }
+
+        public void setIdleMills(int idleMills) {
+            Preconditions.checkArgument(idleMills >= 1000, "rateLimit idleMills must be >= 1000");
+            this.idleMills = idleMills;
+        }
+    }
+
+    public static final class BucketConfig {
+        // 每秒发放的令牌 0 表示不限制
+        private double permitsPerSecond = 0;
+        // 空闲之后允许的突发请求数 0 表示 1s 的量
+        private int burst = 0;
+
+        public boolean isEnabled() {
+            return permitsPerSecond > 0;
+        }
+
+        public double getPermitsPerSecond() {
+            return permitsPerSecond;
+        }
+
+        public void setPermitsPerSecond(double permitsPerSecond) {
+            Preconditions.checkArgument(permitsPerSecond >= 0, "rateLimit permitsPerSecond must be >= 0");
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            Preconditions.checkArgument(burst >= 0, "rateLimit burst must be >= 0");
+            this.burst = burst;
+        }
+    }
+
+    public static final class DeadlineConfig {
+        private boolean enabled = false;
+        // 客户端没有设置 deadline 时使用 0 表示不设置
+        private int defaultMills = 0;
+        // 客户端设置的 deadline 超过该值时截断 0 表示不限制
+        private int maxMills = 0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getDefaultMills() {
+            return defaultMills;
+        }
+
+        public void setDefaultMills(int defaultMills) {
+            Preconditions.checkArgument(defaultMills >= 0, "deadline defaultMills must be >= 0");
+            this.defaultMills = defaultMills;
+        }
+
+        public int getMaxMills() {
+            return maxMills;
+        }
+
+        public void setMaxMills(int maxMills) {
+            Preconditions.checkArgument(maxMills >= 0, "deadline maxMills must be >= 0");
+            this.maxMills = maxMills;
+        }
+    }
+
+    public static final class ZeroCopyConfig {
+        private boolean enabled = false;
+        // 小于该字节数的请求仍然拷贝到堆上解析 小消息持有 netty buffer 反而增加释放开销
+        private int minMessageSize = 65536;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinMessageSize() {
+            return minMessageSize;
+        }
+
+        public void setMinMessageSize(int minMessageSize) {
+            Preconditions.checkArgument(minMessageSize >= 0, "zeroCopy minMessageSize must be >= 0");
+            this.minMessageSize = minMessageSize;
+        }
+    }
+
+    public enum InProcessMode {
+        // 只监听 address
+        NONE,
+        // 同时监听 address 和 in-process
+        ALSO,
+        // 只有 in-process 不需要配置 address
+        ONLY,
+    }
+
+    public enum LimitAlgorithm {
+        // 正常时 +1 过载时按比例缩小
+        AIMD,
+        // 根据长期平均延迟与当前延迟的比值调整
+        GRADIENT,
+    }
+
+    /**
+     * 每个 scope 独立的业务线程池，避免慢的 scope 把其它 scope 的线程耗尽
+     */
+    public static final class ExecutorConfig {
+        private ExecutorType type = ExecutorType.DEFAULT;
+        // fixed 核心线程数, fork_join 并行度
+        private int coreSize = Runtime.getRuntime().availableProcessors();
+        // 仅 fixed 有效
+        private int maxSize = Runtime.getRuntime().availableProcessors() * 2;
+        // fixed/shared 有效 队列满了之后直接拒绝 shared 为 0 表示不限制
+        private int queueCapacity = 1024;
+        // 仅 fixed 有效 线程池饱和拒绝新请求时 建议客户端多少毫秒之后重试
+        private int rejectRetryAfterMills = 100;
+        // 仅 fixed 有效 超过 coreSize 的线程空闲回收时间
+        private int keepAliveMills = 60000;
+        // 仅 shared 有效 竞争时按权重分配线程
+        private int weight = 1;
+        // 仅 shared 有效 排队时间超过 scheduler.latencyTargetMills 时其它 scope 自动降级
+        private boolean latencySensitive = false;
+
+        public ExecutorType getType() {
+            return type;
+        }
+
+        public void setType(ExecutorType type) {
+            this.type = type;
+        }
+
+        public int getCoreSize() {
+            return coreSize;
+        }
+
+        public void setCoreSize(int coreSize) {
+            Preconditions.checkArgument(coreSize >= 1, "Executor coreSize must be >= 1");
+            this.coreSize = coreSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            Preconditions.checkArgument(maxSize >= 1, "Executor maxSize must be >= 1");
+            this.maxSize = maxSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            Preconditions.checkArgument(queueCapacity >= 0, "Executor queueCapacity must be >= 0");
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getRejectRetryAfterMills() {
+            return rejectRetryAfterMills;
+        }
+
+        public void setRejectRetryAfterMills(int rejectRetryAfterMills) {
+            Preconditions.checkArgument(rejectRetryAfterMills >= 0, "Executor rejectRetryAfterMills must be >= 0");
+            this.rejectRetryAfterMills = rejectRetryAfterMills;
+        }
+
+        public int getKeepAliveMills() {
+            return keepAliveMills;
+        }
+
+        public void setKeepAliveMills(int keepAliveMills) {
+            Preconditions.checkArgument(keepAliveMills >= 0, "Executor keepAliveMills must be >= 0");
+            this.keepAliveMills = keepAliveMills;
         }
 
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            Preconditions.checkArgument(weight >= 1, "Executor weight must be >= 1");
+            this.weight = weight;
+        }
+
+        public boolean isLatencySensitive() {
+            return latencySensitive;
+        }
+
+        public void setLatencySensitive(boolean latencySensitive) {
+            this.latencySensitive = latencySensitive;
+        }
+    }
+
+    public enum ExecutorType {
+        // grpc 默认 无上限的 cached 线程池
+        DEFAULT,
+        // 有界队列的线程池
+        FIXED,
+        // async mode 的 ForkJoinPool
+        FORK_JOIN,
+        // 直接在 netty event loop 上执行 service 必须是完全非阻塞的
+        DIRECT,
+        // 每个请求一个虚拟线程 需要 jdk 21+
+        VIRTUAL,
+        // 与其它 shared scope 共用 scheduler 的线程 按 weight 加权公平调度
+        SHARED,
     }
 
+    /**
+     * 每个 scope 的传输层调优，长连接 stream 的 scope 和短 unary 的 scope 可以分开配置
+     * 默认值与 grpc-java 保持一致，时间类配置 0 表示不限制
+     */
     public static final class NettyConfig {
-        private int maxInboundSize = 1024;
+        // 单个消息最大字节数 默认 4M
+        private int maxInboundSize = 4 * 1024 * 1024;
+        // header 最大字节数 默认 8K
+        private int maxInboundMetadataSize = 8192;
+        // http2 流控窗口 默认 1M 大消息 / 高延迟网络可以调大
+        private int flowControlWindow = 1024 * 1024;
+        // 单个连接最大并发 stream
+        private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
+        // 服务端发送 ping 的间隔 默认 2h
+        private long keepAliveTimeMills = TimeUnit.HOURS.toMillis(2);
+        // ping 超时 默认 20s
+        private long keepAliveTimeoutMills = TimeUnit.SECONDS.toMillis(20);
+        // 允许客户端 ping 的最小间隔 默认 5min 客户端 ping 过于频繁会被断开
+        private long permitKeepAliveTimeMills = TimeUnit.MINUTES.toMillis(5);
+        // 没有进行中的请求时是否允许客户端 ping
+        private boolean permitKeepAliveWithoutCalls = false;
+        private long maxConnectionIdleMills = 0;
+        private long maxConnectionAgeMills = 0;
+        private long maxConnectionAgeGraceMills = 0;
 
         public int getMaxInboundSize() {
             return maxInboundSize;
         }
 
         public void setMaxInboundSize(int maxInboundSize) {
+            Preconditions.checkArgument(maxInboundSize > 0, "maxInboundSize must be > 0");
             this.maxInboundSize = maxInboundSize;
         }
+
+        public int getMaxInboundMetadataSize() {
+            return maxInboundMetadataSize;
+        }
+
+        public void setMaxInboundMetadataSize(int maxInboundMetadataSize) {
+            Preconditions.checkArgument(maxInboundMetadataSize > 0, "maxInboundMetadataSize must be > 0");
+            this.maxInboundMetadataSize = maxInboundMetadataSize;
+        }
+
+        public int getFlowControlWindow() {
+            return flowControlWindow;
+        }
+
+        public void setFlowControlWindow(int flowControlWindow) {
+            Preconditions.checkArgument(flowControlWindow > 0, "flowControlWindow must be > 0");
+            this.flowControlWindow = flowControlWindow;
+        }
+
+        public int getMaxConcurrentCallsPerConnection() {
+            return maxConcurrentCallsPerConnection;
+        }
+
+        public void setMaxConcurrentCallsPerConnection(int maxConcurrentCallsPerConnection) {
+            Preconditions.checkArgument(maxConcurrentCallsPerConnection > 0, "maxConcurrentCallsPerConnection must be > 0");
+            this.maxConcurrentCallsPerConnection = maxConcurrentCallsPerConnection;
+        }
+
+        public long getKeepAliveTimeMills() {
+            return keepAliveTimeMills;
+        }
+
+        public void setKeepAliveTimeMills(long keepAliveTimeMills) {
+            Preconditions.checkArgument(keepAliveTimeMills > 0, "keepAliveTimeMills must be > 0");
+            this.keepAliveTimeMills = keepAliveTimeMills;
+        }
+
+        public long getKeepAliveTimeoutMills() {
+            return keepAliveTimeoutMills;
+        }
+
+        public void setKeepAliveTimeoutMills(long keepAliveTimeoutMills) {
+            Preconditions.checkArgument(keepAliveTimeoutMills > 0, "keepAliveTimeoutMills must be > 0");
+            this.keepAliveTimeoutMills = keepAliveTimeoutMills;
+        }
+
+        public long getPermitKeepAliveTimeMills() {
+            return permitKeepAliveTimeMills;
+        }
+
+        public void setPermitKeepAliveTimeMills(long permitKeepAliveTimeMills) {
+            Preconditions.checkArgument(permitKeepAliveTimeMills >= 0, "permitKeepAliveTimeMills must be >= 0");
+            this.permitKeepAliveTimeMills = permitKeepAliveTimeMills;
+        }
+
+        public boolean isPermitKeepAliveWithoutCalls() {
+            return permitKeepAliveWithoutCalls;
+        }
+
+        public void setPermitKeepAliveWithoutCalls(boolean permitKeepAliveWithoutCalls) {
+            this.permitKeepAliveWithoutCalls = permitKeepAliveWithoutCalls;
+        }
+
+        public long getMaxConnectionIdleMills() {
+            return maxConnectionIdleMills;
+        }
+
+        public void setMaxConnectionIdleMills(long maxConnectionIdleMills) {
+            Preconditions.checkArgument(maxConnectionIdleMills >= 0, "maxConnectionIdleMills must be >= 0");
+            this.maxConnectionIdleMills = maxConnectionIdleMills;
+        }
+
+        public long getMaxConnectionAgeMills() {
+            return maxConnectionAgeMills;
+        }
+
+        public void setMaxConnectionAgeMills(long maxConnectionAgeMills) {
+            Preconditions.checkArgument(maxConnectionAgeMills >= 0, "maxConnectionAgeMills must be >= 0");
+            this.maxConnectionAgeMills = maxConnectionAgeMills;
+        }
+
+        public long getMaxConnectionAgeGraceMills() {
+            return maxConnectionAgeGraceMills;
+        }
+
+        public void setMaxConnectionAgeGraceMills(long maxConnectionAgeGraceMills) {
+            Preconditions.checkArgument(maxConnectionAgeGraceMills >= 0, "maxConnectionAgeGraceMills must be >= 0");
+            this.maxConnectionAgeGraceMills = maxConnectionAgeGraceMills;
+        }
     }
 
+    /**
+     * 配置了 nettySharedConfig 的 scope 共用一组 boss/worker event loop 以及 ByteBuf allocator
+     * 多个 scope 的 nettySharedConfig 必须一致，最后一个 scope 停止之后才会关闭
+     */
     public static final class NettySharedConfig {
-        private int maxInboundSize = 1024;
+        // boss 只负责 accept 一个线程足够
+        private int bossThreads = 1;
+        // 0 表示使用 netty 默认值 cpu * 2
+        private int workerThreads = 0;
+        // linux 下 epoll 可用时自动使用 epoll 否则退回 nio
+        private boolean epoll = true;
+        // pooled allocator 是否优先使用堆外内存
+        private boolean preferDirect = true;
 
-        public int getMaxInboundSize() {
-            return maxInboundSize;
+        public int getBossThreads() {
+            return bossThreads;
         }
 
-        public void setMaxInboundSize(int maxInboundSize) {
-            this.maxInboundSize = maxInboundSize;
+        public void setBossThreads(int bossThreads) {
+            Preconditions.checkArgument(bossThreads >= 1, "Netty shared bossThreads must be >= 1");
+            this.bossThreads = bossThreads;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(int workerThreads) {
+            Preconditions.checkArgument(workerThreads >= 0, "Netty shared workerThreads must be >= 0");
+            this.workerThreads = workerThreads;
+        }
+
+        public boolean isEpoll() {
+            return epoll;
+        }
+
+        public void setEpoll(boolean epoll) {
+            this.epoll = epoll;
+        }
+
+        public boolean isPreferDirect() {
+            return preferDirect;
+        }
+
+        public void setPreferDirect(boolean preferDirect) {
+            this.preferDirect = preferDirect;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            NettySharedConfig that = (NettySharedConfig) o;
+            return bossThreads == that.bossThreads && workerThreads == that.workerThreads
+                    && epoll == that.epoll && preferDirect == that.preferDirect;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bossThreads, workerThreads, epoll, preferDirect);
         }
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter newLimiter(GRpcServerProperties.LimitAlgorithm algorithm, int initialLimit) {
+        final var config = new GRpcServerProperties.ConcurrencyLimitConfig();
+        config.setAlgorithm(algorithm);
+        config.setInitialLimit(initialLimit);
+        config.setMinLimit(1);
+        config.setMaxLimit(1000);
+        config.setTimeoutMills(1000);
+        config.setBackoffRatio(0.9);
+        return new ConcurrencyLimiter(config);
+    }
+
+    /**
+     * 占满所有许可之后结束一个请求
+     */
+    private static void sample(ConcurrencyLimiter limiter, long rttMills, boolean dropped) {
+        while (limiter.tryAcquire()) {
+        }
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(rttMills), dropped);
+    }
+
+    @Test
+    public void testAcquireUntilLimit() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.AIMD, 3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.getInFlight());
+
+        limiter.release();
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(3, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testAimdGrow() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.AIMD, 10);
+        sample(limiter, 1, false);
+        assertEquals(11, limiter.getLimit());
+        sample(limiter, 1, false);
+        assertEquals(12, limiter.getLimit());
+    }
+
+    @Test
+    public void testAimdNotGrowWhenUnderused() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.AIMD, 10);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testAimdShrink() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.AIMD, 100);
+        sample(limiter, 1, true);
+        assertEquals(90, limiter.getLimit());
+        // 超过 timeoutMills 同样视为过载
+        sample(limiter, 2000, false);
+        assertEquals(81, limiter.getLimit());
+    }
+
+    @Test
+    public void testAimdMinLimit() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.AIMD, 2);
+        for (int i = 0; i < 20; i++) {
+            sample(limiter, 1, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testGradientGrowAndShrink() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.GRADIENT, 10);
+        for (int i = 0; i < 100; i++) {
+            sample(limiter, 1, false);
+        }
+        final var grown = limiter.getLimit();
+        assertTrue(grown > 10, "limit " + grown);
+
+        // 延迟升高到长期平均值的 20 倍
+        for (int i = 0; i < 20; i++) {
+            sample(limiter, 20, false);
+        }
+        final var shrunk = limiter.getLimit();
+        assertTrue(shrunk < grown / 2, "limit " + grown + " -> " + shrunk);
+    }
+
+    @Test
+    public void testGradientStableLatency() throws Exception {
+        final var limiter = newLimiter(GRpcServerProperties.LimitAlgorithm.GRADIENT, 10);
+        var previous = limiter.getLimit();
+        for (int i = 0; i < 50; i++) {
+            sample(limiter, 5, false);
+            // 延迟不变时 limit 不会缩小
+            assertTrue(limiter.getLimit() >= previous);
+            previous = limiter.getLimit();
+        }
+    }
+
+}
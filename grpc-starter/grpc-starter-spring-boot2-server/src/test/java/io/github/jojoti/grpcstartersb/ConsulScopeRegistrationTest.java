@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用本地 http stub 代替 consul agent
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ConsulScopeRegistrationTest {
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    // agent 返回的状态码
+    private final AtomicInteger status = new AtomicInteger(200);
+    private HttpServer agent;
+    private ConsulScopeRegistration registration;
+
+    @BeforeEach
+    public void start() throws Exception {
+        this.agent = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.agent.createContext("/v1/agent/service/", this::handle);
+        this.agent.start();
+
+        final var config = new DiscoveryConfig.Consul();
+        config.setAgent("127.0.0.1:" + this.agent.getAddress().getPort());
+        config.setService("echo");
+        // 注册失败的重试间隔
+        config.setCheckIntervalMills(100);
+        config.setDeregisterCriticalAfterMills(60000);
+        config.setTimeoutMills(1000);
+        this.registration = new ConsulScopeRegistration("primary", config, "10.0.0.1:9000");
+    }
+
+    @AfterEach
+    public void stop() {
+        this.registration.deregister();
+        this.agent.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        this.requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), body));
+        final var bytes = (this.status.get() == 200 ? "" : "agent error").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(this.status.get(), bytes.length == 0 ? -1 : bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private Request next() throws InterruptedException {
+        final var request = this.requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request, "waiting for agent request");
+        return request;
+    }
+
+    /**
+     * @return 500ms 内没有新请求之前收到的请求数
+     */
+    private int drain() throws InterruptedException {
+        var count = 0;
+        while (count < 10 && this.requests.poll(500, TimeUnit.MILLISECONDS) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testRegisterDeregister() throws Exception {
+        this.registration.start();
+
+        final var register = next();
+        assertEquals("PUT", register.method);
+        assertEquals("/v1/agent/service/register", register.path);
+        final var service = JsonParser.parseString(register.body).getAsJsonObject();
+        assertEquals("echo-10.0.0.1:9000", service.get("ID").getAsString());
+        assertEquals("echo", service.get("Name").getAsString());
+        assertEquals("10.0.0.1", service.get("Address").getAsString());
+        assertEquals(9000, service.get("Port").getAsInt());
+        // agent 通过 grpc health 检查实例
+        final JsonObject check = service.getAsJsonObject("Check");
+        assertEquals("10.0.0.1:9000", check.get("GRPC").getAsString());
+        assertEquals("100ms", check.get("Interval").getAsString());
+        assertEquals("60000ms", check.get("DeregisterCriticalServiceAfter").getAsString());
+
+        this.registration.deregister();
+        final var deregister = next();
+        assertEquals("PUT", deregister.method);
+        assertEquals("/v1/agent/service/deregister/echo-10.0.0.1%3A9000", deregister.path);
+    }
+
+    @Test
+    public void testRegisterRetry() throws Exception {
+        this.status.set(500);
+        this.registration.start();
+        assertEquals("/v1/agent/service/register", next().path);
+        // 按 checkIntervalMills 重试
+        assertEquals("/v1/agent/service/register", next().path);
+
+        this.status.set(200);
+        // 注册成功之后不再重试
+        assertTrue(drain() < 10);
+
+        // 注销失败不抛出异常 critical 之后 agent 自动注销
+        this.status.set(500);
+        this.registration.deregister();
+        assertTrue(next().path.startsWith("/v1/agent/service/deregister/"));
+    }
+
+    @Test
+    public void testDeregisterBeforeRegistered() throws Exception {
+        this.status.set(500);
+        this.registration.start();
+        next();
+        this.registration.deregister();
+        // 没有注册成功 不需要注销
+        for (Request request; (request = this.requests.poll(500, TimeUnit.MILLISECONDS)) != null; ) {
+            assertEquals("/v1/agent/service/register", request.path);
+        }
+    }
+
+    private static final class Request {
+        private final String method;
+        private final String path;
+        private final String body;
+
+        private Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+}
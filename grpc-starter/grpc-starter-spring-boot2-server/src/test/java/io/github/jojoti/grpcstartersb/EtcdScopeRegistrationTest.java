@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用本地 http stub 代替 etcd json gateway
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class EtcdScopeRegistrationTest {
+
+    private static final String KEY = "/grpc-starter/services/primary/10.0.0.1:9000";
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    // path -> 响应 没有配置的 path 返回空 json
+    private final Map<String, Response> responses = new ConcurrentHashMap<>();
+    // 前几次 put 返回代理的错误页
+    private final AtomicInteger putFailures = new AtomicInteger();
+    private final AtomicBoolean ready = new AtomicBoolean(true);
+    private HttpServer gateway;
+    private EtcdScopeRegistration registration;
+
+    @BeforeEach
+    public void start() throws Exception {
+        this.gateway = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.gateway.createContext("/v3/", this::handle);
+        this.gateway.start();
+        this.responses.put("/v3/lease/grant", new Response(200, "{\"ID\":\"7\",\"TTL\":\"1\"}"));
+        this.responses.put("/v3/lease/keepalive", new Response(200, "{\"result\":{\"ID\":\"7\",\"TTL\":\"1\"}}"));
+
+        final var config = new DiscoveryConfig.Etcd();
+        config.setEndpoints(List.of("127.0.0.1:" + this.gateway.getAddress().getPort()));
+        // 每 333ms 续约一次
+        config.setTtlSeconds(1);
+        config.setTimeoutMills(1000);
+        this.registration = new EtcdScopeRegistration("primary", config, "10.0.0.1:9000", this.ready::get);
+    }
+
+    @AfterEach
+    public void stop() {
+        this.registration.deregister();
+        this.gateway.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final var path = exchange.getRequestURI().getPath();
+        final var body = JsonParser.parseString(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+        this.requests.add(new Request(path, body));
+        final var response = path.equals("/v3/kv/put") && this.putFailures.getAndDecrement() > 0
+                ? new Response(502, "<html>Bad Gateway</html>")
+                : this.responses.getOrDefault(path, new Response(200, "{\"header\":{}}"));
+        final var bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private Request next(String path) throws InterruptedException {
+        // 续约一直在进行 超时按总时间计算
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            final var request = this.requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull(request, "waiting for " + path);
+            if (request.path.equals(path)) {
+                return request;
+            }
+        }
+    }
+
+    private static String decode(JsonObject body, String name) {
+        return new String(Base64.getDecoder().decode(body.get(name).getAsString()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRegisterKeepAliveDeregister() throws Exception {
+        this.registration.start();
+
+        assertEquals(1, next("/v3/lease/grant").body.get("TTL").getAsLong());
+        final var put = next("/v3/kv/put").body;
+        assertEquals(KEY, decode(put, "key"));
+        assertEquals(7, put.get("lease").getAsLong());
+        final var endpoint = DiscoveryEndpoint.fromJson(decode(put, "value"));
+        assertEquals("primary", endpoint.getScope());
+        assertEquals("10.0.0.1:9000", endpoint.getAddress());
+        assertTrue(endpoint.isHealthy());
+
+        // readiness 没有变化时只续约
+        assertEquals(7, next("/v3/lease/keepalive").body.get("ID").getAsLong());
+        assertEquals(7, next("/v3/lease/keepalive").body.get("ID").getAsLong());
+
+        // drain/背压 同步到注册中心
+        this.ready.set(false);
+        final var unhealthy = next("/v3/kv/put").body;
+        assertFalse(DiscoveryEndpoint.fromJson(decode(unhealthy, "value")).isHealthy());
+
+        this.registration.deregister();
+        assertEquals(7, next("/v3/lease/revoke").body.get("ID").getAsLong());
+    }
+
+    @Test
+    public void testLeaseExpired() throws Exception {
+        this.registration.start();
+        next("/v3/kv/put");
+
+        // lease 已经过期 重新申请并且写入
+        this.responses.put("/v3/lease/keepalive", new Response(200, "{\"result\":{\"ID\":\"7\"}}"));
+        this.responses.put("/v3/lease/grant", new Response(200, "{\"ID\":\"8\",\"TTL\":\"1\"}"));
+        next("/v3/lease/grant");
+        assertEquals(8, next("/v3/kv/put").body.get("lease").getAsLong());
+    }
+
+    @Test
+    public void testGatewayError() throws Exception {
+        // 代理返回的错误页不是 json
+        this.putFailures.set(2);
+        this.responses.put("/v3/lease/revoke", new Response(502, "<html>Bad Gateway</html>"));
+        this.registration.start();
+        next("/v3/kv/put");
+        // 失败之后继续重试 成功之后只续约
+        next("/v3/kv/put");
+        next("/v3/kv/put");
+        next("/v3/lease/keepalive");
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        for (Request request; (request = this.requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null; ) {
+            assertEquals("/v3/lease/keepalive", request.path);
+        }
+
+        // 注销失败不抛出异常 ttl 之后 etcd 自动删除
+        this.registration.deregister();
+        next("/v3/lease/revoke");
+    }
+
+    private static final class Request {
+        private final String path;
+        private final JsonObject body;
+
+        private Request(String path, JsonObject body) {
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+}
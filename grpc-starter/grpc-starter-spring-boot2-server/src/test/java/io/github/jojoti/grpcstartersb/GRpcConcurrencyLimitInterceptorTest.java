@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.StringValue;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+@GRpcScope("limit")
+public class GRpcConcurrencyLimitInterceptorTest {
+
+    private static final MethodDescriptor<StringValue, StringValue> WATCH = GRpcInProcessTest.ECHO.toBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Echo", "Watch"))
+            .build();
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    public void start() throws Exception {
+        final var item = new GRpcServerProperties.ServerItem();
+        item.setInProcess(GRpcServerProperties.InProcessMode.ONLY);
+        final var config = item.getConcurrencyLimit();
+        config.setEnabled(true);
+        config.setAlgorithm(GRpcServerProperties.LimitAlgorithm.AIMD);
+        config.setInitialLimit(1);
+        config.setMinLimit(1);
+        config.setMaxLimit(1);
+        final var properties = new GRpcServerProperties();
+        properties.setServers(Map.of("limit", item));
+
+        final BindableService service = () -> ServerServiceDefinition.builder("test.Echo")
+                .addMethod(GRpcInProcessTest.ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    if (request.getValue().equals("block")) {
+                        this.blocked.countDown();
+                        try {
+                            this.unblock.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                }))
+                // 只发送第一条消息 直到测试结束才关闭
+                .addMethod(WATCH, ServerCalls.asyncServerStreamingCall((request, responseObserver) -> responseObserver.onNext(request)))
+                .build();
+        final var interceptor = new GRpcConcurrencyLimitInterceptor(properties);
+        interceptor.aware(GRpcConcurrencyLimitInterceptorTest.class.getAnnotation(GRpcScope.class), ImmutableList.of(service));
+
+        final var name = InProcessServerBuilder.generateName();
+        this.server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .build()
+                .start();
+        this.channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        this.unblock.countDown();
+        this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStreamNotHoldPermit() throws Exception {
+        final var watching = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            ClientCalls.asyncServerStreamingCall(this.channel.newCall(WATCH, CallOptions.DEFAULT), StringValue.of("watch"), new StreamObserver<>() {
+                @Override
+                public void onNext(StringValue value) {
+                    watching.countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+        }
+        assertTrue(watching.await(5, TimeUnit.SECONDS));
+
+        // 长连接的 stream 不占用许可 limit=1 时 unary 依然可以逐个通过
+        for (int i = 0; i < 20; i++) {
+            final var response = ClientCalls.blockingUnaryCall(this.channel, GRpcInProcessTest.ECHO, CallOptions.DEFAULT, StringValue.of("hello"));
+            assertEquals("hello", response.getValue());
+        }
+    }
+
+    @Test
+    public void testUnaryLimited() throws Exception {
+        final var pending = ClientCalls.futureUnaryCall(this.channel.newCall(GRpcInProcessTest.ECHO, CallOptions.DEFAULT), StringValue.of("block"));
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+
+        final var e = assertThrows(StatusRuntimeException.class,
+                () -> ClientCalls.blockingUnaryCall(this.channel, GRpcInProcessTest.ECHO, CallOptions.DEFAULT, StringValue.of("hello")));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+
+        this.unblock.countDown();
+        assertEquals("block", pending.get(5, TimeUnit.SECONDS).getValue());
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.protobuf.StringValue;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcAutoConfiguration;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 启动 inProcess=only 的 scope 通过 in-process channel 调用
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcInProcessTest {
+
+    static final MethodDescriptor<StringValue, StringValue> ECHO = MethodDescriptor.<StringValue, StringValue>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Echo", "Echo"))
+            .setRequestMarshaller(ProtoUtils.marshaller(StringValue.getDefaultInstance()))
+            .setResponseMarshaller(ProtoUtils.marshaller(StringValue.getDefaultInstance()))
+            .build();
+
+    private static ConfigurableApplicationContext context;
+    private static ManagedChannel channel;
+
+    @BeforeAll
+    public static void start() {
+        context = new SpringApplicationBuilder(TestApplication.class)
+                .web(WebApplicationType.NONE)
+                .run();
+        channel = InProcessChannelBuilder.forName("inprocess").directExecutor().build();
+    }
+
+    @AfterAll
+    public static void stop() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        context.close();
+    }
+
+    @Test
+    public void testUnary() throws Exception {
+        final var counter = context.getBean(CountingInterceptor.class);
+        final var before = counter.calls.get();
+
+        final var response = ClientCalls.blockingUnaryCall(channel, ECHO, CallOptions.DEFAULT, StringValue.of("hello"));
+        assertEquals("hello", response.getValue());
+        // in-process server 与 tcp server 使用同一条拦截器链
+        assertEquals(before + 1, counter.calls.get());
+    }
+
+    @Test
+    public void testUnimplemented() throws Exception {
+        final var unknown = ECHO.toBuilder().setFullMethodName(MethodDescriptor.generateFullMethodName("test.Echo", "Unknown")).build();
+        final var e = assertThrows(StatusRuntimeException.class,
+                () -> ClientCalls.blockingUnaryCall(channel, unknown, CallOptions.DEFAULT, StringValue.of("hello")));
+        assertEquals(Status.Code.UNIMPLEMENTED, e.getStatus().getCode());
+    }
+
+    @Test
+    public void testLifecycle() throws Exception {
+        assertTrue(context.getBean(GRpcServers.class).isRunning());
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration(GRpcAutoConfiguration.class)
+    static class TestApplication {
+
+        @Bean
+        public EchoService echoService() {
+            return new EchoService();
+        }
+
+        @Bean
+        public CountingInterceptor countingInterceptor() {
+            return new CountingInterceptor();
+        }
+
+    }
+
+    @GRpcScopeService(scope = @GRpcScope("inprocess"))
+    static class EchoService implements BindableService {
+
+        @Override
+        public ServerServiceDefinition bindService() {
+            return ServerServiceDefinition.builder("test.Echo")
+                    .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                        responseObserver.onNext(request);
+                        responseObserver.onCompleted();
+                    }))
+                    .build();
+        }
+
+    }
+
+    @GRpcScopeGlobalInterceptor(scope = @GRpcScope("inprocess"))
+    static class CountingInterceptor implements ServerInterceptor {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            this.calls.incrementAndGet();
+            return next.startCall(call, headers);
+        }
+
+    }
+
+}
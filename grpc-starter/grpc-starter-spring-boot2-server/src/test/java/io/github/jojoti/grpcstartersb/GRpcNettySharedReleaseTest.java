@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcAutoConfiguration;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.BindableService;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCalls;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * scope 创建失败时释放已经引用的共享 event loop
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcNettySharedReleaseTest {
+
+    @Test
+    public void testReleaseNettySharedOnReloadFailure() throws Exception {
+        final var context = new SpringApplicationBuilder(TestApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.config.name=nettyshared")
+                .run();
+        // bind 之后 event loop 的线程才会启动
+        assertTrue(sharedThreads() > 0);
+
+        final var servers = context.getBean(GRpcServers.class);
+        final var previous = context.getBean(GRpcServerProperties.class).getServers().get("nettyshared");
+        final var newConfig = new GRpcServerProperties.ServerItem();
+        newConfig.setAddress(previous.getAddress());
+        newConfig.setNettySharedConfig(previous.getNettySharedConfig());
+        // 不存在的 codec 在 retain 共享的 event loop 之后才会检查
+        final var compression = new GRpcServerProperties.CompressionConfig();
+        compression.setEnabled(true);
+        compression.setCodecs(List.of("unknown"));
+        newConfig.setCompression(compression);
+        final var e = assertThrows(IllegalStateException.class, () -> servers.reload("nettyshared", newConfig));
+        assertTrue(e.getCause().getMessage().contains("compression codec unknown not found"), e.getCause().getMessage());
+        assertTrue(servers.isRunning());
+
+        // 失败的 reload 没有遗留引用 最后一个 scope 停止时关闭 event loop
+        context.close();
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sharedThreads() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, sharedThreads());
+    }
+
+    private static long sharedThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().startsWith("grpc-shared-"))
+                .count();
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration(GRpcAutoConfiguration.class)
+    static class TestApplication {
+
+        @Bean
+        public NettySharedService nettySharedService() {
+            return new NettySharedService();
+        }
+
+    }
+
+    @GRpcScopeService(scope = @GRpcScope("nettyshared"))
+    static class NettySharedService implements BindableService {
+
+        @Override
+        public ServerServiceDefinition bindService() {
+            return ServerServiceDefinition.builder("test.Echo")
+                    .addMethod(GRpcInProcessTest.ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                        responseObserver.onNext(request);
+                        responseObserver.onCompleted();
+                    }))
+                    .build();
+        }
+
+    }
+
+}
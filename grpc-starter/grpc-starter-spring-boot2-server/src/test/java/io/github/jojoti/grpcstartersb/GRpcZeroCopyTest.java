@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.protobuf.StringValue;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcAutoConfiguration;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 开启 zeroCopy 的 scope 拦截器按 bindService 返回的 descriptor 查找配置
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class GRpcZeroCopyTest {
+
+    private static ConfigurableApplicationContext context;
+    private static ManagedChannel channel;
+
+    @BeforeAll
+    public static void start() {
+        context = new SpringApplicationBuilder(TestApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.config.name=zerocopy")
+                .run();
+        channel = InProcessChannelBuilder.forName("zerocopy").directExecutor().build();
+    }
+
+    @AfterAll
+    public static void stop() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        context.close();
+    }
+
+    @Test
+    public void testInterceptorSeesBoundDescriptor() throws Exception {
+        final var response = ClientCalls.blockingUnaryCall(channel, GRpcInProcessTest.ECHO, CallOptions.DEFAULT, StringValue.of("hello"));
+        assertEquals("hello", response.getValue());
+
+        final var interceptor = context.getBean(DescriptorInterceptor.class);
+        assertEquals(1, interceptor.seen.size());
+        assertSame(GRpcInProcessTest.ECHO, interceptor.seen.iterator().next());
+    }
+
+    @Test
+    public void testMarshallerReplaced() throws Exception {
+        final var config = new GRpcServerProperties.ZeroCopyConfig();
+        config.setEnabled(true);
+        final var applied = ZeroCopyMarshallers.apply(new EchoService().bindService(), config);
+        // 传输层解析使用的是 zero copy marshaller
+        final var registered = applied.getMethod(GRpcInProcessTest.ECHO.getFullMethodName()).getMethodDescriptor();
+        assertNotSame(GRpcInProcessTest.ECHO, registered);
+        assertNotSame(GRpcInProcessTest.ECHO.getRequestMarshaller(), registered.getRequestMarshaller());
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration(GRpcAutoConfiguration.class)
+    static class TestApplication {
+
+        @Bean
+        public EchoService echoService() {
+            return new EchoService();
+        }
+
+        @Bean
+        public DescriptorInterceptor descriptorInterceptor() {
+            return new DescriptorInterceptor();
+        }
+
+    }
+
+    @GRpcScopeService(scope = @GRpcScope("zerocopy"))
+    static class EchoService implements BindableService {
+
+        @Override
+        public ServerServiceDefinition bindService() {
+            return ServerServiceDefinition.builder("test.Echo")
+                    .addMethod(GRpcInProcessTest.ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                        responseObserver.onNext(request);
+                        responseObserver.onCompleted();
+                    }))
+                    .build();
+        }
+
+    }
+
+    /**
+     * 与内置拦截器相同 aware 时按 descriptor 建立索引，找不到时拒绝
+     */
+    @GRpcScopeGlobalInterceptor(scope = @GRpcScope("zerocopy"))
+    static class DescriptorInterceptor implements ScopeServerInterceptor {
+
+        private final Set<MethodDescriptor<?, ?>> seen = Sets.newConcurrentHashSet();
+        private volatile ImmutableSet<MethodDescriptor<?, ?>> bound = ImmutableSet.of();
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            if (!this.bound.contains(call.getMethodDescriptor())) {
+                call.close(Status.PERMISSION_DENIED, new Metadata());
+                return new ServerCall.Listener<>() {
+                };
+            }
+            this.seen.add(call.getMethodDescriptor());
+            return next.startCall(call, headers);
+        }
+
+        @Override
+        public List<String> getScopes() {
+            return List.of("zerocopy");
+        }
+
+        @Override
+        public void aware(GRpcScope currentGRpcScope, ImmutableList<BindableService> scopes) {
+            final var builder = ImmutableSet.<MethodDescriptor<?, ?>>builder();
+            for (BindableService service : scopes) {
+                for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+                    builder.add(method.getMethodDescriptor());
+                }
+            }
+            this.bound = builder.build();
+        }
+
+        @Override
+        public ScopeServerInterceptor cloneThis() {
+            // 只作用于一个 scope 不需要复制
+            return this;
+        }
+
+    }
+
+}
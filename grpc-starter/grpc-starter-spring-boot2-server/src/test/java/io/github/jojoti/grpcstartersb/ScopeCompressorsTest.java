@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.protobuf.StringValue;
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ScopeCompressorsTest {
+
+    private Server server;
+    private ManagedChannel channel;
+
+    /**
+     * 不做任何压缩 只用来验证只配置了自定义 codec 的 scope
+     */
+    private static final class PlainCodec implements Codec {
+
+        @Override
+        public String getMessageEncoding() {
+            return "plain";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) {
+            return os;
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) {
+            return is;
+        }
+
+    }
+
+    @BeforeEach
+    public void start() throws Exception {
+        final var config = new GRpcServerProperties.CompressionConfig();
+        config.setEnabled(true);
+        config.setCodecs(List.of("plain"));
+
+        final var name = InProcessServerBuilder.generateName();
+        final var builder = InProcessServerBuilder.forName(name).directExecutor();
+        ScopeCompressors.applyCompression("compression", config, ScopeCompressors.availableCodecs(List.of(new PlainCodec())), builder);
+        this.server = builder.addService(ServerServiceDefinition.builder("test.Echo")
+                        .addMethod(GRpcInProcessTest.ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        this.channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        this.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        this.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDecompressDefaultCodec() throws Exception {
+        // scope 没有配置 gzip 客户端用 gzip 发送的请求依然可以解压
+        final var response = ClientCalls.blockingUnaryCall(this.channel, GRpcInProcessTest.ECHO,
+                CallOptions.DEFAULT.withCompression("gzip"), StringValue.of("hello"));
+        assertEquals("hello", response.getValue());
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ScopeExecutorsTest {
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        final var config = new GRpcServerProperties.ExecutorConfig();
+        config.setType(GRpcServerProperties.ExecutorType.FIXED);
+        config.setCoreSize(1);
+        config.setMaxSize(1);
+        config.setQueueCapacity(1);
+        this.executor = ScopeExecutors.applyExecutor("test", config, null, InProcessServerBuilder.forName("test"));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        this.unblock.countDown();
+        ScopeExecutors.shutdown(this.executor, 1000);
+    }
+
+    /**
+     * 模拟 grpc 的 SerializingExecutor 同一个实例代表同一个 call
+     */
+    private static final class Call implements Runnable {
+
+        private final BlockingQueue<Boolean> saturated = new LinkedBlockingQueue<>();
+        private volatile CountDownLatch block;
+
+        @Override
+        public void run() {
+            this.saturated.add(ScopeExecutors.isSaturated());
+            if (this.block != null) {
+                try {
+                    this.block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        boolean nextSaturated() throws InterruptedException {
+            final var found = this.saturated.poll(5, TimeUnit.SECONDS);
+            assertNotNull(found);
+            return found;
+        }
+
+    }
+
+    /**
+     * 占满唯一的线程和队列
+     */
+    private Call saturate() throws Exception {
+        final var running = new Call();
+        running.block = this.unblock;
+        this.executor.execute(running);
+        assertFalse(running.nextSaturated());
+        this.executor.execute(new Call());
+        return running;
+    }
+
+    @Test
+    public void testNewCallGoesToOverflow() throws Exception {
+        saturate();
+        final var call = new Call();
+        this.executor.execute(call);
+        assertTrue(call.nextSaturated());
+    }
+
+    @Test
+    public void testAcceptedCallNotGoesToOverflow() throws Exception {
+        final var accepted = new Call();
+        this.executor.execute(accepted);
+        assertFalse(accepted.nextSaturated());
+
+        saturate();
+        // 已经接收的 call 的后续回调排队 等线程空闲之后在 worker 里执行
+        this.executor.execute(accepted);
+        assertNull(accepted.saturated.poll(200, TimeUnit.MILLISECONDS));
+        this.unblock.countDown();
+        assertFalse(accepted.nextSaturated());
+    }
+
+    @Test
+    public void testOverflowBounded() throws Exception {
+        saturate();
+        final var overflowBlock = new CountDownLatch(1);
+        final var blocking = new Call();
+        blocking.block = overflowBlock;
+        this.executor.execute(blocking);
+        assertTrue(blocking.nextSaturated());
+        try {
+            final var ran = new AtomicInteger();
+            for (int i = 0; i < ScopeExecutors.OVERFLOW_CAPACITY; i++) {
+                this.executor.execute(ran::incrementAndGet);
+            }
+            assertThrows(RejectedExecutionException.class, () -> this.executor.execute(ran::incrementAndGet));
+            assertEquals(0, ran.get());
+        } finally {
+            overflowBlock.countDown();
+        }
+    }
+
+    @Test
+    public void testIdleWorkerTakesNewCallWithoutQueue() throws Exception {
+        ScopeExecutors.shutdown(this.executor, 1000);
+        final var config = new GRpcServerProperties.ExecutorConfig();
+        config.setType(GRpcServerProperties.ExecutorType.FIXED);
+        config.setCoreSize(1);
+        config.setMaxSize(1);
+        config.setQueueCapacity(0);
+        this.executor = ScopeExecutors.applyExecutor("test", config, null, InProcessServerBuilder.forName("test"));
+        for (int i = 0; i < 3; i++) {
+            final var call = new Call();
+            this.executor.execute(call);
+            assertFalse(call.nextSaturated());
+            // 等 worker 执行完回到空闲
+            while (((ThreadPoolExecutor) this.executor).getActiveCount() > 0) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+}
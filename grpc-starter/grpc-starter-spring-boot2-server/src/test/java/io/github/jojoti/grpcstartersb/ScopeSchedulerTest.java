@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import io.github.jojoti.grpcstartersb.autoconfigure.GRpcServerProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class ScopeSchedulerTest {
+
+    private static GRpcServerProperties.SchedulerConfig newConfig(int latencyTargetMills) {
+        final var config = new GRpcServerProperties.SchedulerConfig();
+        // 单线程 执行顺序即调度顺序
+        config.setThreads(1);
+        config.setLatencyTargetMills(latencyTargetMills);
+        config.setThrottleRatio(0.1);
+        return config;
+    }
+
+    private static GRpcServerProperties.ExecutorConfig newExecutor(int weight, boolean latencySensitive, int queueCapacity) {
+        final var config = new GRpcServerProperties.ExecutorConfig();
+        config.setType(GRpcServerProperties.ExecutorType.SHARED);
+        config.setWeight(weight);
+        config.setLatencySensitive(latencySensitive);
+        config.setQueueCapacity(queueCapacity);
+        return config;
+    }
+
+    /**
+     * 阻塞唯一的线程 之后提交的任务都在排队
+     */
+    private static CountDownLatch block(ScopeScheduler.Lane lane) throws InterruptedException {
+        final var started = new CountDownLatch(1);
+        final var gate = new CountDownLatch(1);
+        lane.execute(() -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private static void shutdown(ScopeScheduler.Lane... lanes) throws InterruptedException {
+        for (ScopeScheduler.Lane lane : lanes) {
+            lane.shutdown();
+        }
+        for (ScopeScheduler.Lane lane : lanes) {
+            assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testWeightedShare() throws Exception {
+        final var scheduler = ScopeScheduler.newScopeScheduler(newConfig(0));
+        final var primary = scheduler.newLane("primary", newExecutor(3, false, 0));
+        final var secondary = scheduler.newLane("secondary", newExecutor(1, false, 0));
+
+        final var gate = block(primary);
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final var done = new CountDownLatch(64);
+        for (int i = 0; i < 32; i++) {
+            primary.execute(() -> {
+                executed.add("primary");
+                done.countDown();
+            });
+            secondary.execute(() -> {
+                executed.add("secondary");
+                done.countDown();
+            });
+        }
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // 两个 lane 都有积压时 按 3:1 分配
+        final var primaryCount = executed.subList(0, 16).stream().filter("primary"::equals).count();
+        assertTrue(primaryCount >= 11 && primaryCount <= 13, "primary " + primaryCount + " of 16");
+
+        shutdown(primary, secondary);
+        assertTrue(scheduler.isReleased());
+    }
+
+    @Test
+    public void testThrottleEngageAndRecover() throws Exception {
+        final var scheduler = ScopeScheduler.newScopeScheduler(newConfig(10));
+        final var sensitive = scheduler.newLane("primary", newExecutor(1, true, 0));
+        final var other = scheduler.newLane("secondary", newExecutor(1, false, 0));
+
+        // 延迟敏感的任务排队 50ms 超过 latencyTargetMills
+        final var gate = block(other);
+        final var throttled = new AtomicBoolean();
+        final var sensitiveDone = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            sensitive.execute(() -> {
+                throttled.set(scheduler.isThrottled());
+                sensitiveDone.countDown();
+            });
+        }
+        Thread.sleep(50);
+        gate.countDown();
+        assertTrue(sensitiveDone.await(5, TimeUnit.SECONDS));
+        assertTrue(throttled.get());
+
+        // 延迟敏感的 scope 没有排队 其它 scope 的任务逐渐恢复
+        final var otherDone = new CountDownLatch(30);
+        for (int i = 0; i < 30; i++) {
+            other.execute(otherDone::countDown);
+        }
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isThrottled());
+
+        shutdown(sensitive, other);
+    }
+
+    @Test
+    public void testQueueCapacity() throws Exception {
+        final var scheduler = ScopeScheduler.newScopeScheduler(newConfig(0));
+        final var lane = scheduler.newLane("primary", newExecutor(1, false, 2));
+
+        final var gate = block(lane);
+        lane.execute(() -> {
+        });
+        lane.execute(() -> {
+        });
+        assertEquals(2, lane.getQueueDepth());
+        assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> {
+        }));
+        gate.countDown();
+
+        shutdown(lane);
+        assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> {
+        }));
+        assertTrue(scheduler.isReleased());
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public class TokenBucketTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testBurstRejectRetryAfter() throws Exception {
+        // 每 100ms 一个 允许突发 5 个
+        final var rate = new TokenBucket.Rate(10, 5);
+        final var bucket = new TokenBucket(0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(rate, 0));
+        }
+        assertEquals(100 * MILLIS, bucket.tryAcquire(rate, 0));
+        // 被拒绝的请求不消耗令牌
+        assertEquals(100 * MILLIS, bucket.tryAcquire(rate, 0));
+        assertEquals(40 * MILLIS, bucket.tryAcquire(rate, 60 * MILLIS));
+
+        // 按建议的时间重试可以通过
+        assertEquals(0, bucket.tryAcquire(rate, 100 * MILLIS));
+        assertEquals(100 * MILLIS, bucket.tryAcquire(rate, 100 * MILLIS));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        final var rate = new TokenBucket.Rate(10, 5);
+        final var bucket = new TokenBucket(0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(rate, 0));
+        }
+        // 空闲足够久之后 桶是满的 不会攒下超过 burst 的令牌
+        final var now = TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(rate, now));
+        }
+        assertTrue(bucket.tryAcquire(rate, now) > 0);
+    }
+
+    @Test
+    public void testDefaultBurst() throws Exception {
+        // burst 为 0 时允许 1s 的量
+        final var rate = new TokenBucket.Rate(20, 0);
+        final var bucket = new TokenBucket(0);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, bucket.tryAcquire(rate, 0));
+        }
+        assertEquals(50 * MILLIS, bucket.tryAcquire(rate, 0));
+    }
+
+    @Test
+    public void testIdle() throws Exception {
+        final var rate = new TokenBucket.Rate(10, 5);
+        final var bucket = new TokenBucket(0);
+        bucket.tryAcquire(rate, 0);
+        assertFalse(bucket.isIdle(1000 * MILLIS, 1000 * MILLIS));
+        assertTrue(bucket.isIdle(1200 * MILLIS, 1000 * MILLIS));
+    }
+
+    @Test
+    public void testInvalidRate() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Rate(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Rate(1, -1));
+    }
+
+}
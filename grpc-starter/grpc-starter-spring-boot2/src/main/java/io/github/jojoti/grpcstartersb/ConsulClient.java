@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * consul 本机 agent 的最小 http 客户端 只使用 service 注册与 health 查询
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class ConsulClient {
+
+    private final URI agent;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+
+    public ConsulClient(String agent, int timeoutMills) {
+        if (agent == null || agent.isEmpty()) {
+            throw new IllegalArgumentException("consul agent is not allow empty");
+        }
+        this.agent = URI.create(agent.contains("://") ? agent : "http://" + agent);
+        this.timeout = Duration.ofMillis(timeoutMills);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(this.timeout)
+                .build();
+    }
+
+    /**
+     * 注册 service 以及 grpc health 检查，检查的是 server 的整体健康状态
+     */
+    public void register(String id, String name, String host, int port, int checkIntervalMills, int deregisterCriticalAfterMills) throws IOException {
+        final var check = new JsonObject();
+        check.addProperty("GRPC", host + ":" + port);
+        check.addProperty("Interval", checkIntervalMills + "ms");
+        check.addProperty("DeregisterCriticalServiceAfter", deregisterCriticalAfterMills + "ms");
+        final var service = new JsonObject();
+        service.addProperty("ID", id);
+        service.addProperty("Name", name);
+        service.addProperty("Address", host);
+        service.addProperty("Port", port);
+        service.add("Check", check);
+        send(HttpRequest.newBuilder(this.agent.resolve("/v1/agent/service/register"))
+                .timeout(this.timeout)
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(service.toString())));
+    }
+
+    public void deregister(String id) throws IOException {
+        send(HttpRequest.newBuilder(this.agent.resolve("/v1/agent/service/deregister/" + encode(id)))
+                .timeout(this.timeout)
+                .PUT(HttpRequest.BodyPublishers.noBody()));
+    }
+
+    /**
+     * blocking query: 从 index 开始最多等待 waitMills，期间有变更立即返回
+     *
+     * @param index 第一次为 0
+     */
+    public Instances healthyInstances(String name, long index, int waitMills) throws IOException {
+        final var uri = this.agent.resolve("/v1/health/service/" + encode(name) + "?passing=true&index=" + index + "&wait=" + waitMills + "ms");
+        // agent 最多会额外等待 wait/16 的随机时间
+        final var response = send(HttpRequest.newBuilder(uri)
+                .timeout(this.timeout.plusMillis(waitMills + waitMills / 16))
+                .GET());
+        final var instances = new ArrayList<String>();
+        try {
+            for (JsonElement element : JsonParser.parseString(response.body()).getAsJsonArray()) {
+                final var entry = element.getAsJsonObject();
+                final var service = entry.getAsJsonObject("Service");
+                var host = service.has("Address") ? service.get("Address").getAsString() : "";
+                if (host.isEmpty()) {
+                    // service 没有指定地址时使用 node 的地址
+                    host = entry.getAsJsonObject("Node").get("Address").getAsString();
+                }
+                instances.add(host.contains(":") ? "[" + host + "]:" + service.get("Port").getAsInt() : host + ":" + service.get("Port").getAsInt());
+            }
+        } catch (RuntimeException e) {
+            // 解析失败统一为 IOException 调用方只需要处理一种异常
+            throw new IOException("consul invalid response " + response.body(), e);
+        }
+        final var nextIndex = response.headers().firstValueAsLong("X-Consul-Index").orElse(0);
+        return new Instances(nextIndex, List.copyOf(instances));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException {
+        final HttpResponse<String> response;
+        try {
+            response = this.httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("consul " + request.build().uri() + " interrupted");
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("consul " + response.uri() + " failed, status " + response.statusCode() + ", " + response.body());
+        }
+        return response;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    public static final class Instances {
+        private final long index;
+        // host:port
+        private final List<String> addresses;
+
+        Instances(long index, List<String> addresses) {
+            this.index = index;
+            this.addresses = addresses;
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public List<String> getAddresses() {
+            return addresses;
+        }
+    }
+
+}
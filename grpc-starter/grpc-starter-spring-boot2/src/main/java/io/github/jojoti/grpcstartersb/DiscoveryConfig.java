@@ -11,6 +11,16 @@ public class DiscoveryConfig {
     private Dns dns = null;
     private Etcd etcd = null;
     private Consul consul = null;
+    // 同一个 jvm 内 server scope 的名字 配置了 inProcess 的 scope 直接走 in-process 不经过网络
+    private String inProcess = null;
+
+    public String getInProcess() {
+        return inProcess;
+    }
+
+    public void setInProcess(String inProcess) {
+        this.inProcess = inProcess;
+    }
 
     public Consul getConsul() {
         return consul;
@@ -45,8 +55,26 @@ public class DiscoveryConfig {
     }
 
     public static final class Dns {
-        // 后续还可以配置 dns 查询 ttl 等
+        // 需要解析的域名 host:port，每个 A/AAAA 记录都是一个后端
+        private String target = null;
+        // nameserver ip[:port] 为空时使用系统配置
         private List<String> ns = null;
+        // 按记录的 ttl 刷新，限制在 [minRefreshMills, maxRefreshMills] 之间，解析失败按 minRefreshMills 重试
+        private int minRefreshMills = 5000;
+        private int maxRefreshMills = 300000;
+        private int queryTimeoutMills = 5000;
+        // round_robin 或者 pick_first
+        private String loadBalancing = "round_robin";
+        // 客户端健康检查 需要 server 开启 healthStatus，只对 round_robin 生效
+        private boolean healthCheck = false;
+
+        public String getTarget() {
+            return target;
+        }
+
+        public void setTarget(String target) {
+            this.target = target;
+        }
 
         public List<String> getNs() {
             return ns;
@@ -55,10 +83,59 @@ public class DiscoveryConfig {
         public void setNs(List<String> ns) {
             this.ns = ns;
         }
+
+        public int getMinRefreshMills() {
+            return minRefreshMills;
+        }
+
+        public void setMinRefreshMills(int minRefreshMills) {
+            this.minRefreshMills = minRefreshMills;
+        }
+
+        public int getMaxRefreshMills() {
+            return maxRefreshMills;
+        }
+
+        public void setMaxRefreshMills(int maxRefreshMills) {
+            this.maxRefreshMills = maxRefreshMills;
+        }
+
+        public int getQueryTimeoutMills() {
+            return queryTimeoutMills;
+        }
+
+        public void setQueryTimeoutMills(int queryTimeoutMills) {
+            this.queryTimeoutMills = queryTimeoutMills;
+        }
+
+        public String getLoadBalancing() {
+            return loadBalancing;
+        }
+
+        public void setLoadBalancing(String loadBalancing) {
+            this.loadBalancing = loadBalancing;
+        }
+
+        public boolean isHealthCheck() {
+            return healthCheck;
+        }
+
+        public void setHealthCheck(boolean healthCheck) {
+            this.healthCheck = healthCheck;
+        }
     }
 
     public static final class Etcd {
         private List<String> endpoints = null;
+        // key 为 {prefix}/{service}/{host:port}
+        private String prefix = "/grpc-starter/services";
+        // server 注册的 service 名字 默认为 scope 名字，client 需要 watch 的 service 名字
+        private String service = null;
+        // server 注册使用的 lease ttl 每 ttl/3 续约一次
+        private int ttlSeconds = 10;
+        // server 注册的地址 host[:port] 默认使用 scope 的 address，监听 0.0.0.0 时使用本机地址
+        private String advertiseAddress = null;
+        private int timeoutMills = 5000;
 
         public List<String> getEndpoints() {
             return endpoints;
@@ -67,10 +144,69 @@ public class DiscoveryConfig {
         public void setEndpoints(List<String> endpoints) {
             this.endpoints = endpoints;
         }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public void setService(String service) {
+            this.service = service;
+        }
+
+        public int getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public String getAdvertiseAddress() {
+            return advertiseAddress;
+        }
+
+        public void setAdvertiseAddress(String advertiseAddress) {
+            this.advertiseAddress = advertiseAddress;
+        }
+
+        public int getTimeoutMills() {
+            return timeoutMills;
+        }
+
+        public void setTimeoutMills(int timeoutMills) {
+            this.timeoutMills = timeoutMills;
+        }
+
+        /**
+         * service 下所有实例的 key 前缀
+         */
+        public String getServicePrefix(String service) {
+            return this.prefix + "/" + service + "/";
+        }
     }
 
     public static final class Consul {
+        // 本机 agent host:port
         private String agent = null;
+        // server 注册的 service 名字 默认为 scope 名字，client 需要发现的 service 名字
+        private String service = null;
+        // server 注册的地址 host[:port] 默认使用 scope 的 address，监听 0.0.0.0 时使用本机地址
+        private String advertiseAddress = null;
+        // agent 通过 grpc health 检查 server 的间隔 需要 scope 开启 healthStatus
+        private int checkIntervalMills = 10000;
+        // 持续 critical 超过该时间 agent 自动注销
+        private int deregisterCriticalAfterMills = 60000;
+        // client blocking query 的最长等待时间
+        private int waitMills = 55000;
+        private int timeoutMills = 5000;
 
         public String getAgent() {
             return agent;
@@ -79,6 +215,54 @@ public class DiscoveryConfig {
         public void setAgent(String agent) {
             this.agent = agent;
         }
+
+        public String getService() {
+            return service;
+        }
+
+        public void setService(String service) {
+            this.service = service;
+        }
+
+        public String getAdvertiseAddress() {
+            return advertiseAddress;
+        }
+
+        public void setAdvertiseAddress(String advertiseAddress) {
+            this.advertiseAddress = advertiseAddress;
+        }
+
+        public int getCheckIntervalMills() {
+            return checkIntervalMills;
+        }
+
+        public void setCheckIntervalMills(int checkIntervalMills) {
+            this.checkIntervalMills = checkIntervalMills;
+        }
+
+        public int getDeregisterCriticalAfterMills() {
+            return deregisterCriticalAfterMills;
+        }
+
+        public void setDeregisterCriticalAfterMills(int deregisterCriticalAfterMills) {
+            this.deregisterCriticalAfterMills = deregisterCriticalAfterMills;
+        }
+
+        public int getWaitMills() {
+            return waitMills;
+        }
+
+        public void setWaitMills(int waitMills) {
+            this.waitMills = waitMills;
+        }
+
+        public int getTimeoutMills() {
+            return timeoutMills;
+        }
+
+        public void setTimeoutMills(int timeoutMills) {
+            this.timeoutMills = timeoutMills;
+        }
     }
 
 }
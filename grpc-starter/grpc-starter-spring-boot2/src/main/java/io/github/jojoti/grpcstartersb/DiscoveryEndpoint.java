@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * 注册到 etcd 的实例信息 server 写入 client 读取
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class DiscoveryEndpoint {
+
+    private final String scope;
+    // host:port
+    private final String address;
+    private final boolean healthy;
+
+    public DiscoveryEndpoint(String scope, String address, boolean healthy) {
+        this.scope = scope;
+        this.address = address;
+        this.healthy = healthy;
+    }
+
+    public static DiscoveryEndpoint fromJson(String json) {
+        final var object = JsonParser.parseString(json).getAsJsonObject();
+        return new DiscoveryEndpoint(object.get("scope").getAsString(), object.get("address").getAsString(),
+                object.get("healthy").getAsBoolean());
+    }
+
+    public String toJson() {
+        final var object = new JsonObject();
+        object.addProperty("scope", this.scope);
+        object.addProperty("address", this.address);
+        object.addProperty("healthy", this.healthy);
+        return object.toString();
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+}
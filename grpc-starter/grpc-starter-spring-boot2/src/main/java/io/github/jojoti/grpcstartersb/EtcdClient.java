@@ -0,0 +1,339 @@
+/*
+ * Copyright 2021 JoJo Wang , homepage: https://github.com/jojoti/experiment-jvm.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jojoti.grpcstartersb;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * etcd v3 的最小客户端 只使用 lease/kv/watch，走 etcd 自带的 http json gateway (/v3/...)
+ * <p>
+ * 不引入 jetcd 避免与 grpc 版本冲突，也可以用本地的 http stub 替代 etcd 测试
+ * 多个 endpoint 按顺序故障转移，请求失败时切换到下一个
+ *
+ * @author JoJo Wang
+ * @link github.com/jojoti
+ */
+public final class EtcdClient {
+
+    private final List<URI> endpoints;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+    // 最近一次成功的 endpoint
+    private volatile int current;
+
+    public EtcdClient(List<String> endpoints, int timeoutMills) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("etcd endpoints is not allow empty");
+        }
+        final var uris = new ArrayList<URI>(endpoints.size());
+        for (String endpoint : endpoints) {
+            uris.add(URI.create(endpoint.contains("://") ? endpoint : "http://" + endpoint));
+        }
+        this.endpoints = List.copyOf(uris);
+        this.timeout = Duration.ofMillis(timeoutMills);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(this.timeout)
+                // gateway 只支持 http/1.1 的 chunked stream
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    /**
+     * @return lease id
+     */
+    public long grantLease(long ttlSeconds) throws IOException {
+        final var request = new JsonObject();
+        request.addProperty("TTL", ttlSeconds);
+        return getLong(call("/v3/lease/grant", request), "ID");
+    }
+
+    /**
+     * @return 剩余的 ttl，lease 已经过期时为 0
+     */
+    public long keepAlive(long leaseId) throws IOException {
+        final var request = new JsonObject();
+        request.addProperty("ID", leaseId);
+        final var response = call("/v3/lease/keepalive", request);
+        // keepalive 是 stream 接口 结果包在 result 里面
+        final var result = response.has("result") ? response.getAsJsonObject("result") : response;
+        return getLong(result, "TTL");
+    }
+
+    public void revoke(long leaseId) throws IOException {
+        final var request = new JsonObject();
+        request.addProperty("ID", leaseId);
+        call("/v3/lease/revoke", request);
+    }
+
+    public void put(String key, String value, long leaseId) throws IOException {
+        final var request = new JsonObject();
+        request.addProperty("key", encode(key));
+        request.addProperty("value", encode(value));
+        request.addProperty("lease", leaseId);
+        call("/v3/kv/put", request);
+    }
+
+    /**
+     * 读取 prefix 下所有的 key
+     */
+    public Range range(String prefix) throws IOException {
+        final var request = new JsonObject();
+        request.addProperty("key", encode(prefix));
+        request.addProperty("range_end", rangeEnd(prefix));
+        final var response = call("/v3/kv/range", request);
+        final var kvs = new ArrayList<KeyValue>();
+        if (response.has("kvs")) {
+            for (JsonElement kv : response.getAsJsonArray("kvs")) {
+                kvs.add(toKeyValue(kv.getAsJsonObject()));
+            }
+        }
+        return new Range(getLong(response.getAsJsonObject("header"), "revision"), List.copyOf(kvs));
+    }
+
+    /**
+     * 从 startRevision 开始 watch prefix 下的变更，一直阻塞读取直到 close 或者出错
+     */
+    public Watch watch(String prefix, long startRevision) throws IOException {
+        final var create = new JsonObject();
+        create.addProperty("key", encode(prefix));
+        create.addProperty("range_end", rangeEnd(prefix));
+        create.addProperty("start_revision", startRevision);
+        final var request = new JsonObject();
+        request.add("create_request", create);
+        // watch 是长连接 不设置请求超时
+        final var response = send("/v3/watch", request, null, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("etcd /v3/watch failed, status " + response.statusCode());
+        }
+        return new Watch(response.body());
+    }
+
+    private JsonObject call(String path, JsonObject request) throws IOException {
+        final var response = send(path, request, this.timeout, HttpResponse.BodyHandlers.ofString());
+        // 非 200 时 body 可能不是 json 例如 gateway 前面的代理返回的错误页
+        if (response.statusCode() != 200) {
+            throw new IOException("etcd " + path + " failed, status " + response.statusCode() + ", " + response.body());
+        }
+        final var json = parse(response.body());
+        if (json.has("error")) {
+            throw new IOException("etcd " + path + " failed, " + response.body());
+        }
+        return json;
+    }
+
+    /**
+     * 解析失败统一为 IOException 调用方只需要处理一种异常
+     */
+    private static JsonObject parse(String body) throws IOException {
+        try {
+            return JsonParser.parseString(body).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("etcd invalid response " + body, e);
+        }
+    }
+
+    private <T> HttpResponse<T> send(String path, JsonObject request, Duration timeout, HttpResponse.BodyHandler<T> handler) throws IOException {
+        IOException last = null;
+        final var start = this.current;
+        for (int i = 0; i < this.endpoints.size(); i++) {
+            final var index = (start + i) % this.endpoints.size();
+            final var builder = HttpRequest.newBuilder(this.endpoints.get(index).resolve(path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(request.toString()));
+            if (timeout != null) {
+                builder.timeout(timeout);
+            }
+            try {
+                final var response = this.httpClient.send(builder.build(), handler);
+                this.current = index;
+                return response;
+            } catch (IOException e) {
+                last = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("etcd " + path + " interrupted");
+            }
+        }
+        throw last;
+    }
+
+    private static KeyValue toKeyValue(JsonObject kv) {
+        return new KeyValue(decode(kv, "key"), decode(kv, "value"));
+    }
+
+    private static long getLong(JsonObject json, String name) {
+        // int64 在 json gateway 里面是字符串 默认值不输出
+        return json != null && json.has(name) ? json.get(name).getAsLong() : 0;
+    }
+
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(JsonObject json, String name) {
+        return json.has(name) ? new String(Base64.getDecoder().decode(json.get(name).getAsString()), StandardCharsets.UTF_8) : "";
+    }
+
+    /**
+     * prefix 的最后一个字节加一 作为范围查询的结束
+     */
+    private static String rangeEnd(String prefix) {
+        final var bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] != (byte) 0xff) {
+                final var end = Arrays.copyOf(bytes, i + 1);
+                end[i]++;
+                return Base64.getEncoder().encodeToString(end);
+            }
+        }
+        // 全部为 0xff 表示到最后
+        return Base64.getEncoder().encodeToString(new byte[]{0});
+    }
+
+    public static final class KeyValue {
+        private final String key;
+        private final String value;
+
+        KeyValue(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public static final class Range {
+        private final long revision;
+        private final List<KeyValue> kvs;
+
+        Range(long revision, List<KeyValue> kvs) {
+            this.revision = revision;
+            this.kvs = kvs;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        public List<KeyValue> getKvs() {
+            return kvs;
+        }
+    }
+
+    public static final class Event {
+        // false 为 DELETE
+        private final boolean put;
+        private final KeyValue kv;
+
+        Event(boolean put, KeyValue kv) {
+            this.put = put;
+            this.kv = kv;
+        }
+
+        public boolean isPut() {
+            return put;
+        }
+
+        public KeyValue getKv() {
+            return kv;
+        }
+    }
+
+    /**
+     * 一个 watch 长连接 每一行是一个 json 响应
+     */
+    public static final class Watch implements Closeable {
+
+        private final InputStream body;
+        private final BufferedReader reader;
+
+        Watch(InputStream body) {
+            this.body = body;
+            this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * 阻塞读取下一批事件 created 之类没有事件的响应返回空列表
+         *
+         * @throws EOFException 连接断开
+         * @throws IOException  watch 被取消 例如 revision 已经被 compact，需要重新 range
+         */
+        public List<Event> next() throws IOException {
+            final var line = this.reader.readLine();
+            if (line == null) {
+                throw new EOFException("etcd watch closed");
+            }
+            if (line.isBlank()) {
+                return List.of();
+            }
+            final var json = parse(line);
+            if (json.has("error")) {
+                throw new IOException("etcd watch error " + line);
+            }
+            final var result = json.getAsJsonObject("result");
+            if (result == null) {
+                return List.of();
+            }
+            if (result.has("canceled") && result.get("canceled").getAsBoolean()) {
+                throw new IOException("etcd watch canceled " + line);
+            }
+            if (!result.has("events")) {
+                return List.of();
+            }
+            final JsonArray events = result.getAsJsonArray("events");
+            final var batch = new ArrayList<Event>(events.size());
+            for (JsonElement element : events) {
+                final var event = element.getAsJsonObject();
+                // PUT 是枚举默认值 json 里面不输出
+                final var put = !event.has("type") || "PUT".equals(event.get("type").getAsString());
+                batch.add(new Event(put, toKeyValue(event.getAsJsonObject("kv"))));
+            }
+            return batch;
+        }
+
+        /**
+         * 关闭连接 阻塞在 next 的线程会抛出异常
+         */
+        @Override
+        public void close() throws IOException {
+            this.body.close();
+        }
+    }
+
+}
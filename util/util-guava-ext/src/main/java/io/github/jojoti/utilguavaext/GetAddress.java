@@ -13,6 +13,27 @@ import java.net.URL;
  */
 public interface GetAddress {
 
+    // unix:///tmp/grpc.sock 或者 unix:/tmp/grpc.sock
+    String UNIX_SCHEME = "unix:";
+
+    static boolean isDomainSocket(String address) {
+        return address != null && address.startsWith(UNIX_SCHEME);
+    }
+
+    /**
+     * @return unix domain socket 的文件路径
+     */
+    static String getDomainSocketPath(String address) {
+        if (!isDomainSocket(address)) {
+            throw new IllegalArgumentException("Address " + address + " is not unix domain socket");
+        }
+        final var path = address.startsWith(UNIX_SCHEME + "//") ? address.substring(UNIX_SCHEME.length() + 2) : address.substring(UNIX_SCHEME.length());
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Address " + address + " path is empty");
+        }
+        return path;
+    }
+
     static SocketAddress getSocketAddress(String address) {
         // fixme 蛋疼
         URL url;